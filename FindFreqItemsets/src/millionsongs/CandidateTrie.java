@@ -0,0 +1,196 @@
+package millionsongs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prefix trie of k-itemset candidates for subset counting.
+ * <p>
+ * Candidates are sorted, so the children of one prefix are contiguous and in
+ * ascending order. The trie is kept level by level in primitive arrays:
+ * items[d] holds the song ids of all nodes of depth d, and the children of
+ * node i of depth d are childStart[d][i] .. childStart[d][i + 1] - 1 of depth
+ * d + 1. Nodes of depth k - 1 are the leaves, one per distinct candidate, and
+ * their counts are kept in counts[].
+ * <p>
+ * Counting a transaction only walks the branches reached by its own items:
+ * at each node the smaller of (children, remaining items) is scanned and
+ * binary searched in the other, so the cost no longer grows with the number
+ * of candidates which do not share a prefix with the transaction.
+ */
+public class CandidateTrie {
+
+    private final int k;
+    private final int[][] items;
+    private final int[][] childStart;
+    private final int[] counts;
+    // Index of the leaf's candidate in the list the trie was built from
+    private final int[] candidateIndex;
+
+    /**
+     * @param candidates - candidates of same size k, items of each candidate in ascending order
+     */
+    public CandidateTrie(List<List<Integer>> candidates) {
+        this(toArrays(candidates));
+    }
+
+    /**
+     * @param sets - candidates of same size k, items of each candidate in ascending order
+     */
+    public CandidateTrie(final int[][] sets) {
+        k = sets.length == 0 ? 0 : sets[0].length;
+        for (int[] set : sets) {
+            if (set.length != k || k == 0)
+                throw new IllegalArgumentException("Candidates must have same size, found "
+                        + set.length + " and " + k);
+        }
+
+        Integer[] order = new Integer[sets.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareSets(sets[a], sets[b]);
+            }
+        });
+
+        // Append nodes level by level, a new node starts where a candidate leaves the previous one
+        int[] sizes = new int[k];
+        int[][] levelItems = new int[k][];
+        int[][] levelStarts = new int[k][];
+        for (int d = 0; d < k; d++) {
+            levelItems[d] = new int[16];
+            levelStarts[d] = new int[17];
+        }
+        int[] leafCandidates = new int[16];
+        int[] previous = null;
+        for (int i : order) {
+            int[] set = sets[i];
+            int common = 0;
+            if (previous != null) {
+                while (common < k && set[common] == previous[common])
+                    common++;
+            }
+            if (common == k)
+                continue; // duplicate candidate
+            for (int d = common; d < k; d++) {
+                if (sizes[d] == levelItems[d].length) {
+                    levelItems[d] = Arrays.copyOf(levelItems[d], sizes[d] * 2);
+                    levelStarts[d] = Arrays.copyOf(levelStarts[d], sizes[d] * 2 + 1);
+                }
+                levelItems[d][sizes[d]] = set[d];
+                // The first child of the new node is the next node of depth d + 1
+                if (d + 1 < k)
+                    levelStarts[d][sizes[d]] = sizes[d + 1];
+                sizes[d]++;
+            }
+            int leaf = sizes[k - 1] - 1;
+            if (leaf == leafCandidates.length)
+                leafCandidates = Arrays.copyOf(leafCandidates, leaf * 2);
+            leafCandidates[leaf] = i;
+            previous = set;
+        }
+
+        items = new int[k][];
+        childStart = new int[k][];
+        for (int d = 0; d < k; d++) {
+            items[d] = Arrays.copyOf(levelItems[d], sizes[d]);
+            childStart[d] = Arrays.copyOf(levelStarts[d], sizes[d] + 1);
+            // Sentinel, end of the children of the last node
+            if (d + 1 < k)
+                childStart[d][sizes[d]] = sizes[d + 1];
+        }
+        int leaves = k == 0 ? 0 : sizes[k - 1];
+        counts = new int[leaves];
+        candidateIndex = Arrays.copyOf(leafCandidates, leaves);
+    }
+
+    /**
+     * Add one to the count of every candidate contained in the transaction
+     * @param transaction - distinct song ids in ascending order
+     * @param length - number of ids used in transaction
+     */
+    public void count(int[] transaction, int length) {
+        if (counts.length == 0 || length < k)
+            return;
+        walk(0, 0, items[0].length, transaction, 0, length);
+    }
+
+    /**
+     * @param depth - depth of the nodes lo .. hi - 1
+     * @param from - first transaction item which can be used at this depth
+     */
+    private void walk(int depth, int lo, int hi, int[] transaction, int from, int length) {
+        int[] nodes = items[depth];
+        // Later items cannot be followed by enough items to reach a leaf
+        int last = length - (k - depth);
+        if (hi - lo <= last - from + 1) {
+            for (int node = lo; node < hi && from <= last; node++) {
+                int pos = Arrays.binarySearch(transaction, from, last + 1, nodes[node]);
+                if (pos >= 0) {
+                    visit(depth, node, transaction, pos, length);
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+        } else {
+            for (int pos = from; pos <= last && lo < hi; pos++) {
+                int node = Arrays.binarySearch(nodes, lo, hi, transaction[pos]);
+                if (node >= 0) {
+                    visit(depth, node, transaction, pos, length);
+                    lo = node + 1;
+                } else {
+                    lo = -node - 1;
+                }
+            }
+        }
+    }
+
+    private void visit(int depth, int node, int[] transaction, int pos, int length) {
+        if (depth == k - 1)
+            counts[node]++;
+        else
+            walk(depth + 1, childStart[depth][node], childStart[depth][node + 1], transaction, pos + 1, length);
+    }
+
+    /**
+     * @return number of distinct candidates, leaves are 0 .. size() - 1
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    public int getCount(int leaf) {
+        return counts[leaf];
+    }
+
+    /**
+     * @param leaf
+     * @return index of the leaf's candidate in the list the trie was built from
+     */
+    public int getCandidateIndex(int leaf) {
+        return candidateIndex[leaf];
+    }
+
+    private static int[][] toArrays(List<List<Integer>> candidates) {
+        int[][] sets = new int[candidates.size()][];
+        for (int i = 0; i < sets.length; i++) {
+            List<Integer> candidate = candidates.get(i);
+            sets[i] = new int[candidate.size()];
+            for (int j = 0; j < sets[i].length; j++)
+                sets[i][j] = candidate.get(j);
+        }
+        return sets;
+    }
+
+    private static int compareSets(int[] a, int[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        }
+        return a.length - b.length;
+    }
+}
@@ -191,7 +191,7 @@ public class CandidatesGenerator {
 	}
 
 	/**
-	 * Load K-1 frequent itemsets from folder
+	 * Load K-1 frequent itemsets from the ItemsetFiles of folder
 	 *
 	 * @param folderName
 	 * @return
@@ -199,18 +199,7 @@ public class CandidatesGenerator {
 	 */
 	private List<List<Integer>> loadFreqItems(String folderName,
 			Configuration conf) throws Exception {
-		List<List<Integer>> freqItems = new ArrayList<List<Integer>>();
-		List<String> contents = utils.read(folderName, conf);
-		String[] items;
-		for (String line : contents) {
-			List<Integer> candidate = new ArrayList<Integer>();
-			items = line.split("\t");
-			for (String item : items) {
-				candidate.add(Integer.parseInt(item));
-			}
-			freqItems.add(candidate);
-		}
-		return freqItems;
+		return utils.readItemsets(folderName, conf);
 	}
 
 	/**
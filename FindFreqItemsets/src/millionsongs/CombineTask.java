@@ -3,6 +3,8 @@ package millionsongs;
 import millionsongs.objects.TagKey;
 import millionsongs.objects.TupleKey;
 
+import localengine.ParallelJobRunner;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.*;
@@ -12,6 +14,7 @@ import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 import java.io.IOException;
@@ -19,9 +22,19 @@ import java.io.IOException;
 /**
  * This is a MapReduce job aiming to emit transaction (User, song1, song2, song3
  * ... songn). Song ids are in asc order. <br>
+ * With <code>-D transactions.format=binary</code>, transactions are written as
+ * SequenceFiles of TransactionWritable, which KFreqItemsetTask reads without
+ * parsing text. <br>
  * Created by peilicao on 11/9/14.
  */
 public class CombineTask {
+	/**
+	 * Output format of transactions, "text" (default) for tab separated lines,
+	 * "binary" for SequenceFiles of (user, TransactionWritable), read by
+	 * TransactionInputFormat
+	 */
+	public static final String FORMAT = "transactions.format";
+
 	/**
 	 * This mapper will read the triplet file and emits (user,song) as output
 	 * key, output value is null
@@ -88,6 +101,32 @@ public class CombineTask {
 		}
 	}
 
+	/**
+	 * Same as MyReducer, but outputs (user, TransactionWritable), song ids are
+	 * delta-varint encoded and repeated songs are dropped.
+	 * 
+	 * @author peilicao
+	 *
+	 */
+	public static class BinaryReducer extends
+			Reducer<TupleKey, NullWritable, IntWritable, TransactionWritable> {
+		private IntWritable user = new IntWritable();
+		private TransactionWritable transaction = new TransactionWritable();
+
+		@Override
+		public void reduce(TupleKey key, Iterable<NullWritable> values,
+				Context context) throws IOException, InterruptedException {
+			user.set(key.getFirst().get());
+			transaction.clear();
+
+			for (NullWritable val : values) {
+				transaction.add(key.getSecond().get());
+			}
+
+			context.write(user, transaction);
+		}
+	}
+
 	public static class CustomizeSortComparator extends WritableComparator {
 		protected CustomizeSortComparator() {
 			super(TagKey.class, true);
@@ -138,7 +177,23 @@ public class CombineTask {
 
 	public static boolean run(String[] args) throws IOException,
 			ClassNotFoundException, InterruptedException {
-		Configuration conf = new Configuration();
+		return run(new Configuration(), args);
+	}
+
+	/**
+	 * Run the job with the settings of a driver, e.g. transactions.format
+	 * 
+	 * @param conf
+	 *            - generic options in args are added to it
+	 * @param args
+	 *            - {input,output}, may start with generic options
+	 * @return true if the job succeeded
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws InterruptedException
+	 */
+	public static boolean run(Configuration conf, String[] args)
+			throws IOException, ClassNotFoundException, InterruptedException {
 		String[] otherArgs = new GenericOptionsParser(conf, args)
 				.getRemainingArgs();
 
@@ -156,15 +211,22 @@ public class CombineTask {
 
 		job.setMapOutputKeyClass(TupleKey.class);
 		job.setMapOutputValueClass(NullWritable.class);
-		job.setOutputKeyClass(NullWritable.class);
-		job.setOutputValueClass(Text.class);
+		if ("binary".equals(conf.get(FORMAT, "text"))) {
+			job.setReducerClass(BinaryReducer.class);
+			job.setOutputKeyClass(IntWritable.class);
+			job.setOutputValueClass(TransactionWritable.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		} else {
+			job.setOutputKeyClass(NullWritable.class);
+			job.setOutputValueClass(Text.class);
+		}
 
 		job.setNumReduceTasks(10);
 
 		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
 		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
 
-		return job.waitForCompletion(true);
+		return new ParallelJobRunner(job).waitForCompletion(true);
 	}
 
 	public static void main(String[] args) throws IOException,
@@ -9,6 +9,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -77,6 +81,103 @@ public class FileReadWriteUtil {
         return contents;
     }
 
+    /**
+     * Write itemsets to the folder as one ItemsetFile. Itemsets are sorted first.
+     *
+     * @param itemsets itemsets with k items each, items in ascending order
+     * @param k        number of items of each itemset
+     * @param config   config object
+     * @param folder   destination
+     * @throws IOException
+     */
+    public void writeItemsets(List<List<Integer>> itemsets, int k, Configuration config, String folder) throws IOException {
+        FileSystem fileSystem = FileSystem.get(URI.create(folder), config);
+        Path path = new Path(folder);
+
+        if (fileSystem.exists(path)) {
+            fileSystem.delete(path, true);
+        }
+        Collections.sort(itemsets, new Comparator<List<Integer>>() {
+            @Override
+            public int compare(List<Integer> first, List<Integer> second) {
+                for (int i = 0; i < first.size() && i < second.size(); i++) {
+                    int result = first.get(i).compareTo(second.get(i));
+                    if (result != 0)
+                        return result;
+                }
+                return first.size() - second.size();
+            }
+        });
+        ItemsetFile.Writer writer = new ItemsetFile.Writer(
+                fileSystem.create(new Path(folder + String.format("part-r-%05d", 0))), k);
+        for (List<Integer> itemset : itemsets) {
+            writer.append(itemset);
+        }
+        writer.close();
+    }
+
+    /**
+     * Read the ItemsetFiles of the given folder, in part order
+     *
+     * @param folder a folder contains partial ItemsetFiles
+     * @param config config object
+     * @return itemsets, sorted if the parts are range partitioned
+     * @throws IOException
+     */
+    public List<List<Integer>> readItemsets(String folder, Configuration config) throws IOException {
+        List<List<Integer>> itemsets = new ArrayList<List<Integer>>();
+        FileSystem fileSystem = FileSystem.get(URI.create(folder), config);
+        for (FileStatus status : listParts(fileSystem, new Path(folder))) {
+            for (int[] items : ItemsetFile.readAll(fileSystem.open(status.getPath()))) {
+                List<Integer> itemset = new ArrayList<Integer>(items.length);
+                for (int item : items) {
+                    itemset.add(item);
+                }
+                itemsets.add(itemset);
+            }
+        }
+        return itemsets;
+    }
+
+    /**
+     * Count the itemsets of the ItemsetFiles of the given folder, only headers are read
+     *
+     * @param folder a folder contains partial ItemsetFiles
+     * @param config config object
+     * @return number of itemsets
+     * @throws IOException
+     */
+    public long countItemsets(String folder, Configuration config) throws IOException {
+        long count = 0;
+        FileSystem fileSystem = FileSystem.get(URI.create(folder), config);
+        for (FileStatus status : listParts(fileSystem, new Path(folder))) {
+            ItemsetFile.Reader reader = new ItemsetFile.Reader(fileSystem.open(status.getPath()));
+            count += reader.getCount();
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * List the part files of a folder, sorted by name
+     *
+     * @param fileSystem file system of the folder
+     * @param folder     a folder contains partial files
+     * @return part files
+     * @throws IOException
+     */
+    public static FileStatus[] listParts(FileSystem fileSystem, Path folder) throws IOException {
+        List<FileStatus> parts = new ArrayList<FileStatus>();
+        for (FileStatus status : fileSystem.listStatus(folder)) {
+            if (status.getPath().getName().matches("^part-[rm]-[0-9]{5}$")) {
+                parts.add(status);
+            }
+        }
+        FileStatus[] sorted = parts.toArray(new FileStatus[parts.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
     /**
      * Copy all files from one folder to another one
      *
@@ -1,10 +1,10 @@
 package millionsongs;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.GenericOptionsParser;
 
 import millionsongs.prepare.OneFreqItemTask;
 import millionsongs.prepare.SongCountTask;
@@ -17,6 +17,10 @@ import millionsongs.prepare.SongCountTask;
  * input - converted user-song-counts triplet<br>
  * baseOutputPath - All outputs created by MapReduce jobs will in this path<br>
  * minSupport - minimum support to determine frequent itemset
+ * <p>
+ * Generic options go before the parameters, e.g.
+ * <code>-D transactions.format=binary</code> to have all level-k jobs read
+ * binary transactions.
  * 
  * @author peilicao
  *
@@ -24,6 +28,7 @@ import millionsongs.prepare.SongCountTask;
 public class FrequentItemsetSearchController {
 	public static void main(String[] args) throws Exception {
 		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
 
 		if (args.length != 3) {
 			System.err
@@ -43,7 +48,7 @@ public class FrequentItemsetSearchController {
 		String oneFreqItemPath = baseOutputPath + "FreqItems1";
 
 		String[] localArgs = { args[0], transactionsPath };
-		generateTransactions(localArgs);
+		generateTransactions(conf, localArgs);
 
 		localArgs[0] = transactionsPath;
 		localArgs[1] = songFreqPath;
@@ -51,7 +56,6 @@ public class FrequentItemsetSearchController {
 
 		generateOneFreqItems(songFreqPath, oneFreqItemPath, args[2]);
 
-		List<String> candidatesStrings;
 		int k = 2;
 		while (true) {
 			System.out.println("Finding " + k + " Frequent Itemset");
@@ -70,11 +74,10 @@ public class FrequentItemsetSearchController {
 			}
 
 			/*
-			 * Write candidates to HDFS. These files will be loaded to
-			 * DistributedCache
+			 * Write candidates to HDFS as an ItemsetFile. These files will be
+			 * loaded to DistributedCache
 			 */
-			candidatesStrings = generateStrings(candidates);
-			fileUtils.write(candidatesStrings, conf, baseOutputPath
+			fileUtils.writeItemsets(candidates, k, conf, baseOutputPath
 					+ "Candidates" + k + "/");
 
 			/* Generate K frequent Itemset */
@@ -106,15 +109,17 @@ public class FrequentItemsetSearchController {
 	 * <p>
 	 * System will exit with error code when this MapReduce job fails.
 	 * 
+	 * @param conf
+	 *            - settings of the controller, e.g. transactions.format
 	 * @param args
 	 *            - {input,output}
 	 * @throws InterruptedException
 	 * @throws IOException
 	 * @throws ClassNotFoundException
 	 */
-	public static void generateTransactions(String[] args)
+	public static void generateTransactions(Configuration conf, String[] args)
 			throws InterruptedException, IOException, ClassNotFoundException {
-		boolean succeed = CombineTask.run(args);
+		boolean succeed = CombineTask.run(conf, args);
 		if (!succeed) {
 			System.err.println("Error happens when generating transactions!");
 			System.exit(1);
@@ -174,26 +179,4 @@ public class FrequentItemsetSearchController {
 		}
 	}
 
-	/**
-	 * Convert a list of <code>list of Integer</code> to a list of
-	 * <code>String<code>.Uses "\t" as delimiter
-	 * 
-	 * @param lists
-	 * @return List<code><String></code>
-	 */
-	private static List<String> generateStrings(List<List<Integer>> lists) {
-		StringBuilder builder = new StringBuilder();
-		List<String> contents = new ArrayList<String>();
-		for (List<Integer> list : lists) {
-			builder.setLength(0);
-			for (int i : list) {
-				builder.append(i);
-				builder.append("\t");
-			}
-			contents.add(builder.toString());
-		}
-		builder.setLength(0);
-		return contents;
-	}
-
 }
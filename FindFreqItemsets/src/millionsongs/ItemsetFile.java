@@ -0,0 +1,299 @@
+package millionsongs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file of sorted k-itemsets, used for Candidates_k and FreqItems_k.
+ * <p>
+ * Layout:<br>
+ * header: magic "ISET", version byte, vint k, vlong count<br>
+ * blocks: vint number of itemsets, vint payload length, int CRC32 of payload, payload<br>
+ * end: vint 0
+ * <p>
+ * Itemsets are in ascending order, and so are the song ids of each itemset. In the payload each itemset
+ * is written as the length of the prefix it shares with the previous one, then the remaining ids as vint
+ * deltas: the first against the previous itemset's id at the same position, the others against the id
+ * before them. Neighbouring k-itemsets mostly share k-1 ids, so an itemset usually takes 2 or 3 bytes.
+ * Each block starts from an all-zero previous itemset, so blocks decode and verify on their own.
+ * <p>
+ * Blocks are kept in memory until close, so the header can carry the count.
+ *
+ * @author peilicao
+ *
+ */
+public class ItemsetFile {
+
+    private static final byte[] MAGIC = {'I', 'S', 'E', 'T'};
+    private static final int VERSION = 1;
+    // Payload size at which a block is closed
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    /**
+     * Append sorted itemsets, everything is written at close
+     */
+    public static class Writer {
+        private final OutputStream out;
+        private final int k;
+        private final int[] previous;
+        private final int[] last;
+        private final DataOutputBuffer blocks;
+        private final DataOutputBuffer block;
+        private final CRC32 crc;
+        private int blockCount;
+        private long count;
+
+        /**
+         * @param out - closed by close()
+         * @param k - number of items of each itemset
+         */
+        public Writer(OutputStream out, int k) {
+            if (k <= 0)
+                throw new IllegalArgumentException("k must be positive: " + k);
+            this.out = out;
+            this.k = k;
+            previous = new int[k];
+            last = new int[k];
+            blocks = new DataOutputBuffer();
+            block = new DataOutputBuffer();
+            crc = new CRC32();
+        }
+
+        /**
+         * @param items - items[0 .. k - 1] in ascending order, the itemset must be greater than the last one
+         * @throws IOException
+         */
+        public void append(int[] items) throws IOException {
+            if (count > 0 && compare(items, last) <= 0)
+                throw new IllegalArgumentException("Itemset " + Arrays.toString(Arrays.copyOf(items, k))
+                        + " is not after " + Arrays.toString(last));
+            int prefix = 0;
+            while (prefix < k && items[prefix] == previous[prefix])
+                prefix++;
+            if (prefix == k)
+                prefix = k - 1; // only for an all-zero itemset at the start of a block
+            WritableUtils.writeVInt(block, prefix);
+            WritableUtils.writeVInt(block, items[prefix] - previous[prefix]);
+            for (int i = prefix + 1; i < k; i++) {
+                if (items[i] <= items[i - 1])
+                    throw new IllegalArgumentException("Items of " + Arrays.toString(Arrays.copyOf(items, k))
+                            + " are not ascending");
+                WritableUtils.writeVInt(block, items[i] - items[i - 1]);
+            }
+            System.arraycopy(items, 0, previous, 0, k);
+            System.arraycopy(items, 0, last, 0, k);
+            blockCount++;
+            count++;
+            if (block.getLength() >= BLOCK_BYTES)
+                finishBlock();
+        }
+
+        /**
+         * @param items - items in ascending order
+         * @throws IOException
+         */
+        public void append(List<Integer> items) throws IOException {
+            int[] array = new int[items.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = items.get(i);
+            append(array);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        private void finishBlock() throws IOException {
+            if (blockCount == 0)
+                return;
+            crc.reset();
+            crc.update(block.getData(), 0, block.getLength());
+            WritableUtils.writeVInt(blocks, blockCount);
+            WritableUtils.writeVInt(blocks, block.getLength());
+            blocks.writeInt((int) crc.getValue());
+            blocks.write(block.getData(), 0, block.getLength());
+            block.reset();
+            blockCount = 0;
+            Arrays.fill(previous, 0);
+        }
+
+        /**
+         * Write header, blocks and end mark, then close the stream
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            finishBlock();
+            DataOutputStream data = new DataOutputStream(out);
+            data.write(MAGIC);
+            data.writeByte(VERSION);
+            WritableUtils.writeVInt(data, k);
+            WritableUtils.writeVLong(data, count);
+            data.write(blocks.getData(), 0, blocks.getLength());
+            WritableUtils.writeVInt(data, 0);
+            data.close();
+        }
+    }
+
+    /**
+     * Read itemsets one by one into a reused array
+     */
+    public static class Reader {
+        private final DataInputStream in;
+        private final int k;
+        private final long count;
+        private final int[] previous;
+        private final DataInputBuffer block;
+        private final CRC32 crc;
+        private byte[] payload;
+        private int remaining;
+        private long read;
+
+        /**
+         * Read the header
+         * @param in - closed by close()
+         * @throws IOException
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("Not an itemset file");
+            int version = this.in.readByte();
+            if (version != VERSION)
+                throw new IOException("Unknown itemset file version " + version);
+            k = WritableUtils.readVInt(this.in);
+            count = WritableUtils.readVLong(this.in);
+            previous = new int[k];
+            block = new DataInputBuffer();
+            crc = new CRC32();
+            payload = new byte[0];
+        }
+
+        /**
+         * @return number of items of each itemset
+         */
+        public int getK() {
+            return k;
+        }
+
+        /**
+         * @return number of itemsets in the file
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param items - receives the next itemset in items[0 .. k - 1]
+         * @return false at the end of the file
+         * @throws IOException - ChecksumException if a block is corrupted
+         */
+        public boolean next(int[] items) throws IOException {
+            if (remaining == 0 && !nextBlock())
+                return false;
+            int prefix = WritableUtils.readVInt(block);
+            System.arraycopy(previous, 0, items, 0, prefix);
+            items[prefix] = previous[prefix] + WritableUtils.readVInt(block);
+            for (int i = prefix + 1; i < k; i++)
+                items[i] = items[i - 1] + WritableUtils.readVInt(block);
+            System.arraycopy(items, 0, previous, 0, k);
+            remaining--;
+            read++;
+            return true;
+        }
+
+        private boolean nextBlock() throws IOException {
+            remaining = WritableUtils.readVInt(in);
+            if (remaining == 0) {
+                if (read != count)
+                    throw new IOException("Itemset file ends after " + read + " of " + count + " itemsets");
+                return false;
+            }
+            int length = WritableUtils.readVInt(in);
+            int checksum = in.readInt();
+            if (payload.length < length)
+                payload = new byte[length];
+            in.readFully(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+                throw new ChecksumException("Checksum error in itemset block after " + read + " itemsets", read);
+            block.reset(payload, length);
+            Arrays.fill(previous, 0);
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Read all itemsets of a file
+     * @param in - closed at the end
+     * @return itemsets in file order
+     * @throws IOException
+     */
+    public static int[][] readAll(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        try {
+            int[][] itemsets = new int[(int) reader.getCount()][reader.getK()];
+            for (int[] itemset : itemsets)
+                reader.next(itemset);
+            return itemsets;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int compare(int[] a, int[] b) {
+        for (int i = 0; i < b.length; i++) {
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Print the itemsets of a folder as tab-separated lines
+     * @param args - {folder}
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ItemsetFile <folder>");
+            System.exit(2);
+        }
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.get(URI.create(args[0]), conf);
+        StringBuilder builder = new StringBuilder();
+        for (FileStatus status : FileReadWriteUtil.listParts(fs, new Path(args[0]))) {
+            for (int[] itemset : readAll(fs.open(status.getPath()))) {
+                builder.setLength(0);
+                for (int item : itemset) {
+                    builder.append(item);
+                    builder.append("\t");
+                }
+                builder.setLength(builder.length() - 1);
+                System.out.println(builder);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package millionsongs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+
+/**
+ * Write the itemsets of a reducer as one ItemsetFile.
+ * <p>
+ * Itemsets must come in ascending order, which reducing candidate ordinals in order gives.
+ * Number of items is taken from "K".
+ *
+ * @author peilicao
+ *
+ */
+public class ItemsetOutputFormat extends FileOutputFormat<ItemsetWritable, NullWritable> {
+
+    @Override
+    public RecordWriter<ItemsetWritable, NullWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Path file = getDefaultWorkFile(context, "");
+        FileSystem fs = file.getFileSystem(conf);
+        final int k = Integer.parseInt(conf.get("K"));
+        final ItemsetFile.Writer writer = new ItemsetFile.Writer(fs.create(file, false), k);
+
+        return new RecordWriter<ItemsetWritable, NullWritable>() {
+            @Override
+            public void write(ItemsetWritable key, NullWritable value) throws IOException {
+                if (key.get().length != k)
+                    throw new IOException("Itemset " + key + " does not have " + k + " items");
+                writer.append(key.get());
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException {
+                writer.close();
+            }
+        };
+    }
+}
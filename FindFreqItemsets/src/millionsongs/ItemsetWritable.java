@@ -0,0 +1,76 @@
+package millionsongs;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Song ids of one itemset, in ascending order. The array given to set() is referenced, not copied.
+ * <p>
+ * Itemsets are ordered by size, then by song ids.
+ *
+ * @author peilicao
+ *
+ */
+public class ItemsetWritable implements WritableComparable<ItemsetWritable> {
+
+    private int[] items;
+
+    public ItemsetWritable() {
+        items = new int[0];
+    }
+
+    public void set(int[] items) {
+        this.items = items;
+    }
+
+    public int[] get() {
+        return items;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, items.length);
+        for (int item : items)
+            WritableUtils.writeVInt(out, item);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int length = WritableUtils.readVInt(in);
+        if (items.length != length)
+            items = new int[length];
+        for (int i = 0; i < length; i++)
+            items[i] = WritableUtils.readVInt(in);
+    }
+
+    @Override
+    public int compareTo(ItemsetWritable other) {
+        if (items.length != other.items.length)
+            return items.length < other.items.length ? -1 : 1;
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] != other.items[i])
+                return items[i] < other.items[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(items);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ItemsetWritable && Arrays.equals(items, ((ItemsetWritable) o).items);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(items);
+    }
+}
@@ -1,5 +1,8 @@
 package millionsongs;
 
+import localengine.ParallelJobRunner;
+
+import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.Path;
@@ -12,243 +15,182 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Generate k frequent itemsets from k-itemset candidates files.
+ * Candidates_k and FreqItems_k are ItemsetFiles. Transactions are read as text lines, or as
+ * TransactionWritable when CombineTask wrote them in binary.
  * Created by cpp on 12/01/14.
  */
 public class KFreqItemsetTask {
 
 	/**
 	 * This mapper will read one transaction per map call. It implementes in-mapper combine to improve performance.
-	 * It will first load k candidates into memory when setup. Then it uses a hashmap for tracks the counts of candidates.
-	 * At last, emits (candidates, count) when cleanup.
+	 * It will first load k candidates into memory when setup, and index them in a CandidateTrie whose leaves keep
+	 * the counts. Each transaction only walks the trie branches reached by its own songs.
+	 * At last, emits (candidate ordinal, count) of the candidates found when cleanup. The ordinal is the position
+	 * of the candidate in the cached candidates files.
 	 * @author peilicao
 	 *
 	 */
-    public static class MyMapper extends Mapper<Object, Text, Text, IntWritable> {
+    public static class MyMapper extends Mapper<Object, Writable, IntWritable, IntWritable> {
 
-        private Text itemset;
+        private IntWritable ordinal;
         private IntWritable times;
-        private List<List<Integer>> kItemCandidates;
-        private List<String> candidateStrings;
+        private CandidateTrie trie;
+        private TransactionWritable transaction;
         private int count = 0;
-        private Map<String, Integer> counter;
 
         private int k;
 
         protected void setup(Context context) throws IOException {
-            itemset = new Text();
+            ordinal = new IntWritable();
             times = new IntWritable();
-            kItemCandidates = loadKItemCandidates(context);
-            prepareCandidates();
+            trie = new CandidateTrie(loadKItemCandidates(context.getConfiguration()));
+            transaction = new TransactionWritable();
             k = Integer.parseInt(context.getConfiguration().get("K"));
-            counter = new HashMap<String, Integer>();
-        }
-
-        /**
-         * Generate string format of candidates
-         */
-        private void prepareCandidates() {
-            candidateStrings = new ArrayList<String>();
-            StringBuilder builder = new StringBuilder();
-            String s;
-            for (List<Integer> candidate : kItemCandidates) {
-                builder.setLength(0);
-                for (int id : candidate) {
-                    s = String.valueOf(id);
-                    builder.append(String.format("%0" + (7 - s.length() + "d%s"), 0, s));
-                    builder.append("\t");
-                }
-                builder.setLength(builder.length() - 1);
-                candidateStrings.add(builder.toString());
-            }
         }
 
         /**
-         * Return true if smallList is a sublist of bigList.Both lists are in ascending order.
-         * @param bigList
-         * @param smallList
-         * @return
+         * @param value - a text line, or a TransactionWritable from TransactionInputFormat
          */
-        private boolean doesContains(List<Integer> bigList, List<Integer> smallList) {
-            if (smallList.size() > bigList.size())
-                return false;
-
-            int bIdx;
-            int sIdx = 0;
-            int bigLength = bigList.size();
-            int smallLength = smallList.size();
-
-            int startIndex = bigList.indexOf(smallList.get(0));
-            if (startIndex == -1 || (bigLength - startIndex) < smallLength)
-                return false;
-
-            bIdx = startIndex;
-
-            while (bIdx != -1 && bIdx < bigLength && sIdx < smallLength) {
-                if (bigList.get(bIdx).equals(smallList.get(sIdx))) {
-                    sIdx++;
-                    bIdx++;
-                    if (sIdx == smallLength)
-                        return true;
-                } else if (bigList.get(bIdx) > smallList.get(sIdx)) {
-                    return false;
-                } else {
-                    bIdx++;
-                }
-            }
-            return false;
-        }
-
-        public void map(Object key, Text value, Context context) {
+        public void map(Object key, Writable value, Context context) {
             count++;
 //			if(count % 1000 == 0)
 //				System.out.println("Transaction:" + count + " time:"+new Date());
-            // Store items into List<Integer>
-            String[] items = value.toString().split("\t");
-            if (items.length < k)
-                return;
-            List<Integer> transactions = new ArrayList<Integer>();
-            boolean first = true;
-            for (String item : items) {
-                if (first) {
-                    first = false;
-                    continue;
-                }
-                transactions.add(Integer.parseInt(item));
-            }
-            int size = transactions.size();
-            /*
-             * Go through all candidates, 
-             * if transaction contains candidate, emit candidate
-             */
-            List<Integer> candidate;
-            int count;
-            String str;
-            for (int i = 0; i < kItemCandidates.size(); i++) {
-                candidate = kItemCandidates.get(i);
-                if (candidate.get(0) > transactions.get(size - 1))
-                    break;
-                if (doesContains(transactions, candidate)) {
-                    str = candidateStrings.get(i);
-                    if (counter.containsKey(str)) {
-                        count = counter.get(str) + 1;
-                    } else {
-                        count = 1;
-                    }
-                    counter.put(str, count);
-                }
+            TransactionWritable songs;
+            if (value instanceof TransactionWritable) {
+                // Already decoded into a reused int[]
+                songs = (TransactionWritable) value;
+            } else {
+                transaction.parse((Text) value);
+                songs = transaction;
             }
+            if (songs.getSize() < k)
+                return;
+            // Count every candidate the transaction contains
+            trie.count(songs.get(), songs.getSize());
         }
 
         protected void cleanup(Context context) throws IOException, InterruptedException {
-            for (Map.Entry<String, Integer> entry : counter.entrySet()) {
-                itemset.set(entry.getKey());
-                times.set(entry.getValue());
-                context.write(itemset, times);
+            for (int leaf = 0; leaf < trie.size(); leaf++) {
+                if (trie.getCount(leaf) == 0)
+                    continue;
+                ordinal.set(trie.getCandidateIndex(leaf));
+                times.set(trie.getCount(leaf));
+                context.write(ordinal, times);
             }
-            candidateStrings.clear();
-            counter.clear();
-            kItemCandidates.clear();
+            trie = null;
         }
+    }
 
-        /**
-         * Load k frequent candidates from DistributedCache.
-         * This function will run at each time a mapper setup.
-         * @param context - mapper context
-         * @return a list of candidates
-         * @throws IOException
-         */
-        private List<List<Integer>> loadKItemCandidates(Context context) throws IOException {
-            List<List<Integer>> kItemCandidates = new ArrayList<List<Integer>>();
-
-            Path[] uris = DistributedCache.getLocalCacheFiles(context.getConfiguration());
-            File folder = new File(uris[0].toString());
-            File[] files = folder.listFiles();
-            for (File file : files) {
-                if (file.getName().startsWith("."))
-                    continue;
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    List<Integer> candidate = new ArrayList<Integer>();
-                    String[] items = line.split("\t");
-                    for (String item : items) {
-                        candidate.add(Integer.parseInt(item));
-                    }
-                    kItemCandidates.add(candidate);
-                }
-                reader.close();
-            }
+    /**
+     * Load k frequent candidates from DistributedCache, files are read in name order so that every task
+     * gives a candidate the same ordinal.
+     * This function will run at each time a mapper or reducer setup.
+     * @param conf - task configuration
+     * @return candidates of all ItemsetFiles in the cached folder
+     * @throws IOException
+     */
+    private static int[][] loadKItemCandidates(Configuration conf) throws IOException {
+        List<int[][]> parts = new ArrayList<int[][]>();
+        int total = 0;
+
+        Path[] uris = DistributedCache.getLocalCacheFiles(conf);
+        File folder = new File(uris[0].toString());
+        File[] files = folder.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.getName().matches("^part-[rm]-[0-9]{5}$"))
+                continue;
+            int[][] part = ItemsetFile.readAll(new BufferedInputStream(new FileInputStream(file)));
+            parts.add(part);
+            total += part.length;
+        }
 
-            return kItemCandidates;
+        int[][] kItemCandidates = new int[total][];
+        int index = 0;
+        for (int[][] part : parts) {
+            System.arraycopy(part, 0, kItemCandidates, index, part.length);
+            index += part.length;
         }
+        return kItemCandidates;
     }
 
     /**
-     * Sum up the counts of each candiate, emit candidate whose count is not less than minimum support
+     * Sum up the counts of each candiate, emit candidate whose count is not less than minimum support.
+     * Candidates are loaded once when setup to turn ordinals back into itemsets.
      * @author peilicao
      *
      */
-    public static class MyReducer extends Reducer<Text, IntWritable, Text, NullWritable> {
-        private IntWritable output;
+    public static class MyReducer extends Reducer<IntWritable, IntWritable, ItemsetWritable, NullWritable> {
+        private ItemsetWritable itemset;
+        private int[][] kItemCandidates;
         private int minSupport;
 
         protected void setup(Context context) throws IOException {
-            output = new IntWritable();
+            itemset = new ItemsetWritable();
+            kItemCandidates = loadKItemCandidates(context.getConfiguration());
             minSupport = Integer.parseInt(context.getConfiguration().get("minSupport"));
         }
 
         @Override
-        public void reduce(Text key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
             int count = 0;
             for (IntWritable value : values) {
                 count += value.get();
             }
             if (count >= minSupport) {
-                output.set(count);
-                context.write(key, NullWritable.get());
+                itemset.set(kItemCandidates[key.get()]);
+                context.write(itemset, NullWritable.get());
                 context.getCounter("Reduce", "Output").increment(1);
             }
         }
     }
 
     /**
-     * Partition records by using bins.
-     * Records with lower first songid will go to lower id reducer. 
+     * Partition records by using bins of candidate ordinals.
+     * Candidates are sorted, so records with lower ordinal will go to lower id reducer.
      * So that the order between each files is kept.
      * 
      * @author peilicao
      *
      */
-    public static class MyPartitioner extends Partitioner<Text, IntWritable> {
+    public static class MyPartitioner extends Partitioner<IntWritable, IntWritable> implements Configurable {
+        private Configuration conf;
+        private long candidateCount;
 
         @Override
-        public int getPartition(Text text, IntWritable intWritable, int numOfPartitions) {
-            int id = Integer.parseInt(text.toString().substring(0, 7));
-            int maxId = 384545;
-            int interval = (int) Math.ceil(1.0 * maxId / numOfPartitions);
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            candidateCount = conf.getLong("candidateCount", Integer.MAX_VALUE);
+        }
 
-            int part = id / interval;
-            if (part == numOfPartitions)
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public int getPartition(IntWritable ordinal, IntWritable intWritable, int numOfPartitions) {
+            int part = (int) (ordinal.get() * (long) numOfPartitions / candidateCount);
+            if (part >= numOfPartitions)
                 return numOfPartitions - 1;
             else
-                return part % numOfPartitions;
+                return part;
         }
     }
 
-    public static class MyCombiner extends Reducer<Text, IntWritable, Text, IntWritable> {
+    public static class MyCombiner extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
         private IntWritable output;
         private int minSupport;
 
@@ -258,7 +200,7 @@ public class KFreqItemsetTask {
         }
 
         @Override
-        public void reduce(Text key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
             int count = 0;
             for (IntWritable value : values) {
                 count += value.get();
@@ -287,6 +229,7 @@ public class KFreqItemsetTask {
         job.setJarByClass(KFreqItemsetTask.class);
 
         job.getConfiguration().set("minSupport", minSupport);
+        job.getConfiguration().setLong("candidateCount", new FileReadWriteUtil().countItemsets(datapath, conf));
 
         job.setMapperClass(MyMapper.class);
         job.setReducerClass(MyReducer.class);
@@ -294,26 +237,30 @@ public class KFreqItemsetTask {
         job.setPartitionerClass(MyPartitioner.class);
 
 
-        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputKeyClass(IntWritable.class);
         job.setMapOutputValueClass(IntWritable.class);
-        job.setOutputKeyClass(Text.class);
+        job.setOutputKeyClass(ItemsetWritable.class);
         job.setOutputValueClass(NullWritable.class);
 
         job.setNumReduceTasks(5);
 
         FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
+        if (TransactionInputFormat.isBinary(job.getConfiguration(), new Path(otherArgs[0])))
+            job.setInputFormatClass(TransactionInputFormat.class);
+        job.setOutputFormatClass(ItemsetOutputFormat.class);
         FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
 
 //		FileInputFormat.setMaxInputSplitSize(job, 3145728*21/3);
 
         DistributedCache.addCacheFile(new URI(datapath), job.getConfiguration());
 
-        boolean code = job.waitForCompletion(true);
+        ParallelJobRunner runner = new ParallelJobRunner(job);
+        boolean code = runner.waitForCompletion(true);
 
         if (!code)
             return -1;
 
-        long number = job.getCounters().getGroup("Reduce").findCounter("Output").getValue();
+        long number = runner.getCounters().getGroup("Reduce").findCounter("Output").getValue();
         return number;
     }
 
@@ -0,0 +1,174 @@
+package millionsongs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory Apriori over the transactions of one input split, used by the first phase of SONTask.
+ * <p>
+ * Transactions are kept as int[]. After the songs are counted, each transaction is trimmed to its frequent
+ * songs. Each later level joins the sorted (k-1)-itemsets sharing k-2 songs, prunes candidates which have an
+ * infrequent (k-1)-subset, and counts the rest with a CandidateTrie. Every level is kept sorted, so the join
+ * and the subset lookups work on sorted arrays.
+ *
+ * @author peilicao
+ *
+ */
+public class LocalApriori {
+
+    private final List<int[]> transactions;
+    private int maxSong;
+
+    public LocalApriori() {
+        transactions = new ArrayList<int[]>();
+        maxSong = -1;
+    }
+
+    /**
+     * Keep a copy of one transaction
+     * @param songs - distinct song ids in ascending order
+     * @param size - number of songs used in songs
+     */
+    public void add(int[] songs, int size) {
+        if (size == 0)
+            return;
+        transactions.add(Arrays.copyOf(songs, size));
+        maxSong = Math.max(maxSong, songs[size - 1]);
+    }
+
+    public int size() {
+        return transactions.size();
+    }
+
+    /**
+     * Find all itemsets contained in at least minSupport transactions
+     * @param minSupport - local minimum support
+     * @return frequent itemsets, element k - 1 holds the sorted frequent k-itemsets
+     */
+    public List<int[][]> mine(int minSupport) {
+        List<int[][]> levels = new ArrayList<int[][]>();
+        if (transactions.isEmpty())
+            return levels;
+
+        // Frequent songs
+        int[] songCounts = new int[maxSong + 1];
+        for (int[] transaction : transactions)
+            for (int song : transaction)
+                songCounts[song]++;
+        List<int[]> frequent = new ArrayList<int[]>();
+        for (int song = 0; song <= maxSong; song++) {
+            if (songCounts[song] >= minSupport)
+                frequent.add(new int[]{song});
+        }
+        if (frequent.isEmpty())
+            return levels;
+        levels.add(frequent.toArray(new int[frequent.size()][]));
+
+        // Infrequent songs can not be part of any frequent itemset
+        for (int i = 0; i < transactions.size(); i++) {
+            int[] transaction = transactions.get(i);
+            int size = 0;
+            for (int song : transaction) {
+                if (songCounts[song] >= minSupport)
+                    transaction[size++] = song;
+            }
+            transactions.set(i, size == transaction.length ? transaction : Arrays.copyOf(transaction, size));
+        }
+
+        int[][] previous = levels.get(0);
+        while (previous.length > 1) {
+            int[][] candidates = generateCandidates(previous);
+            if (candidates.length == 0)
+                break;
+            CandidateTrie trie = new CandidateTrie(candidates);
+            for (int[] transaction : transactions)
+                trie.count(transaction, transaction.length);
+            // Leaves follow the order of the sorted candidates
+            frequent.clear();
+            for (int leaf = 0; leaf < trie.size(); leaf++) {
+                if (trie.getCount(leaf) >= minSupport)
+                    frequent.add(candidates[trie.getCandidateIndex(leaf)]);
+            }
+            if (frequent.isEmpty())
+                break;
+            previous = frequent.toArray(new int[frequent.size()][]);
+            levels.add(previous);
+        }
+        return levels;
+    }
+
+    /**
+     * Self join sorted (k-1)-itemsets sharing their first k-2 songs, and drop candidates with a
+     * (k-1)-subset which is not frequent
+     * @param itemsets - sorted frequent (k-1)-itemsets
+     * @return sorted k-itemset candidates
+     */
+    private int[][] generateCandidates(int[][] itemsets) {
+        List<int[]> candidates = new ArrayList<int[]>();
+        int k = itemsets[0].length + 1;
+        int[] subset = new int[k - 1];
+        for (int i = 0; i < itemsets.length; i++) {
+            int[] first = itemsets[i];
+            for (int j = i + 1; j < itemsets.length; j++) {
+                int[] second = itemsets[j];
+                if (!samePrefix(first, second, k - 2))
+                    break;
+                int[] candidate = Arrays.copyOf(first, k);
+                candidate[k - 1] = second[k - 2];
+                if (allSubsetsFrequent(candidate, itemsets, subset))
+                    candidates.add(candidate);
+            }
+        }
+        return candidates.toArray(new int[candidates.size()][]);
+    }
+
+    /**
+     * The two subsets without one of the last two songs are the joined itemsets, so only the others are
+     * looked up
+     */
+    private boolean allSubsetsFrequent(int[] candidate, int[][] itemsets, int[] subset) {
+        for (int skip = 0; skip < candidate.length - 2; skip++) {
+            int size = 0;
+            for (int i = 0; i < candidate.length; i++) {
+                if (i != skip)
+                    subset[size++] = candidate[i];
+            }
+            if (binarySearch(itemsets, subset) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean samePrefix(int[] first, int[] second, int length) {
+        for (int i = 0; i < length; i++) {
+            if (first[i] != second[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int binarySearch(int[][] itemsets, int[] key) {
+        int low = 0;
+        int high = itemsets.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(itemsets[mid], key);
+            if (result < 0)
+                low = mid + 1;
+            else if (result > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private static int compare(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        }
+        return 0;
+    }
+}
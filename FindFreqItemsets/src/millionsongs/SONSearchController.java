@@ -0,0 +1,155 @@
+package millionsongs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * This is the controller which is to find frequent itemsets on MillionSongs
+ * Database with the two phase SON algorithm, see {@link SONTask}. Unlike
+ * {@link FrequentItemsetSearchController}, the number of MapReduce jobs does
+ * not grow with the size of the largest frequent itemset: one job generates
+ * transactions, one job mines every split locally, and one job counts all
+ * candidates of all sizes.<br>
+ * There are three parameters needed when run this class:<br>
+ * <p>
+ * input - converted user-song-counts triplet<br>
+ * baseOutputPath - All outputs created by MapReduce jobs will in this path<br>
+ * minSupport - minimum support to determine frequent itemset
+ * <p>
+ * Generic options go before the parameters, e.g.
+ * <code>-D son.supportFactor=0.9</code>.
+ * <p>
+ * Frequent k-itemsets are written to <code>baseOutputPath</code>FreqItems
+ * <code>k</code> in the layout of the level-wise controller: plain text with
+ * one song per line for k=1, as OneFreqItemTask writes it, ItemsetFiles for
+ * k&gt;1.
+ * 
+ * @author peilicao
+ *
+ */
+public class SONSearchController {
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+		if (args.length != 3) {
+			System.err
+					.println("Usage: SONSearchController <input> <baseOutputPath> <minSupport>");
+			System.exit(2);
+		}
+
+		conf.set("minSupport", args[2]);
+
+		String baseOutputPath = args[1];
+		String transactionsPath = args[0] + "/transactions";
+		String candidatesPath = baseOutputPath + "SONCandidates";
+		String freqItemsPath = baseOutputPath + "SONFreqItems";
+
+		/*
+		 * SON never counts single songs on their own, so transactions are
+		 * written in binary and decoded without parsing by both phases
+		 */
+		Configuration combineConf = new Configuration(conf);
+		combineConf.set(CombineTask.FORMAT, "binary");
+		String[] localArgs = { args[0], transactionsPath };
+		if (!CombineTask.run(combineConf, localArgs)) {
+			System.err.println("Error happens when generating transactions!");
+			System.exit(1);
+		}
+
+		System.out.println("Mining local frequent itemsets");
+		long candidateCount = SONTask.runLocalMining(conf, transactionsPath,
+				candidatesPath);
+		if (candidateCount == -1) {
+			System.err
+					.println("Error happens when mining local frequent itemsets!");
+			System.exit(1);
+		}
+		System.out.println("Found " + candidateCount + " candidates");
+		if (candidateCount == 0) {
+			System.exit(0);
+		}
+
+		System.out.println("Counting candidates");
+		long itemsetNumber = SONTask.runCounting(conf, transactionsPath,
+				candidatesPath, freqItemsPath, candidateCount);
+		if (itemsetNumber == -1) {
+			System.err.println("Error happens when counting candidates!");
+			System.exit(1);
+		}
+
+		writeFreqItems(freqItemsPath, baseOutputPath, conf);
+		System.exit(0);
+	}
+
+	/**
+	 * This method will split the (itemset, count) output of the counting
+	 * phase by size, and write frequent k-itemsets to
+	 * <code>baseOutputPath</code>FreqItems<code>k</code>. Frequent songs are
+	 * written as text, one per line, the way CandidatesGenerator reads them.
+	 * 
+	 * @param freqItemsPath
+	 *            - output folder of the counting phase
+	 * @param baseOutputPath
+	 *            - the path where FreqItems folders should locate
+	 * @param conf
+	 * @throws IOException
+	 */
+	public static void writeFreqItems(String freqItemsPath,
+			String baseOutputPath, Configuration conf) throws IOException {
+		FileReadWriteUtil fileUtils = new FileReadWriteUtil();
+		List<List<List<Integer>>> levels = new ArrayList<List<List<Integer>>>();
+
+		Path folder = new Path(freqItemsPath);
+		FileSystem fs = folder.getFileSystem(conf);
+		ItemsetWritable itemset = new ItemsetWritable();
+		IntWritable count = new IntWritable();
+		for (FileStatus status : FileReadWriteUtil.listParts(fs, folder)) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+					status.getPath(), conf);
+			while (reader.next(itemset, count)) {
+				int[] items = itemset.get();
+				while (levels.size() < items.length) {
+					levels.add(new ArrayList<List<Integer>>());
+				}
+				List<Integer> songs = new ArrayList<Integer>(items.length);
+				for (int item : items) {
+					songs.add(item);
+				}
+				levels.get(items.length - 1).add(songs);
+			}
+			reader.close();
+		}
+
+		for (int k = 1; k <= levels.size(); k++) {
+			List<List<Integer>> itemsets = levels.get(k - 1);
+			System.out.println(k + " frequent itemsets: " + itemsets.size());
+			if (k == 1) {
+				List<Integer> songs = new ArrayList<Integer>(itemsets.size());
+				for (List<Integer> song : itemsets) {
+					songs.add(song.get(0));
+				}
+				Collections.sort(songs);
+				List<String> lines = new ArrayList<String>(songs.size());
+				for (int song : songs) {
+					lines.add(String.valueOf(song));
+				}
+				fileUtils.write(lines, conf, baseOutputPath + "FreqItems1/");
+			} else {
+				fileUtils.writeItemsets(itemsets, k, conf, baseOutputPath
+						+ "FreqItems" + k + "/");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,355 @@
+package millionsongs;
+
+import localengine.ParallelJobRunner;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The two MapReduce jobs of the SON algorithm (Savasere, Omiecinski and Navathe).
+ * <p>
+ * Phase 1: every mapper keeps the transactions of its split in memory and mines them with LocalApriori, using
+ * minSupport scaled by the split's share of the input bytes. It emits the local frequent itemsets of all sizes,
+ * and one reducer writes their union, sorted by size and then by songs. An itemset with count >= minSupport in
+ * the whole input reaches its scaled support in at least one split, since the shares add up to one, so no
+ * frequent itemset is missed.
+ * <p>
+ * Phase 2: the union is shipped with DistributedCache. Every mapper builds one CandidateTrie per size, counts
+ * its transactions exactly and emits (candidate ordinal, count) as KFreqItemsetTask does. Reducers keep the
+ * candidates with count >= minSupport and write (itemset, count).
+ * <p>
+ * Transactions are read as text lines, or as TransactionWritable when CombineTask wrote them in binary.
+ *
+ * @author peilicao
+ *
+ */
+public class SONTask {
+
+    /**
+     * Bytes of all input splits, set by the driver of phase 1
+     */
+    public static final String INPUT_BYTES = "son.inputBytes";
+    /**
+     * Factor applied to the scaled local support, 1.0 by default. Lower values give more local candidates.
+     */
+    public static final String SUPPORT_FACTOR = "son.supportFactor";
+
+    /**
+     * Phase 1: mine the split in memory, emit local frequent itemsets at cleanup
+     * @author peilicao
+     *
+     */
+    public static class LocalMiningMapper extends Mapper<Object, Writable, ItemsetWritable, NullWritable> {
+
+        private TransactionWritable transaction;
+        private LocalApriori miner;
+
+        protected void setup(Context context) {
+            transaction = new TransactionWritable();
+            miner = new LocalApriori();
+        }
+
+        public void map(Object key, Writable value, Context context) {
+            TransactionWritable songs;
+            if (value instanceof TransactionWritable) {
+                songs = (TransactionWritable) value;
+            } else {
+                transaction.parse((Text) value);
+                songs = transaction;
+            }
+            miner.add(songs.get(), songs.getSize());
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            int localSupport = getLocalSupport(conf, context.getInputSplit().getLength(), conf.getLong(INPUT_BYTES, 0));
+
+            ItemsetWritable itemset = new ItemsetWritable();
+            for (int[][] level : miner.mine(localSupport)) {
+                for (int[] items : level) {
+                    itemset.set(items);
+                    context.write(itemset, NullWritable.get());
+                }
+                context.getCounter("SON", "LocalItemsets").increment(level.length);
+            }
+        }
+    }
+
+    /**
+     * Phase 1: drop itemsets found by more than one spill of the same mapper
+     * @author peilicao
+     *
+     */
+    public static class UnionCombiner extends Reducer<ItemsetWritable, NullWritable, ItemsetWritable, NullWritable> {
+
+        @Override
+        public void reduce(ItemsetWritable key, Iterable<NullWritable> values, Context context) throws IOException, InterruptedException {
+            context.write(key, NullWritable.get());
+        }
+    }
+
+    /**
+     * Phase 1: write each local frequent itemset once, and count them
+     * @author peilicao
+     *
+     */
+    public static class UnionReducer extends Reducer<ItemsetWritable, NullWritable, ItemsetWritable, NullWritable> {
+
+        @Override
+        public void reduce(ItemsetWritable key, Iterable<NullWritable> values, Context context) throws IOException, InterruptedException {
+            context.write(key, NullWritable.get());
+            context.getCounter("Reduce", "Output").increment(1);
+        }
+    }
+
+    /**
+     * Phase 2: count all candidates of the union by ordinal
+     * @author peilicao
+     *
+     */
+    public static class CountMapper extends Mapper<Object, Writable, IntWritable, IntWritable> {
+
+        private IntWritable ordinal;
+        private IntWritable times;
+        private TransactionWritable transaction;
+        // One trie per size, with the ordinal of its first candidate
+        private List<CandidateTrie> tries;
+        private List<Integer> firstOrdinals;
+
+        protected void setup(Context context) throws IOException {
+            ordinal = new IntWritable();
+            times = new IntWritable();
+            transaction = new TransactionWritable();
+            tries = new ArrayList<CandidateTrie>();
+            firstOrdinals = new ArrayList<Integer>();
+
+            int[][] candidates = loadCandidates(context.getConfiguration());
+            int start = 0;
+            while (start < candidates.length) {
+                int end = start;
+                while (end < candidates.length && candidates[end].length == candidates[start].length)
+                    end++;
+                int[][] sameSize = new int[end - start][];
+                System.arraycopy(candidates, start, sameSize, 0, sameSize.length);
+                tries.add(new CandidateTrie(sameSize));
+                firstOrdinals.add(start);
+                start = end;
+            }
+        }
+
+        public void map(Object key, Writable value, Context context) {
+            TransactionWritable songs;
+            if (value instanceof TransactionWritable) {
+                songs = (TransactionWritable) value;
+            } else {
+                transaction.parse((Text) value);
+                songs = transaction;
+            }
+            for (CandidateTrie trie : tries)
+                trie.count(songs.get(), songs.getSize());
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            for (int i = 0; i < tries.size(); i++) {
+                CandidateTrie trie = tries.get(i);
+                int first = firstOrdinals.get(i);
+                for (int leaf = 0; leaf < trie.size(); leaf++) {
+                    if (trie.getCount(leaf) == 0)
+                        continue;
+                    ordinal.set(first + trie.getCandidateIndex(leaf));
+                    times.set(trie.getCount(leaf));
+                    context.write(ordinal, times);
+                }
+            }
+            tries.clear();
+        }
+    }
+
+    /**
+     * Phase 2: sum up the counts of each candidate, emit (itemset, count) whose count is not less than
+     * minimum support
+     * @author peilicao
+     *
+     */
+    public static class CountReducer extends Reducer<IntWritable, IntWritable, ItemsetWritable, IntWritable> {
+        private ItemsetWritable itemset;
+        private IntWritable output;
+        private int[][] candidates;
+        private int minSupport;
+
+        protected void setup(Context context) throws IOException {
+            itemset = new ItemsetWritable();
+            output = new IntWritable();
+            candidates = loadCandidates(context.getConfiguration());
+            minSupport = Integer.parseInt(context.getConfiguration().get("minSupport"));
+        }
+
+        @Override
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) throws IOException, InterruptedException {
+            int count = 0;
+            for (IntWritable value : values) {
+                count += value.get();
+            }
+            if (count >= minSupport) {
+                itemset.set(candidates[key.get()]);
+                output.set(count);
+                context.write(itemset, output);
+                context.getCounter("Reduce", "Output").increment(1);
+            }
+        }
+    }
+
+    /**
+     * Load the union of phase 1 from DistributedCache, sorted by size and then by songs.
+     * This function will run at each time a mapper or reducer setup.
+     * @param conf - task configuration
+     * @return candidates, the index is the ordinal
+     * @throws IOException
+     */
+    private static int[][] loadCandidates(Configuration conf) throws IOException {
+        List<int[]> candidates = new ArrayList<int[]>();
+        FileSystem local = FileSystem.getLocal(conf);
+        ItemsetWritable itemset = new ItemsetWritable();
+        for (Path path : DistributedCache.getLocalCacheFiles(conf)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(local, path, conf);
+            while (reader.next(itemset, NullWritable.get())) {
+                // readFields reuses the array when the size does not change
+                candidates.add(itemset.get().clone());
+            }
+            reader.close();
+        }
+        return candidates.toArray(new int[candidates.size()][]);
+    }
+
+    /**
+     * Run phase 1
+     * @param conf - "minSupport" must be set
+     * @param transactions - text or binary transactions
+     * @param out - folder of the union of local frequent itemsets
+     * @return number of distinct local frequent itemsets, -1 if the job fails or a split is too small
+     * @throws Exception
+     */
+    public static long runLocalMining(Configuration conf, String transactions, String out) throws Exception {
+        Job job = new Job(conf, "SON-Local-Itemsets");
+        job.setJarByClass(SONTask.class);
+
+        FileInputFormat.addInputPath(job, new Path(transactions));
+        if (TransactionInputFormat.isBinary(job.getConfiguration(), new Path(transactions)))
+            job.setInputFormatClass(TransactionInputFormat.class);
+
+        List<InputSplit> splits = getSplits(job);
+        long inputBytes = 0;
+        long smallestSplit = Long.MAX_VALUE;
+        for (InputSplit split : splits) {
+            inputBytes += split.getLength();
+            smallestSplit = Math.min(smallestSplit, split.getLength());
+        }
+        // At local support 1 every subset of every transaction in the split is frequent
+        if (!splits.isEmpty() && getLocalSupport(job.getConfiguration(), smallestSplit, inputBytes) < 2) {
+            System.err.println("A split of " + smallestSplit + " bytes out of " + inputBytes
+                    + " gives local support 1, use larger splits (mapred.min.split.size) or a larger minSupport");
+            return -1;
+        }
+        job.getConfiguration().setLong(INPUT_BYTES, inputBytes);
+
+        job.setMapperClass(LocalMiningMapper.class);
+        job.setCombinerClass(UnionCombiner.class);
+        job.setReducerClass(UnionReducer.class);
+        job.setMapOutputKeyClass(ItemsetWritable.class);
+        job.setMapOutputValueClass(NullWritable.class);
+        job.setOutputKeyClass(ItemsetWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        // One sorted file, the position of an itemset is its ordinal in phase 2
+        job.setNumReduceTasks(1);
+        FileOutputFormat.setOutputPath(job, new Path(out));
+
+        ParallelJobRunner runner = new ParallelJobRunner(job);
+        if (!runner.waitForCompletion(true))
+            return -1;
+        return runner.getCounters().getGroup("Reduce").findCounter("Output").getValue();
+    }
+
+    /**
+     * Run phase 2
+     * @param conf - "minSupport" must be set
+     * @param transactions - text or binary transactions
+     * @param candidates - folder written by phase 1
+     * @param out - folder of (itemset, count)
+     * @param candidateCount - number of itemsets in candidates
+     * @return number of frequent itemsets, -1 if the job fails
+     * @throws Exception
+     */
+    public static long runCounting(Configuration conf, String transactions, String candidates, String out,
+                                   long candidateCount) throws Exception {
+        Job job = new Job(conf, "SON-Count");
+        job.setJarByClass(SONTask.class);
+
+        FileInputFormat.addInputPath(job, new Path(transactions));
+        if (TransactionInputFormat.isBinary(job.getConfiguration(), new Path(transactions)))
+            job.setInputFormatClass(TransactionInputFormat.class);
+        job.getConfiguration().setLong("candidateCount", candidateCount);
+
+        job.setMapperClass(CountMapper.class);
+        job.setReducerClass(CountReducer.class);
+        job.setPartitionerClass(KFreqItemsetTask.MyPartitioner.class);
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(IntWritable.class);
+        job.setOutputKeyClass(ItemsetWritable.class);
+        job.setOutputValueClass(IntWritable.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setNumReduceTasks(5);
+        FileOutputFormat.setOutputPath(job, new Path(out));
+
+        FileSystem fs = FileSystem.get(new Path(candidates).toUri(), conf);
+        DistributedCache.addCacheFile(fs.makeQualified(new Path(candidates, "part-r-00000")).toUri(),
+                job.getConfiguration());
+
+        ParallelJobRunner runner = new ParallelJobRunner(job);
+        if (!runner.waitForCompletion(true))
+            return -1;
+        return runner.getCounters().getGroup("Reduce").findCounter("Output").getValue();
+    }
+
+    /**
+     * Scale minSupport by the share of one split in the input. The shares of all splits add up to one, so an
+     * itemset frequent in the whole input is frequent in at least one split.
+     * @param conf - "minSupport" must be set
+     * @param splitBytes - length of the split
+     * @param inputBytes - lengths of all splits of the job
+     * @return minimum support used to mine the split
+     */
+    static int getLocalSupport(Configuration conf, long splitBytes, long inputBytes) {
+        int minSupport = Integer.parseInt(conf.get("minSupport"));
+        double share = inputBytes > 0 ? Math.min(1.0, (double) splitBytes / inputBytes) : 1.0;
+        return (int) Math.max(1, Math.ceil(minSupport * share * conf.getFloat(SUPPORT_FACTOR, 1.0f)));
+    }
+
+    /**
+     * The splits the job will read, as its input format computes them
+     */
+    private static List<InputSplit> getSplits(Job job) throws Exception {
+        InputFormat<?, ?> format = ReflectionUtils.newInstance(job.getInputFormatClass(), job.getConfiguration());
+        return format.getSplits(job);
+    }
+}
@@ -0,0 +1,54 @@
+package millionsongs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Read binary transactions written by CombineTask: SequenceFiles of (user, TransactionWritable).
+ * SequenceFiles are splittable at their sync marks, and the record reader reuses one TransactionWritable,
+ * so every transaction is decoded into the same int[].
+ *
+ * @author peilicao
+ *
+ */
+public class TransactionInputFormat extends SequenceFileInputFormat<IntWritable, TransactionWritable> {
+
+    private static final byte[] SEQUENCE_FILE_MAGIC = {'S', 'E', 'Q'};
+
+    /**
+     * Check whether transactions are binary or text, by the header of their first file
+     * @param conf
+     * @param path - a transaction file or a folder of transaction files
+     * @return true if the transactions are SequenceFiles
+     * @throws IOException
+     */
+    public static boolean isBinary(Configuration conf, Path path) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        FileStatus[] statuses = fs.listStatus(path);
+        if (statuses == null)
+            return false;
+        Arrays.sort(statuses);
+        for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (status.isDir() || name.startsWith("_") || name.startsWith(".") || status.getLen() < 3)
+                continue;
+            byte[] magic = new byte[SEQUENCE_FILE_MAGIC.length];
+            FSDataInputStream in = fs.open(status.getPath());
+            try {
+                in.readFully(magic);
+            } finally {
+                in.close();
+            }
+            return Arrays.equals(magic, SEQUENCE_FILE_MAGIC);
+        }
+        return false;
+    }
+}
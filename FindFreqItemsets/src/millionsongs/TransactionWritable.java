@@ -0,0 +1,114 @@
+package millionsongs;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Song ids of one transaction, distinct and in ascending order.
+ * <p>
+ * Serialized as vint number of songs, vint first id, then vint gaps between neighbouring ids, which are
+ * small for the dense song ids. readFields decodes into the same int[] as long as it is large enough,
+ * so a reader which reuses the value creates no garbage per transaction.
+ *
+ * @author peilicao
+ *
+ */
+public class TransactionWritable implements Writable {
+
+    private int[] songs;
+    private int size;
+
+    public TransactionWritable() {
+        songs = new int[64];
+        size = 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Append a song, a song equal to the last one is ignored
+     * @param song - not less than the last song
+     */
+    public void add(int song) {
+        if (size > 0) {
+            if (song == songs[size - 1])
+                return;
+            if (song < songs[size - 1])
+                throw new IllegalArgumentException("Song " + song + " is before " + songs[size - 1]);
+        }
+        if (size == songs.length)
+            songs = Arrays.copyOf(songs, size * 2);
+        songs[size++] = song;
+    }
+
+    /**
+     * Parse one text transaction line (user, song1, song2 ... songn) written by CombineTask, without
+     * creating Strings. The user is skipped.
+     * @param line - tab separated ids, songs in ascending order
+     */
+    public void parse(Text line) {
+        byte[] bytes = line.getBytes();
+        int end = line.getLength();
+        int i = 0;
+        clear();
+        // Skip user id
+        while (i < end && bytes[i] != '\t')
+            i++;
+        while (i < end) {
+            int start = ++i;
+            int id = 0;
+            while (i < end && bytes[i] != '\t') {
+                id = id * 10 + (bytes[i] - '0');
+                i++;
+            }
+            if (i > start)
+                add(id);
+        }
+    }
+
+    /**
+     * @return song ids in [0, getSize()), the array is reused by readFields
+     */
+    public int[] get() {
+        return songs;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVInt(out, songs[i] - previous);
+            previous = songs[i];
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        size = WritableUtils.readVInt(in);
+        if (songs.length < size)
+            songs = new int[Math.max(size, songs.length * 2)];
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += WritableUtils.readVInt(in);
+            songs[i] = previous;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(songs, size));
+    }
+}
@@ -0,0 +1,32 @@
+package flightbench;
+
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Output which only counts the records, so the measured time is the time of
+ * the mapper or reducer and not of an output format.
+ * @author Peili Cao
+ *
+ */
+public class CountingRecordWriter<K, V> extends RecordWriter<K, V> {
+
+	private long count;
+
+	@Override
+	public void write(K key, V value) {
+		count++;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void reset() {
+		count = 0;
+	}
+
+	@Override
+	public void close(TaskAttemptContext context) {
+	}
+}
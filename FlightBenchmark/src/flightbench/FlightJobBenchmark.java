@@ -0,0 +1,130 @@
+package flightbench;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Common part of the JMH benchmarks of the flight mappers and reducers.
+ * <p>
+ * A subclass configures a Job like its driver does. The mapper is fed
+ * ROWS synthetic csv rows (SyntheticFlights), the reducer REDUCE_VALUES
+ * pairs of real map output, sorted by the sort comparator of the job. Map
+ * output for the reducer is produced without in-mapper combine
+ * (<code>flight.combine.maxEntries=1</code>), so the groups are as large as
+ * on the cluster before the combiner.
+ * <p>
+ * Each invocation runs one whole task, normalized per record with
+ * OperationsPerInvocation, so the throughput is records/sec, and
+ * <b>gc.alloc.rate.norm</b> of the GC profiler is bytes allocated per record.
+ * <p>
+ * The jobs live in the default package of their module, they are loaded by
+ * name as Hadoop does. Both modules can be on the classpath, e.g.:<br>
+ * <code>java -cp jmh:hadoop:FlightData:FlightBenchmark:FlightMonDelay:FlightPairFinder
+ * flightbench.FlightMonDelayBenchmark</code><br>
+ * Compile FlightBenchmark with jmh-generator-annprocess on the classpath.
+ * Command line options of JMH are accepted, e.g. <code>-f 2 -wi 5</code>.
+ * @author Peili Cao
+ *
+ */
+public abstract class FlightJobBenchmark {
+
+	public static final int ROWS = 100000;
+	public static final int REDUCE_VALUES = 100000;
+
+	/** Same as FlightMapper.MAX_ENTRIES */
+	static final String MAX_ENTRIES = "flight.combine.maxEntries";
+	private static final long SEED = 20080101L;
+
+	protected MapReduceHarness harness;
+	protected ListRecordReader<Text> rows;
+	protected SortedKeyValues groups;
+	protected CountingRecordWriter<Object, Object> output;
+
+	/**
+	 * Set the classes of the job like its driver
+	 *
+	 * @param job
+	 * @throws ClassNotFoundException
+	 *             - the module of the job is not on the classpath
+	 */
+	protected abstract void configure(Job job) throws ClassNotFoundException;
+
+	/**
+	 * Build the job, the mapper input and the reducer input
+	 *
+	 * @throws Exception
+	 */
+	protected void init() throws Exception {
+		Job job = new Job(new Configuration(), getClass().getSimpleName());
+		configure(job);
+		harness = new MapReduceHarness(job);
+		rows = new ListRecordReader<Text>(new SyntheticFlights(SEED).rows(ROWS));
+		output = new CountingRecordWriter<Object, Object>();
+
+		Job uncombined = new Job(new Configuration(job.getConfiguration()));
+		uncombined.getConfiguration().setInt(MAX_ENTRIES, 1);
+		MapReduceHarness generator = new MapReduceHarness(uncombined);
+		SyntheticFlights flights = new SyntheticFlights(SEED + 1);
+		groups = new SortedKeyValues();
+		while (groups.size() < REDUCE_VALUES) {
+			generator.runMapper(new ListRecordReader<Text>(flights.rows(ROWS)),
+					groups.collector());
+		}
+		groups.sort(harness.getSortComparator());
+		groups.setLimit(REDUCE_VALUES);
+	}
+
+	/**
+	 * Run one map task over all rows
+	 *
+	 * @return number of records written
+	 */
+	protected long runMapper() throws IOException, InterruptedException {
+		rows.reset();
+		output.reset();
+		harness.runMapper(rows, output);
+		return output.getCount();
+	}
+
+	/**
+	 * Run one reduce task over all groups
+	 *
+	 * @return number of records written
+	 */
+	protected long runReducer() throws IOException, InterruptedException {
+		groups.reset();
+		output.reset();
+		harness.runReducer(groups, output);
+		return output.getCount();
+	}
+
+	/**
+	 * @return class of the given name, checked against type
+	 */
+	protected static <T> Class<? extends T> load(Job job, String name,
+			Class<T> type) throws ClassNotFoundException {
+		return job.getConfiguration().getClassByName(name).asSubclass(type);
+	}
+
+	/**
+	 * Run the benchmarks of one class with the GC profiler
+	 *
+	 * @param benchmark
+	 * @param args
+	 *            - JMH command line options
+	 * @throws Exception
+	 */
+	protected static void run(Class<? extends FlightJobBenchmark> benchmark,
+			String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.include(benchmark.getName()).addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,69 @@
+package flightbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FlightPairMapper and FlightPairReducer of the reduce side join of
+ * FlightPairFinder. Needs FlightPairFinder on the classpath.
+ * @author Peili Cao
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlightPairBenchmark extends FlightJobBenchmark {
+
+	@Override
+	protected void configure(Job job) throws ClassNotFoundException {
+		job.setMapperClass(load(job, "FlightPairMapper", Mapper.class));
+		job.setReducerClass(load(job, "FlightPairReducer", Reducer.class));
+		job.setMapOutputKeyClass(load(job, "LegKey", WritableComparable.class));
+		job.setMapOutputValueClass(DoubleWritable.class);
+		job.setSortComparatorClass(load(job, "LegKey$Comparator",
+				RawComparator.class));
+		job.setGroupingComparatorClass(load(job, "LegKey$GroupComparator",
+				RawComparator.class));
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		init();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public long flightPairMapper() throws Exception {
+		return runMapper();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REDUCE_VALUES)
+	public long flightPairReducer() throws Exception {
+		return runReducer();
+	}
+
+	public static void main(String[] args) throws Exception {
+		run(FlightPairBenchmark.class, args);
+	}
+}
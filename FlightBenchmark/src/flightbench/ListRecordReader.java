@@ -0,0 +1,67 @@
+package flightbench;
+
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Mapper input from a list held in memory.
+ * <p>
+ * Key is the record number (like the offset of TextInputFormat), values are
+ * the objects of the list, so nothing is allocated while reading. reset
+ * rewinds the reader, the same input is fed to every run.
+ * @author Peili Cao
+ *
+ */
+public class ListRecordReader<V> extends RecordReader<LongWritable, V> {
+
+	private List<V> values;
+	private int next;
+	private LongWritable key;
+
+	public ListRecordReader(List<V> values) {
+		this.values = values;
+		this.key = new LongWritable();
+	}
+
+	/**
+	 * Start again at the first value
+	 */
+	public void reset() {
+		next = 0;
+	}
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context) {
+	}
+
+	@Override
+	public boolean nextKeyValue() {
+		if (next == values.size())
+			return false;
+		key.set(next++);
+		return true;
+	}
+
+	@Override
+	public LongWritable getCurrentKey() {
+		return key;
+	}
+
+	@Override
+	public V getCurrentValue() {
+		return values.get(next - 1);
+	}
+
+	@Override
+	public float getProgress() {
+		return values.isEmpty() ? 1.0f : (float) next / values.size();
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,154 @@
+package flightbench;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Run the mapper or the reducer of a job in this thread, without a cluster
+ * and without LocalJobRunner.
+ * <p>
+ * The classes are taken from the Job exactly as the drivers configure it
+ * (mapper, reducer, map output key/value, sort and group comparator), and a
+ * new instance is created for every run, like a task does. The Context is
+ * the real Mapper.Context / Reducer.Context of Hadoop, backed by an
+ * in-memory reader, writer and status reporter, so setup, map/reduce and
+ * cleanup run the same code as on the cluster.
+ * @author Peili Cao
+ *
+ */
+public class MapReduceHarness {
+
+	public static final String COUNTER_GROUP = "Harness";
+	public static final String REDUCE_INPUT_GROUPS = "ReduceInputGroups";
+	public static final String REDUCE_INPUT_RECORDS = "ReduceInputRecords";
+
+	private Job job;
+	private Configuration conf;
+	private Counters counters;
+	private StatusReporter reporter;
+
+	public MapReduceHarness(Job job) {
+		this.job = job;
+		this.conf = job.getConfiguration();
+		this.counters = new Counters();
+		this.reporter = new InMemoryStatusReporter(counters);
+	}
+
+	public Configuration getConfiguration() {
+		return conf;
+	}
+
+	/**
+	 * @return counters of all runs of this harness
+	 */
+	public Counters getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Run one map task over the input
+	 *
+	 * @param input
+	 *            - key/value types of the mapper input
+	 * @param output
+	 *            - receives the map output
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void runMapper(RecordReader<?, ?> input, RecordWriter<?, ?> output)
+			throws IOException, InterruptedException {
+		Mapper mapper;
+		try {
+			mapper = ReflectionUtils.newInstance(job.getMapperClass(), conf);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		mapper.run(mapper.new Context(conf, new TaskAttemptID(),
+				(RecordReader) input, (RecordWriter) output, null, reporter,
+				null));
+	}
+
+	/**
+	 * Run one reduce task over sorted map output
+	 *
+	 * @param input
+	 *            - serialized map output, sorted by the sort comparator of
+	 *            the job
+	 * @param output
+	 *            - receives the reduce output
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void runReducer(RawKeyValueIterator input, RecordWriter<?, ?> output)
+			throws IOException, InterruptedException {
+		Reducer reducer;
+		try {
+			reducer = ReflectionUtils.newInstance(job.getReducerClass(), conf);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		reducer.run(reducer.new Context(conf, new TaskAttemptID(), input,
+				counters.findCounter(COUNTER_GROUP, REDUCE_INPUT_GROUPS),
+				counters.findCounter(COUNTER_GROUP, REDUCE_INPUT_RECORDS),
+				(RecordWriter) output, null, reporter,
+				job.getGroupingComparator(), job.getMapOutputKeyClass(),
+				job.getMapOutputValueClass()));
+	}
+
+	/**
+	 * @return sort comparator of the job, to sort map output for runReducer
+	 */
+	public RawComparator<?> getSortComparator() {
+		return job.getSortComparator();
+	}
+
+	/**
+	 * Counters kept in memory, status is ignored
+	 */
+	private static class InMemoryStatusReporter extends StatusReporter {
+
+		private Counters counters;
+
+		InMemoryStatusReporter(Counters counters) {
+			this.counters = counters;
+		}
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public float getProgress() {
+			return 0;
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package flightbench;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+
+/**
+ * Serialized key/value pairs held in memory, sorted like the map output a
+ * reduce task receives.
+ * <p>
+ * Pairs are written one after another in one buffer, and sorted by an index
+ * with the raw comparator of the job, so keys are compared in place as in
+ * the shuffle. Reading with the RawKeyValueIterator interface does not
+ * allocate, reset rewinds it, the same input is fed to every run.
+ * @author Peili Cao
+ *
+ */
+public class SortedKeyValues implements RawKeyValueIterator {
+
+	private DataOutputBuffer data;
+	private int[] starts;
+	private int[] keyLengths;
+	private int[] valueLengths;
+	private int size;
+	private int limit;
+	private int current;
+
+	private DataInputBuffer key;
+	private DataInputBuffer value;
+	private Progress progress;
+
+	public SortedKeyValues() {
+		data = new DataOutputBuffer();
+		starts = new int[1024];
+		keyLengths = new int[1024];
+		valueLengths = new int[1024];
+		limit = Integer.MAX_VALUE;
+		current = -1;
+		key = new DataInputBuffer();
+		value = new DataInputBuffer();
+		progress = new Progress();
+	}
+
+	/**
+	 * Serialize one pair at the end
+	 *
+	 * @param k
+	 * @param v
+	 * @throws IOException
+	 */
+	public void add(Writable k, Writable v) throws IOException {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			keyLengths = Arrays.copyOf(keyLengths, size * 2);
+			valueLengths = Arrays.copyOf(valueLengths, size * 2);
+		}
+		int start = data.getLength();
+		k.write(data);
+		int valueStart = data.getLength();
+		v.write(data);
+		starts[size] = start;
+		keyLengths[size] = valueStart - start;
+		valueLengths[size] = data.getLength() - valueStart;
+		size++;
+	}
+
+	/**
+	 * @return writer which adds every pair written to it
+	 */
+	public RecordWriter<Writable, Writable> collector() {
+		return new RecordWriter<Writable, Writable>() {
+			@Override
+			public void write(Writable k, Writable v) throws IOException {
+				add(k, v);
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) {
+			}
+		};
+	}
+
+	/**
+	 * Sort the pairs by key
+	 *
+	 * @param comparator
+	 *            - sort comparator of the job
+	 */
+	public void sort(final RawComparator<?> comparator) {
+		final byte[] bytes = data.getData();
+		new QuickSort().sort(new IndexedSortable() {
+			@Override
+			public int compare(int i, int j) {
+				return comparator.compare(bytes, starts[i], keyLengths[i],
+						bytes, starts[j], keyLengths[j]);
+			}
+
+			@Override
+			public void swap(int i, int j) {
+				swapInt(starts, i, j);
+				swapInt(keyLengths, i, j);
+				swapInt(valueLengths, i, j);
+			}
+		}, 0, size);
+	}
+
+	/**
+	 * @return number of pairs returned by the iterator
+	 */
+	public int size() {
+		return Math.min(size, limit);
+	}
+
+	/**
+	 * Return only the first pairs, the rest is kept
+	 *
+	 * @param limit
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Start again before the first pair
+	 */
+	public void reset() {
+		current = -1;
+	}
+
+	@Override
+	public DataInputBuffer getKey() {
+		return key;
+	}
+
+	@Override
+	public DataInputBuffer getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean next() {
+		if (current + 1 >= size())
+			return false;
+		current++;
+		key.reset(data.getData(), starts[current], keyLengths[current]);
+		value.reset(data.getData(), starts[current] + keyLengths[current],
+				valueLengths[current]);
+		return true;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public Progress getProgress() {
+		return progress;
+	}
+
+	private static void swapInt(int[] array, int i, int j) {
+		int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+}
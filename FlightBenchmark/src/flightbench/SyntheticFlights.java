@@ -0,0 +1,129 @@
+package flightbench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Generator of on-time csv rows for benchmarks.
+ * <p>
+ * Rows have the 56 columns of the on-time data, only the columns read by the
+ * flight jobs are filled: year, month, flightdate, airline, origin, dest,
+ * depTime, arrTime, arrDelay, cancelled, diverted. Flights are spread over
+ * 2007 and 2008, about a quarter leave ORD and a quarter arrive at JFK, so
+ * both FlightMonDelayPattern and FlightPairFinder find work in them. Same
+ * seed gives same rows.
+ * @author Peili Cao
+ *
+ */
+public class SyntheticFlights {
+
+	public static final int NUM_FIELDS = 56;
+
+	private static final String[] AIRPORTS = { "ORD", "JFK", "ATL", "DFW",
+			"DEN", "LAX", "SFO", "BOS", "MSP", "DTW", "SEA", "PHX", "IAH",
+			"MIA", "CLT", "LAS" };
+	private static final int FIRST_AIRLINE = 19790;
+	private static final int NUM_AIRLINES = 20;
+
+	private Random random;
+	private StringBuilder row;
+
+	public SyntheticFlights(long seed) {
+		random = new Random(seed);
+		row = new StringBuilder(128);
+	}
+
+	/**
+	 * @param n
+	 * @return n new rows
+	 */
+	public List<Text> rows(int n) {
+		List<Text> rows = new ArrayList<Text>(n);
+		for (int i = 0; i < n; i++)
+			rows.add(new Text(next()));
+		return rows;
+	}
+
+	/**
+	 * @return one new row
+	 */
+	public String next() {
+		int year = 2007 + random.nextInt(2);
+		int month = 1 + random.nextInt(12);
+		int day = 1 + random.nextInt(28);
+		String origin = random.nextInt(4) == 0 ? "ORD" : airport();
+		String dest = random.nextInt(4) == 0 ? "JFK" : airport();
+		while (dest.equals(origin))
+			dest = airport();
+		boolean cancelled = random.nextInt(50) == 0;
+		boolean diverted = !cancelled && random.nextInt(200) == 0;
+		int dep = 360 + random.nextInt(1020);
+		int arr = (dep + 60 + random.nextInt(240)) % 1440;
+		// Mostly small delays, a long tail of late flights
+		int delay = (int) Math.round(Math.abs(random.nextGaussian()) * 40
+				* (random.nextInt(10) == 0 ? 4 : 1)) - 15;
+
+		row.setLength(0);
+		for (int col = 0; col < NUM_FIELDS; col++) {
+			if (col > 0)
+				row.append(',');
+			switch (col) {
+			case 0:
+				row.append(year);
+				break;
+			case 2:
+				row.append(month);
+				break;
+			case 5:
+				row.append(year).append('-').append(twoDigits(month))
+						.append('-').append(twoDigits(day));
+				break;
+			case 7:
+				row.append(FIRST_AIRLINE + random.nextInt(NUM_AIRLINES));
+				break;
+			case 11:
+				row.append('"').append(origin).append('"');
+				break;
+			case 17:
+				row.append('"').append(dest).append('"');
+				break;
+			case 24:
+				if (!cancelled)
+					row.append(hhmm(dep));
+				break;
+			case 35:
+				if (!cancelled && !diverted)
+					row.append(hhmm(arr));
+				break;
+			case 37:
+				if (!cancelled && !diverted)
+					row.append(delay).append(".00");
+				break;
+			case 41:
+				row.append(cancelled ? "1.00" : "0.00");
+				break;
+			case 43:
+				row.append(diverted ? "1.00" : "0.00");
+				break;
+			default:
+				break;
+			}
+		}
+		return row.toString();
+	}
+
+	private String airport() {
+		return AIRPORTS[random.nextInt(AIRPORTS.length)];
+	}
+
+	private static String twoDigits(int value) {
+		return (value < 10 ? "0" : "") + value;
+	}
+
+	private static int hhmm(int minutes) {
+		return (minutes / 60) * 100 + minutes % 60;
+	}
+}
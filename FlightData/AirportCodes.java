@@ -0,0 +1,97 @@
+/**
+ * Dictionary of airport codes.<br>
+ * Airport codes have at most 3 characters in [A-Z0-9], so every code maps to
+ * a fixed id (base 37) without any lookup table shared between tasks. Ids keep
+ * the alphabetical order of the codes, so sorting by id is the same as
+ * sorting by code.
+ * <p>
+ * Ids are in [0, 37^3), which fits in 16 bits.
+ *
+ * @author Peili Cao
+ *
+ */
+public class AirportCodes {
+
+	public static final int MAX_LENGTH = 3;
+	public static final int NUM_IDS = 37 * 37 * 37;
+
+	private AirportCodes() {
+	}
+
+	/**
+	 * Encode the code in bytes[start, start+length)
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @return id of the code
+	 * @throws IllegalArgumentException
+	 *             if it is not a valid airport code
+	 */
+	public static int encode(byte[] bytes, int start, int length) {
+		if (length > MAX_LENGTH)
+			throw new IllegalArgumentException("Invalid airport code: "
+					+ new String(bytes, start, length));
+		int id = 0;
+		for (int i = 0; i < MAX_LENGTH; i++) {
+			int digit = 0;
+			if (i < length) {
+				digit = digitOf(bytes[start + i]);
+				if (digit == 0)
+					throw new IllegalArgumentException("Invalid airport code: "
+							+ new String(bytes, start, length));
+			}
+			id = id * 37 + digit;
+		}
+		return id;
+	}
+
+	/**
+	 * @param code
+	 *            - e.g. "ORD"
+	 * @return id of the code
+	 */
+	public static int encode(String code) {
+		byte[] bytes = code.getBytes();
+		return encode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @param id
+	 * @return airport code of the id
+	 */
+	public static String decode(int id) {
+		char[] chars = new char[MAX_LENGTH];
+		int length = 0;
+		int divisor = 37 * 37;
+		for (int i = 0; i < MAX_LENGTH; i++) {
+			int digit = (id / divisor) % 37;
+			divisor /= 37;
+			if (digit == 0)
+				break;
+			chars[length++] = charOf(digit);
+		}
+		return new String(chars, 0, length);
+	}
+
+	// Helper functions
+
+	/**
+	 * 0 is reserved for padding, '0'-'9' are 1-10, 'A'-'Z' are 11-36
+	 */
+	private static int digitOf(byte b) {
+		if (b >= '0' && b <= '9')
+			return b - '0' + 1;
+		if (b >= 'A' && b <= 'Z')
+			return b - 'A' + 11;
+		if (b >= 'a' && b <= 'z')
+			return b - 'a' + 11;
+		return 0;
+	}
+
+	private static char charOf(int digit) {
+		if (digit <= 10)
+			return (char) ('0' + digit - 1);
+		return (char) ('A' + digit - 11);
+	}
+}
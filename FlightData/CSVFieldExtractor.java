@@ -0,0 +1,375 @@
+import org.apache.hadoop.io.Text;
+
+/**
+ * Byte level CSV field extractor for the on-time flight data.
+ * <p>
+ * Works directly on the backing bytes of a <code>Text</code>, so no String
+ * and no String[] are created for a line. Only the offsets of the requested
+ * columns are recorded, all other fields are only counted.<br>
+ * Quoted fields are supported: separators inside quotes are ignored, the
+ * surrounding quotes are stripped and doubled quotes ("") are read as one
+ * quote.
+ * <p>
+ * Usage:<br>
+ * <code>extractor.parse(value)</code> once per record, then read the wanted
+ * columns with <code>getInt</code>, <code>getDecimal</code>,
+ * <code>equals</code> or <code>copyTo</code>.
+ *
+ * @author Peili Cao
+ *
+ */
+public class CSVFieldExtractor {
+
+	private static final byte SEPARATOR = ',';
+	private static final byte QUOTE = '"';
+
+	private boolean[] wanted;
+	private int[] starts;
+	private int[] ends;
+	private boolean[] escaped;
+	private byte[] bytes;
+	private int numFields;
+
+	/**
+	 * @param columns
+	 *            - column offsets that will be read after each parse
+	 */
+	public CSVFieldExtractor(int... columns) {
+		int max = -1;
+		for (int col : columns)
+			max = Math.max(max, col);
+		wanted = new boolean[max + 1];
+		for (int col : columns)
+			wanted[col] = true;
+		starts = new int[max + 1];
+		ends = new int[max + 1];
+		escaped = new boolean[max + 1];
+	}
+
+	/**
+	 * Scan one line and record the requested columns
+	 *
+	 * @param value
+	 *            - one line of csv
+	 * @return number of fields in this line
+	 */
+	public int parse(Text value) {
+		return parse(value.getBytes(), value.getLength());
+	}
+
+	/**
+	 * Scan one line and record the requested columns
+	 *
+	 * @param data
+	 *            - bytes of one line
+	 * @param length
+	 *            - number of valid bytes in data
+	 * @return number of fields in this line
+	 */
+	public int parse(byte[] data, int length) {
+		bytes = data;
+		numFields = 0;
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = -1;
+			ends[i] = -1;
+		}
+
+		int pos = 0;
+		int col = 0;
+		while (true) {
+			int start = pos;
+			int end;
+			boolean esc = false;
+			if (pos < length && data[pos] == QUOTE) {
+				// Quoted field, ends at a quote which is not doubled
+				start = ++pos;
+				while (pos < length) {
+					if (data[pos] == QUOTE) {
+						if (pos + 1 < length && data[pos + 1] == QUOTE) {
+							esc = true;
+							pos += 2;
+							continue;
+						}
+						break;
+					}
+					pos++;
+				}
+				end = pos;
+				// Skip anything between closing quote and separator
+				while (pos < length && data[pos] != SEPARATOR)
+					pos++;
+			} else {
+				while (pos < length && data[pos] != SEPARATOR)
+					pos++;
+				end = pos;
+			}
+
+			if (col < wanted.length && wanted[col]) {
+				starts[col] = start;
+				ends[col] = end;
+				escaped[col] = esc;
+			}
+			col++;
+
+			if (pos >= length)
+				break;
+			// Skip separator
+			pos++;
+		}
+		numFields = col;
+		return numFields;
+	}
+
+	/**
+	 * @return number of fields of the last parsed line
+	 */
+	public int getNumFields() {
+		return numFields;
+	}
+
+	/**
+	 * @param col
+	 * @return length in bytes of the column, -1 if column is missing
+	 */
+	public int length(int col) {
+		checkColumn(col);
+		if (starts[col] < 0)
+			return -1;
+		return ends[col] - starts[col];
+	}
+
+	/**
+	 * Compare the column with the given bytes.
+	 *
+	 * @param col
+	 * @param expected
+	 *            - e.g. "0.00".getBytes()
+	 * @return true if the column has exactly the same content
+	 */
+	public boolean equals(int col, byte[] expected) {
+		checkColumn(col);
+		int start = starts[col];
+		if (start < 0)
+			return false;
+		if (escaped[col])
+			return toText(col).equals(new Text(expected));
+		if (ends[col] - start != expected.length)
+			return false;
+		for (int i = 0; i < expected.length; i++) {
+			if (bytes[start + i] != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the column as int without creating String.
+	 *
+	 * @param col
+	 * @return int value
+	 * @throws NumberFormatException
+	 *             if the column is empty or is not an integer
+	 */
+	public int getInt(int col) {
+		checkColumn(col);
+		int pos = starts[col];
+		int end = ends[col];
+		if (pos < 0 || pos == end)
+			throw new NumberFormatException("Empty column " + col);
+
+		boolean negative = false;
+		if (bytes[pos] == '-' || bytes[pos] == '+') {
+			negative = bytes[pos] == '-';
+			pos++;
+			if (pos == end)
+				throw invalidNumber(col);
+		}
+		int result = 0;
+		for (; pos < end; pos++) {
+			int digit = bytes[pos] - '0';
+			if (digit < 0 || digit > 9)
+				throw invalidNumber(col);
+			result = result * 10 + digit;
+		}
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Parse the column as fixed point decimal, such as "0.00", "-3.00" or
+	 * "12.00", without creating String.
+	 *
+	 * @param col
+	 * @return value of the decimal
+	 * @throws NumberFormatException
+	 *             if the column is empty or is not a decimal
+	 */
+	public double getDecimal(int col) {
+		checkColumn(col);
+		int pos = starts[col];
+		int end = ends[col];
+		if (pos < 0 || pos == end)
+			throw new NumberFormatException("Empty column " + col);
+
+		boolean negative = false;
+		if (bytes[pos] == '-' || bytes[pos] == '+') {
+			negative = bytes[pos] == '-';
+			pos++;
+		}
+		long unscaled = 0;
+		long scale = 1;
+		boolean point = false;
+		boolean digits = false;
+		for (; pos < end; pos++) {
+			byte b = bytes[pos];
+			if (b == '.' && !point) {
+				point = true;
+				continue;
+			}
+			int digit = b - '0';
+			if (digit < 0 || digit > 9)
+				throw invalidNumber(col);
+			digits = true;
+			unscaled = unscaled * 10 + digit;
+			if (point)
+				scale *= 10;
+		}
+		if (!digits)
+			throw invalidNumber(col);
+		double result = (double) unscaled / scale;
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Parse a "yyyy-MM-dd" column, e.g. flightdate, without creating String.
+	 *
+	 * @param col
+	 * @return days since 1970-01-01
+	 * @throws NumberFormatException
+	 *             if the column is not a date
+	 */
+	public int getEpochDay(int col) {
+		checkColumn(col);
+		int pos = starts[col];
+		if (pos < 0 || ends[col] - pos != 10 || bytes[pos + 4] != '-'
+				|| bytes[pos + 7] != '-')
+			throw invalidNumber(col);
+		int year = digits(col, pos, 4);
+		int month = digits(col, pos + 5, 2);
+		int day = digits(col, pos + 8, 2);
+		return epochDay(year, month, day);
+	}
+
+	/**
+	 * Parse a "hhmm" column, e.g. depTime or arrTime, without creating
+	 * String.
+	 *
+	 * @param col
+	 * @return minutes of day, "2400" is 1440
+	 * @throws NumberFormatException
+	 *             if the column is empty or is not a time
+	 */
+	public int getMinuteOfDay(int col) {
+		int hhmm = getInt(col);
+		return (hhmm / 100) * 60 + hhmm % 100;
+	}
+
+	/**
+	 * Look up an airport code column, e.g. origin or dest, in AirportCodes
+	 * without creating String.
+	 *
+	 * @param col
+	 * @return airport id
+	 */
+	public int getAirport(int col) {
+		checkColumn(col);
+		if (starts[col] < 0)
+			throw new IllegalArgumentException("Missing column " + col);
+		return AirportCodes.encode(bytes, starts[col], ends[col] - starts[col]);
+	}
+
+	/**
+	 * Days since 1970-01-01 of a date in proleptic Gregorian calendar
+	 *
+	 * @param year
+	 * @param month
+	 *            - 1 to 12
+	 * @param day
+	 *            - 1 to 31
+	 * @return
+	 */
+	public static int epochDay(int year, int month, int day) {
+		// Count years from March so that leap day is the last day of year
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * Copy the column into the given Text, quotes are removed.
+	 *
+	 * @param col
+	 * @param target
+	 */
+	public void copyTo(int col, Text target) {
+		checkColumn(col);
+		int start = starts[col];
+		if (start < 0) {
+			target.clear();
+			return;
+		}
+		if (!escaped[col]) {
+			target.set(bytes, start, ends[col] - start);
+			return;
+		}
+		// Collapse doubled quotes
+		target.clear();
+		int from = start;
+		for (int pos = start; pos < ends[col]; pos++) {
+			if (bytes[pos] == QUOTE) {
+				target.append(bytes, from, pos - from + 1);
+				pos++;
+				from = pos + 1;
+			}
+		}
+		target.append(bytes, from, ends[col] - from);
+	}
+
+	/**
+	 * Materialize the column as a new Text, only used by uncommon paths.
+	 *
+	 * @param col
+	 * @return
+	 */
+	public Text toText(int col) {
+		Text text = new Text();
+		copyTo(col, text);
+		return text;
+	}
+
+	// Helper functions
+
+	private void checkColumn(int col) {
+		if (col >= wanted.length || !wanted[col])
+			throw new IllegalArgumentException("Column " + col
+					+ " is not extracted");
+	}
+
+	private int digits(int col, int pos, int length) {
+		int result = 0;
+		for (int i = pos; i < pos + length; i++) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw invalidNumber(col);
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+
+	private NumberFormatException invalidNumber(int col) {
+		return new NumberFormatException("Invalid number at column " + col
+				+ ": " + toText(col));
+	}
+}
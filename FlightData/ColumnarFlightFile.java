@@ -0,0 +1,375 @@
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Compact columnar file of FlightRecord, written once by FlightDataConverter
+ * and read by the flight jobs instead of the csv.
+ * <p>
+ * File: <b>magic "FLC", version, sync(16 bytes), block, block, ...</b><br>
+ * Block: <b>sync, rawLength, compressedLength, deflated columns</b><br>
+ * Columns of a block, one after another:<br>
+ * numRecords<br>
+ * airline: dictionary of the AirlineIDs in the block, then one ordinal per
+ * record<br>
+ * flightdate: smallest epoch day of the block, then one offset per record<br>
+ * origin, dest: AirportCodes ids<br>
+ * depTime, arrTime: minutes of day + 1, 0 if missing<br>
+ * arrDelay: cents<br>
+ * flags: one byte per record
+ * <p>
+ * All numbers are vints, so a block of one column holds only a few distinct
+ * small values and compresses well. Every block starts with the sync marker
+ * of the file, so a reader can start at any offset and skip to the next
+ * block, which makes the file splittable. A block belongs to the split in
+ * which its sync marker starts.
+ * @author Peili Cao
+ *
+ */
+public class ColumnarFlightFile {
+
+	public static final String EXTENSION = ".flc";
+
+	private static final byte[] MAGIC = "FLC".getBytes();
+	private static final int VERSION = 1;
+	private static final int SYNC_SIZE = 16;
+
+	private ColumnarFlightFile() {
+	}
+
+	/**
+	 * Buffer records of one block column by column, and write the block when
+	 * it is full or at close
+	 */
+	public static class Writer {
+
+		private DataOutputStream out;
+		private byte[] sync;
+		private int blockRecords;
+		private int size;
+
+		private int[] epochDays;
+		private int[] airlines;
+		private int[] origins;
+		private int[] dests;
+		private int[] depTimes;
+		private int[] arrTimes;
+		private int[] delays;
+		private byte[] flags;
+
+		private DataOutputBuffer buffer;
+		private Deflater deflater;
+		private byte[] compressed;
+
+		/**
+		 * Write the file header
+		 *
+		 * @param out
+		 *            - closed by close
+		 * @param blockRecords
+		 *            - number of records of one block
+		 * @throws IOException
+		 */
+		public Writer(DataOutputStream out, int blockRecords) throws IOException {
+			this.out = out;
+			this.blockRecords = blockRecords;
+			epochDays = new int[blockRecords];
+			airlines = new int[blockRecords];
+			origins = new int[blockRecords];
+			dests = new int[blockRecords];
+			depTimes = new int[blockRecords];
+			arrTimes = new int[blockRecords];
+			delays = new int[blockRecords];
+			flags = new byte[blockRecords];
+			buffer = new DataOutputBuffer();
+			deflater = new Deflater();
+			compressed = new byte[4096];
+
+			UUID uuid = UUID.randomUUID();
+			sync = new byte[SYNC_SIZE];
+			for (int i = 0; i < 8; i++) {
+				sync[i] = (byte) (uuid.getMostSignificantBits() >>> (8 * i));
+				sync[i + 8] = (byte) (uuid.getLeastSignificantBits() >>> (8 * i));
+			}
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.write(sync);
+		}
+
+		public void append(FlightRecord record) throws IOException {
+			epochDays[size] = record.getEpochDay();
+			airlines[size] = record.getAirline();
+			origins[size] = record.getOrigin();
+			dests[size] = record.getDest();
+			depTimes[size] = record.getDepTime();
+			arrTimes[size] = record.getArrTime();
+			delays[size] = record.getArrDelayCents();
+			flags[size] = (byte) record.getFlags();
+			size++;
+			if (size == blockRecords)
+				writeBlock();
+		}
+
+		public void close() throws IOException {
+			if (size > 0)
+				writeBlock();
+			deflater.end();
+			out.close();
+		}
+
+		private void writeBlock() throws IOException {
+			buffer.reset();
+			WritableUtils.writeVInt(buffer, size);
+
+			// Airline dictionary, a block holds only a few carriers
+			int[] dictionary = new int[16];
+			int dictionarySize = 0;
+			int[] ordinals = new int[size];
+			for (int i = 0; i < size; i++) {
+				int ordinal = 0;
+				while (ordinal < dictionarySize
+						&& dictionary[ordinal] != airlines[i])
+					ordinal++;
+				if (ordinal == dictionarySize) {
+					if (dictionarySize == dictionary.length)
+						dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+					dictionary[dictionarySize++] = airlines[i];
+				}
+				ordinals[i] = ordinal;
+			}
+			WritableUtils.writeVInt(buffer, dictionarySize);
+			for (int i = 0; i < dictionarySize; i++)
+				WritableUtils.writeVInt(buffer, dictionary[i]);
+			writeColumn(ordinals, 0);
+
+			int minDay = Integer.MAX_VALUE;
+			for (int i = 0; i < size; i++)
+				minDay = Math.min(minDay, epochDays[i]);
+			WritableUtils.writeVInt(buffer, minDay);
+			writeColumn(epochDays, minDay);
+
+			writeColumn(origins, 0);
+			writeColumn(dests, 0);
+			writeColumn(depTimes, FlightRecord.MISSING);
+			writeColumn(arrTimes, FlightRecord.MISSING);
+			writeColumn(delays, 0);
+			buffer.write(flags, 0, size);
+
+			deflater.reset();
+			deflater.setInput(buffer.getData(), 0, buffer.getLength());
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished()) {
+				if (compressedLength == compressed.length)
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				compressedLength += deflater.deflate(compressed,
+						compressedLength, compressed.length - compressedLength);
+			}
+
+			out.write(sync);
+			WritableUtils.writeVInt(out, buffer.getLength());
+			WritableUtils.writeVInt(out, compressedLength);
+			out.write(compressed, 0, compressedLength);
+			size = 0;
+		}
+
+		private void writeColumn(int[] values, int base) throws IOException {
+			for (int i = 0; i < size; i++)
+				WritableUtils.writeVInt(buffer, values[i] - base);
+		}
+	}
+
+	/**
+	 * Read the blocks whose sync marker starts in [start, end)
+	 */
+	public static class Reader {
+
+		private FSDataInputStream in;
+		private long end;
+		private byte[] sync;
+		private boolean more;
+
+		private int size;
+		private int next;
+		private int[] epochDays;
+		private int[] airlines;
+		private int[] origins;
+		private int[] dests;
+		private int[] depTimes;
+		private int[] arrTimes;
+		private int[] delays;
+		private byte[] flags;
+
+		private byte[] compressed;
+		private byte[] raw;
+		private DataInputBuffer buffer;
+		private Inflater inflater;
+
+		/**
+		 * @param in
+		 *            - closed by close
+		 * @param start
+		 *            - first byte of the split
+		 * @param end
+		 *            - end of the split, not after the end of the file
+		 * @throws IOException
+		 */
+		public Reader(FSDataInputStream in, long start, long end)
+				throws IOException {
+			this.in = in;
+			this.end = end;
+			compressed = new byte[4096];
+			raw = new byte[4096];
+			buffer = new DataInputBuffer();
+			inflater = new Inflater();
+			epochDays = new int[0];
+
+			in.seek(0);
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException("Not a columnar flight file");
+			int version = in.readByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported version " + version);
+			sync = new byte[SYNC_SIZE];
+			in.readFully(sync);
+
+			if (start > in.getPos())
+				more = seekSync(start);
+			else
+				more = in.getPos() < end;
+		}
+
+		/**
+		 * Read the next record
+		 *
+		 * @param record
+		 *            - filled with the columns of the next record
+		 * @return false at the end of the split
+		 * @throws IOException
+		 */
+		public boolean next(FlightRecord record) throws IOException {
+			while (next == size) {
+				if (!more)
+					return false;
+				readBlock();
+			}
+			int i = next++;
+			record.set(epochDays[i], airlines[i], origins[i], dests[i],
+					depTimes[i], arrTimes[i], delays[i], flags[i]);
+			return true;
+		}
+
+		/**
+		 * @return current position in the file
+		 * @throws IOException
+		 */
+		public long getPosition() throws IOException {
+			return in.getPos();
+		}
+
+		public void close() throws IOException {
+			inflater.end();
+			in.close();
+		}
+
+		private void readBlock() throws IOException {
+			byte[] marker = new byte[SYNC_SIZE];
+			in.readFully(marker);
+			if (!Arrays.equals(marker, sync))
+				throw new IOException("Corrupt block at " + (in.getPos() - SYNC_SIZE));
+			int rawLength = WritableUtils.readVInt(in);
+			int compressedLength = WritableUtils.readVInt(in);
+			if (compressed.length < compressedLength)
+				compressed = new byte[compressedLength];
+			if (raw.length < rawLength)
+				raw = new byte[rawLength];
+			in.readFully(compressed, 0, compressedLength);
+			inflater.reset();
+			inflater.setInput(compressed, 0, compressedLength);
+			try {
+				int read = 0;
+				while (read < rawLength && !inflater.finished())
+					read += inflater.inflate(raw, read, rawLength - read);
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			}
+			buffer.reset(raw, rawLength);
+
+			size = WritableUtils.readVInt(buffer);
+			next = 0;
+			if (epochDays.length < size) {
+				epochDays = new int[size];
+				airlines = new int[size];
+				origins = new int[size];
+				dests = new int[size];
+				depTimes = new int[size];
+				arrTimes = new int[size];
+				delays = new int[size];
+				flags = new byte[size];
+			}
+
+			int[] dictionary = new int[WritableUtils.readVInt(buffer)];
+			for (int i = 0; i < dictionary.length; i++)
+				dictionary[i] = WritableUtils.readVInt(buffer);
+			for (int i = 0; i < size; i++)
+				airlines[i] = dictionary[WritableUtils.readVInt(buffer)];
+			int minDay = WritableUtils.readVInt(buffer);
+			readColumn(epochDays, minDay);
+			readColumn(origins, 0);
+			readColumn(dests, 0);
+			readColumn(depTimes, FlightRecord.MISSING);
+			readColumn(arrTimes, FlightRecord.MISSING);
+			readColumn(delays, 0);
+			buffer.readFully(flags, 0, size);
+
+			more = in.getPos() < end;
+		}
+
+		private void readColumn(int[] values, int base) throws IOException {
+			for (int i = 0; i < size; i++)
+				values[i] = WritableUtils.readVInt(buffer) + base;
+		}
+
+		/**
+		 * Move to the first sync marker starting in [start, end)
+		 *
+		 * @return false if there is none
+		 */
+		private boolean seekSync(long start) throws IOException {
+			in.seek(start);
+			byte[] window = new byte[SYNC_SIZE];
+			try {
+				in.readFully(window);
+				// window[head] is the byte at position pos
+				int head = 0;
+				for (long pos = start; pos < end; pos++) {
+					int i = 0;
+					while (i < SYNC_SIZE
+							&& window[(head + i) % SYNC_SIZE] == sync[i])
+						i++;
+					if (i == SYNC_SIZE) {
+						in.seek(pos);
+						return true;
+					}
+					window[head] = in.readByte();
+					head = (head + 1) % SYNC_SIZE;
+				}
+			} catch (EOFException e) {
+				return false;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Read files of ColumnarFlightFile as <b>(null, FlightRecord)</b>.
+ * <p>
+ * Files are split like text files, each split reads the blocks which start
+ * in it. The FlightRecord is reused between records.
+ * <p>
+ * The flight jobs read this format instead of the csv when
+ * <code>flight.input.format=columnar</code>.
+ * @author Peili Cao
+ *
+ */
+public class ColumnarFlightInputFormat extends
+		FileInputFormat<NullWritable, FlightRecord> {
+
+	public static final String INPUT_FORMAT = "flight.input.format";
+
+	/**
+	 * @param conf
+	 * @return true if the jobs should read columnar files instead of csv
+	 */
+	public static boolean isColumnar(Configuration conf) {
+		return "columnar".equals(conf.get(INPUT_FORMAT, "csv"));
+	}
+
+	@Override
+	public RecordReader<NullWritable, FlightRecord> createRecordReader(
+			InputSplit split, TaskAttemptContext context) {
+		return new ColumnarFlightRecordReader();
+	}
+
+	/**
+	 * Record reader over one split
+	 */
+	public static class ColumnarFlightRecordReader extends
+			RecordReader<NullWritable, FlightRecord> {
+
+		private ColumnarFlightFile.Reader reader;
+		private FlightRecord record;
+		private long start;
+		private long end;
+
+		@Override
+		public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+				throws IOException {
+			FileSplit split = (FileSplit) genericSplit;
+			Path path = split.getPath();
+			FileSystem fs = path.getFileSystem(context.getConfiguration());
+			start = split.getStart();
+			end = start + split.getLength();
+			reader = new ColumnarFlightFile.Reader(fs.open(path), start, end);
+			record = new FlightRecord();
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException {
+			return reader.next(record);
+		}
+
+		@Override
+		public NullWritable getCurrentKey() {
+			return NullWritable.get();
+		}
+
+		@Override
+		public FlightRecord getCurrentValue() {
+			return record;
+		}
+
+		@Override
+		public float getProgress() throws IOException {
+			if (end == start)
+				return 0.0f;
+			return Math.min(1.0f, (reader.getPosition() - start)
+					/ (float) (end - start));
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (reader != null)
+				reader.close();
+		}
+	}
+}
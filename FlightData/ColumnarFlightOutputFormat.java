@@ -0,0 +1,46 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Write <b>(null, FlightRecord)</b> into files of ColumnarFlightFile.
+ * <p>
+ * <code>flight.columnar.blockRecords</code> - number of records of one block,
+ * default 65536
+ * @author Peili Cao
+ *
+ */
+public class ColumnarFlightOutputFormat extends
+		FileOutputFormat<NullWritable, FlightRecord> {
+
+	public static final String BLOCK_RECORDS = "flight.columnar.blockRecords";
+
+	@Override
+	public RecordWriter<NullWritable, FlightRecord> getRecordWriter(
+			TaskAttemptContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		Path file = getDefaultWorkFile(context, ColumnarFlightFile.EXTENSION);
+		FileSystem fs = file.getFileSystem(conf);
+		final ColumnarFlightFile.Writer writer = new ColumnarFlightFile.Writer(
+				fs.create(file, false), conf.getInt(BLOCK_RECORDS, 65536));
+		return new RecordWriter<NullWritable, FlightRecord>() {
+
+			@Override
+			public void write(NullWritable key, FlightRecord value)
+					throws IOException {
+				writer.append(value);
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				writer.close();
+			}
+		};
+	}
+}
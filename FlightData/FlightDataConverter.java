@@ -0,0 +1,115 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import localengine.ParallelJobRunner;
+
+/**
+ * One time conversion of the on-time csv into ColumnarFlightFile.
+ * <p>
+ * Map only job. Each line is parsed once here, and only the columns used by
+ * FlightMonDelayPattern and FlightPairFinder are kept as typed values, so
+ * later jobs read a few bytes per flight and never parse csv again. Lines
+ * which are not flights (e.g. headers) are skipped and counted.
+ * <p>
+ * Flights are laid out by FlightPartitions, one folder per month:
+ * <code>&lt;out&gt;/year=2008/month=01/part-m-00000.flc</code>, so jobs
+ * reading a few months never open the files of the other months.
+ * <p>
+ * Usage: <code>convert &lt;csv in&gt; &lt;columnar out&gt;</code><br>
+ * then run the jobs with <code>-D flight.input.format=columnar</code> on the
+ * output folder.
+ * @author Peili Cao
+ *
+ */
+public class FlightDataConverter {
+
+	public static final String COUNTER_GROUP = "Convert";
+	public static final String CONVERTED = "Converted";
+	public static final String SKIPPED = "Skipped";
+
+	/**
+	 * Parse csv lines into FlightRecord
+	 */
+	public static class ConvertMapper extends
+			Mapper<Object, Text, NullWritable, FlightRecord> {
+
+		private static final int FIRST_YEAR = 1980;
+
+		private FlightRecordParser parser;
+		private FlightRecord record;
+		private MultipleOutputs<NullWritable, FlightRecord> outputs;
+		// File name of each month, index (year - FIRST_YEAR) * 12 + month - 1
+		private String[] partitions;
+
+		protected void setup(Context context) {
+			parser = new FlightRecordParser();
+			record = new FlightRecord();
+			outputs = new MultipleOutputs<NullWritable, FlightRecord>(context);
+			partitions = new String[100 * 12];
+		}
+
+		public void map(Object key, Text value, Context context)
+				throws IOException, InterruptedException {
+			if (!parser.parse(value, record)) {
+				context.getCounter(COUNTER_GROUP, SKIPPED).increment(1);
+				return;
+			}
+			outputs.write(NullWritable.get(), record, partitionFile(record));
+			context.getCounter(COUNTER_GROUP, CONVERTED).increment(1);
+		}
+
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			outputs.close();
+		}
+
+		/**
+		 * @return base name of the output file of the record's month
+		 */
+		private String partitionFile(FlightRecord record) {
+			int index = (record.getYear() - FIRST_YEAR) * 12
+					+ record.getMonth() - 1;
+			if (index < 0 || index >= partitions.length)
+				return FlightPartitions.partitionPath(record.getYear(),
+						record.getMonth()) + "/part";
+			if (partitions[index] == null)
+				partitions[index] = FlightPartitions.partitionPath(
+						record.getYear(), record.getMonth()) + "/part";
+			return partitions[index];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args)
+				.getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: convert <in> <out>");
+			System.exit(2);
+		}
+		Job job = new Job(conf, "Flight Data Convert");
+		job.setJarByClass(FlightDataConverter.class);
+		job.setMapperClass(ConvertMapper.class);
+		job.setNumReduceTasks(0);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(FlightRecord.class);
+		//Only the month folders get files, no empty default output
+		LazyOutputFormat.setOutputFormatClass(job,
+				ColumnarFlightOutputFormat.class);
+
+		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+		System.exit(new ParallelJobRunner(job).waitForCompletion(true) ? 0 : 1);
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Year/month partitioned layout of flight data.
+ * <p>
+ * FlightDataConverter writes each flight under
+ * <code>&lt;out&gt;/year=2008/month=01/</code>. Before a job starts, the
+ * driver only adds the month folders inside the months the job reads, so
+ * splits and tasks are never created for the other months. A path filter on
+ * the same range drops files of other months when the input is given as a
+ * glob.<br>
+ * Input which is not partitioned (e.g. the raw csv) is added as it is.
+ * <p>
+ * <code>flight.partition.months</code> - range read by the job, e.g.
+ * <code>200706-200805</code>
+ * @author Peili Cao
+ *
+ */
+public class FlightPartitions {
+
+	public static final String MONTHS = "flight.partition.months";
+
+	private static final String YEAR_PREFIX = "year=";
+	private static final String MONTH_PREFIX = "month=";
+
+	private FlightPartitions() {
+	}
+
+	/**
+	 * @param year
+	 * @param month
+	 *            - 1 to 12
+	 * @return folder of the partition relative to the root, e.g.
+	 *         "year=2008/month=01"
+	 */
+	public static String partitionPath(int year, int month) {
+		return YEAR_PREFIX + year + Path.SEPARATOR + MONTH_PREFIX
+				+ (month < 10 ? "0" : "") + month;
+	}
+
+	/**
+	 * Find the partition of a month folder or of a file in it
+	 *
+	 * @param path
+	 * @return yyyyMM, -1 if the path is not in a partition
+	 */
+	public static int partitionOf(Path path) {
+		for (Path p = path; p != null && p.getParent() != null; p = p
+				.getParent()) {
+			String name = p.getName();
+			String parent = p.getParent().getName();
+			if (name.startsWith(MONTH_PREFIX) && parent.startsWith(YEAR_PREFIX)) {
+				try {
+					return Integer.parseInt(parent.substring(YEAR_PREFIX
+							.length()))
+							* 100
+							+ Integer.parseInt(name.substring(MONTH_PREFIX
+									.length()));
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the input of a job, pruned to the months in [from, to]
+	 *
+	 * @param job
+	 * @param input
+	 *            - root of the partitioned layout, or any other input
+	 * @param from
+	 *            - first month, yyyyMM
+	 * @param to
+	 *            - last month, yyyyMM
+	 * @return number of month folders added, -1 if the input is not
+	 *         partitioned and was added as it is
+	 * @throws IOException
+	 */
+	public static int addInputPaths(Job job, Path input, int from, int to)
+			throws IOException {
+		job.getConfiguration().set(MONTHS, from + "-" + to);
+		FileInputFormat.setInputPathFilter(job, MonthFilter.class);
+
+		FileSystem fs = input.getFileSystem(job.getConfiguration());
+		if (!fs.exists(input) || !fs.getFileStatus(input).isDir()) {
+			FileInputFormat.addInputPath(job, input);
+			return -1;
+		}
+		boolean partitioned = false;
+		int added = 0;
+		for (FileStatus year : fs.listStatus(input)) {
+			String name = year.getPath().getName();
+			if (!year.isDir() || !name.startsWith(YEAR_PREFIX))
+				continue;
+			partitioned = true;
+			int y;
+			try {
+				y = Integer.parseInt(name.substring(YEAR_PREFIX.length()));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			// Whole years outside the range are not listed
+			if (y < from / 100 || y > to / 100)
+				continue;
+			for (FileStatus month : fs.listStatus(year.getPath())) {
+				int partition = partitionOf(month.getPath());
+				if (month.isDir() && partition >= from && partition <= to) {
+					FileInputFormat.addInputPath(job, month.getPath());
+					added++;
+				}
+			}
+		}
+		if (!partitioned) {
+			FileInputFormat.addInputPath(job, input);
+			return -1;
+		}
+		return added;
+	}
+
+	/**
+	 * Accept paths which are not in a partition, or in a partition inside
+	 * <code>flight.partition.months</code>
+	 */
+	public static class MonthFilter implements PathFilter, Configurable {
+
+		private Configuration conf;
+		private int from;
+		private int to;
+
+		@Override
+		public void setConf(Configuration conf) {
+			this.conf = conf;
+			String[] range = conf.get(MONTHS, "0-999999").split("-");
+			from = Integer.parseInt(range[0].trim());
+			to = Integer.parseInt(range[1].trim());
+		}
+
+		@Override
+		public Configuration getConf() {
+			return conf;
+		}
+
+		@Override
+		public boolean accept(Path path) {
+			int partition = partitionOf(path);
+			return partition < 0 || (partition >= from && partition <= to);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Typed record of one flight, holding only the columns used by the flight
+ * jobs.
+ * <p>
+ * flightdate: days since 1970-01-01, year, month and day of week are derived
+ * from it<br>
+ * airline: AirlineID<br>
+ * origin, dest: ids of AirportCodes<br>
+ * depTime, arrTime: minutes of day, MISSING if empty<br>
+ * arrDelay: kept as cents so it is exact, MISSING_DELAY if empty<br>
+ * cancelled, diverted: true unless the csv column is "0.00"
+ * @author Peili Cao
+ *
+ */
+public class FlightRecord implements Writable {
+
+	public static final int MISSING = -1;
+	public static final int MISSING_DELAY = Integer.MIN_VALUE;
+
+	private static final int CANCELLED_FLAG = 1;
+	private static final int DIVERTED_FLAG = 2;
+
+	private int epochDay;
+	private int year;
+	private int month;
+	private int airline;
+	private int origin;
+	private int dest;
+	private int depTime;
+	private int arrTime;
+	private int arrDelayCents;
+	private int flags;
+
+	/**
+	 * Set all columns
+	 *
+	 * @param epochDay
+	 * @param airline
+	 * @param origin
+	 * @param dest
+	 * @param depTime
+	 * @param arrTime
+	 * @param arrDelayCents
+	 * @param flags
+	 *            - bits of cancelled and diverted, see getFlags
+	 */
+	public void set(int epochDay, int airline, int origin, int dest,
+			int depTime, int arrTime, int arrDelayCents, int flags) {
+		setEpochDay(epochDay);
+		this.airline = airline;
+		this.origin = origin;
+		this.dest = dest;
+		this.depTime = depTime;
+		this.arrTime = arrTime;
+		this.arrDelayCents = arrDelayCents;
+		this.flags = flags;
+	}
+
+	public void setCancelled(boolean cancelled) {
+		flags = cancelled ? flags | CANCELLED_FLAG : flags & ~CANCELLED_FLAG;
+	}
+
+	public void setDiverted(boolean diverted) {
+		flags = diverted ? flags | DIVERTED_FLAG : flags & ~DIVERTED_FLAG;
+	}
+
+	public int getEpochDay() {
+		return epochDay;
+	}
+
+	public int getYear() {
+		return year;
+	}
+
+	/**
+	 * @return 1 to 12
+	 */
+	public int getMonth() {
+		return month;
+	}
+
+	/**
+	 * @return 1 (Monday) to 7 (Sunday), same as the DayOfWeek column
+	 */
+	public int getDayOfWeek() {
+		// 1970-01-01 is a Thursday
+		return ((epochDay + 3) % 7 + 7) % 7 + 1;
+	}
+
+	public int getAirline() {
+		return airline;
+	}
+
+	public int getOrigin() {
+		return origin;
+	}
+
+	public int getDest() {
+		return dest;
+	}
+
+	public int getDepTime() {
+		return depTime;
+	}
+
+	public int getArrTime() {
+		return arrTime;
+	}
+
+	public boolean hasArrDelay() {
+		return arrDelayCents != MISSING_DELAY;
+	}
+
+	public int getArrDelayCents() {
+		return arrDelayCents;
+	}
+
+	/**
+	 * @return arrival delay in minutes
+	 */
+	public double getArrDelay() {
+		return arrDelayCents / 100.0;
+	}
+
+	public boolean isCancelled() {
+		return (flags & CANCELLED_FLAG) != 0;
+	}
+
+	public boolean isDiverted() {
+		return (flags & DIVERTED_FLAG) != 0;
+	}
+
+	/**
+	 * @return bit 0: cancelled, bit 1: diverted
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, epochDay);
+		WritableUtils.writeVInt(out, airline);
+		WritableUtils.writeVInt(out, origin);
+		WritableUtils.writeVInt(out, dest);
+		WritableUtils.writeVInt(out, depTime);
+		WritableUtils.writeVInt(out, arrTime);
+		WritableUtils.writeVInt(out, arrDelayCents);
+		out.writeByte(flags);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		setEpochDay(WritableUtils.readVInt(in));
+		airline = WritableUtils.readVInt(in);
+		origin = WritableUtils.readVInt(in);
+		dest = WritableUtils.readVInt(in);
+		depTime = WritableUtils.readVInt(in);
+		arrTime = WritableUtils.readVInt(in);
+		arrDelayCents = WritableUtils.readVInt(in);
+		flags = in.readByte();
+	}
+
+	@Override
+	public String toString() {
+		return year + "-" + month + "," + airline + ","
+				+ AirportCodes.decode(origin) + "," + AirportCodes.decode(dest)
+				+ "," + depTime + "," + arrTime + ","
+				+ (hasArrDelay() ? getArrDelay() : "") + "," + flags;
+	}
+
+	// Helper functions
+
+	/**
+	 * Set the date and derive year and month, inverse of
+	 * CSVFieldExtractor.epochDay
+	 */
+	private void setEpochDay(int days) {
+		if (days == epochDay && year != 0)
+			return;
+		epochDay = days;
+		int z = days + 719468;
+		int era = (z >= 0 ? z : z - 146096) / 146097;
+		int doe = z - era * 146097;
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		month = mp < 10 ? mp + 3 : mp - 9;
+		year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+	}
+}
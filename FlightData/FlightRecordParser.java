@@ -0,0 +1,74 @@
+import org.apache.hadoop.io.Text;
+
+/**
+ * Parse one line of on-time csv into a FlightRecord.
+ * <p>
+ * Used by FlightDataConverter, and by jobs which read csv and columnar input
+ * through the same code, so both see the same typed values.
+ * @author Peili Cao
+ *
+ */
+public class FlightRecordParser {
+
+	/**
+	 * line[5]: flightdate, line[7]: airline, line[11]: origin
+	 * line[17]: dest, line[24]: depTime, line[35]: arrTime
+	 * line[37]: arrDelayMins, line[41]: cancelled, line[43]: diverted
+	 */
+	static final int FLIGHTDATE = 5;
+	static final int AIRLINE = 7;
+	static final int ORIGIN = 11;
+	static final int DEST = 17;
+	static final int DEP_TIME = 24;
+	static final int ARR_TIME = 35;
+	static final int ARR_DELAY = 37;
+	static final int CANCELLED = 41;
+	static final int DIVERTED = 43;
+
+	private static final byte[] ZERO = "0.00".getBytes();
+
+	private CSVFieldExtractor parser;
+
+	public FlightRecordParser() {
+		parser = new CSVFieldExtractor(FLIGHTDATE, AIRLINE, ORIGIN, DEST,
+				DEP_TIME, ARR_TIME, ARR_DELAY, CANCELLED, DIVERTED);
+	}
+
+	/**
+	 * Parse one line
+	 *
+	 * @param value
+	 *            - one line of csv
+	 * @param record
+	 *            - set to the flight of the line
+	 * @return false if the line is not a flight (e.g. header), record is not
+	 *         changed then
+	 */
+	public boolean parse(Text value, FlightRecord record) {
+		if (parser.parse(value) < 56)
+			return false;
+		try {
+			record.set(parser.getEpochDay(FLIGHTDATE),
+					parser.getInt(AIRLINE),
+					parser.getAirport(ORIGIN),
+					parser.getAirport(DEST),
+					minutesOrMissing(DEP_TIME),
+					minutesOrMissing(ARR_TIME),
+					parser.length(ARR_DELAY) > 0 ? (int) Math.round(parser
+							.getDecimal(ARR_DELAY) * 100)
+							: FlightRecord.MISSING_DELAY, 0);
+		} catch (IllegalArgumentException e) {
+			// Header line or broken record
+			return false;
+		}
+		record.setCancelled(!parser.equals(CANCELLED, ZERO));
+		record.setDiverted(!parser.equals(DIVERTED, ZERO));
+		return true;
+	}
+
+	private int minutesOrMissing(int col) {
+		if (parser.length(col) <= 0)
+			return FlightRecord.MISSING;
+		return parser.getMinuteOfDay(col);
+	}
+}
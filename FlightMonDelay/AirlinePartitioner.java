@@ -0,0 +1,123 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioning records only consider airline, so one airline never spreads
+ * over several reducers unless the plan splits it on purpose.
+ * <p>
+ * The plan is created by AirlineSampler before the job starts and is passed
+ * through configuration <code>flight.partition.plan</code>:<br>
+ * <code>airline:p;airline:p1,p2,...,p12;...</code><br>
+ * An airline either goes to one reducer, or big airlines list the reducer of
+ * each month (sub-partitions by month range). Rows of split airlines are
+ * merged by the driver after the job. Airlines missing from the plan are
+ * partitioned by hash of airline, and so are all airlines if the plan names
+ * a reducer the job does not have.
+ * @author Peili Cao
+ *
+ */
+public class AirlinePartitioner extends Partitioner<ImmeKey, DelayAggregate>
+		implements Configurable {
+
+	public static final String PLAN = "flight.partition.plan";
+
+	private Configuration conf;
+	private Map<Integer, int[]> plan;
+	// Highest reducer in the plan
+	private int maxPartition;
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		plan = parsePlan(conf.get(PLAN, ""));
+		maxPartition = -1;
+		for (int[] months : plan.values()) {
+			for (int m = 1; m <= 12; m++)
+				maxPartition = Math.max(maxPartition, months[m]);
+		}
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public int getPartition(ImmeKey key, DelayAggregate value,
+			int numPartitions) {
+		int airline = key.getAirline().get();
+		int[] months = plan.get(airline);
+		// The plan was made for more reducers, do not split airlines
+		if (months == null || maxPartition >= numPartitions)
+			return (airline & Integer.MAX_VALUE) % numPartitions;
+		return months[key.getMonth().get()];
+	}
+
+	/**
+	 * Convert plan to the string stored in configuration
+	 *
+	 * @param plan
+	 *            - airline to partition of each month (index 1-12)
+	 * @return
+	 */
+	public static String formatPlan(Map<Integer, int[]> plan) {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<Integer, int[]> entry : plan.entrySet()) {
+			int[] months = entry.getValue();
+			if (builder.length() > 0)
+				builder.append(";");
+			builder.append(entry.getKey());
+			builder.append(":");
+			if (isSplit(months)) {
+				for (int m = 1; m <= 12; m++) {
+					if (m > 1)
+						builder.append(",");
+					builder.append(months[m]);
+				}
+			} else {
+				builder.append(months[1]);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Parse the plan stored in configuration
+	 *
+	 * @param value
+	 * @return airline to partition of each month (index 1-12)
+	 */
+	public static Map<Integer, int[]> parsePlan(String value) {
+		Map<Integer, int[]> plan = new HashMap<Integer, int[]>();
+		if (value == null || value.trim().length() == 0)
+			return plan;
+		for (String item : value.split(";")) {
+			String[] pair = item.split(":");
+			String[] parts = pair[1].split(",");
+			int[] months = new int[13];
+			for (int m = 1; m <= 12; m++) {
+				months[m] = Integer.parseInt(parts.length == 1 ? parts[0]
+						: parts[m - 1]);
+			}
+			plan.put(Integer.parseInt(pair[0]), months);
+		}
+		return plan;
+	}
+
+	/**
+	 * @param months
+	 * @return true if the months of an airline go to more than one reducer
+	 */
+	public static boolean isSplit(int[] months) {
+		for (int m = 2; m <= 12; m++) {
+			if (months[m] != months[1])
+				return true;
+		}
+		return false;
+	}
+
+}
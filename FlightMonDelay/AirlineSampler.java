@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Sampling pre-pass of FlightMonDelayPattern.
+ * <p>
+ * Reads the first records of some input splits, counts qualifying flights of
+ * each (airline, month), then bin-packs airlines over reducers (largest
+ * first, to the least loaded reducer). An airline bigger than the fair share
+ * of one reducer is cut into month ranges, and each range is packed on its
+ * own.<br>
+ * Splits are read with the input format of the job, csv lines and
+ * FlightRecord are both counted.
+ * <p>
+ * <code>flight.sample.splits</code> - number of splits to sample<br>
+ * <code>flight.sample.records</code> - number of records read per split
+ * @author Peili Cao
+ *
+ */
+public class AirlineSampler {
+
+	public static final String SAMPLE_SPLITS = "flight.sample.splits";
+	public static final String SAMPLE_RECORDS = "flight.sample.records";
+
+	/**
+	 * Sample input of the job and create the partition plan
+	 *
+	 * @param job
+	 *            - input paths and number of reducers must be already set
+	 * @return airline to partition of each month (index 1-12)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public static Map<Integer, int[]> createPlan(Job job) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		return createPlan(job, job.getNumReduceTasks());
+	}
+
+	/**
+	 * Sample input of the job and create the partition plan
+	 *
+	 * @param job
+	 *            - input paths must be already set
+	 * @param numReducers
+	 *            - reducers the job will really run with, see
+	 *            ParallelJobRunner.getNumReduceTasks
+	 * @return airline to partition of each month (index 1-12)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public static Map<Integer, int[]> createPlan(Job job, int numReducers)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		if (numReducers <= 1)
+			return new HashMap<Integer, int[]>();
+		Map<Integer, long[]> counts = sample(job);
+		return createPlan(counts, numReducers);
+	}
+
+	/**
+	 * Count qualifying flights of each (airline, month) in sampled records
+	 *
+	 * @param job
+	 * @return airline to counts of each month (index 1-12)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public static Map<Integer, long[]> sample(Job job) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		Configuration conf = job.getConfiguration();
+		int numSplits = conf.getInt(SAMPLE_SPLITS, 10);
+		int numRecords = conf.getInt(SAMPLE_RECORDS, 10000);
+
+		Map<Integer, long[]> counts = new HashMap<Integer, long[]>();
+		CSVFieldExtractor parser = new CSVFieldExtractor(FlightMapper.YEAR,
+				FlightMapper.MONTH, FlightMapper.AIRLINE,
+				FlightMapper.CANCELLED, FlightMapper.DIVERTED);
+		InputFormat<?, ?> format = ReflectionUtils.newInstance(
+				job.getInputFormatClass(), conf);
+		List<InputSplit> splits = format.getSplits(job);
+		if (splits.isEmpty())
+			return counts;
+
+		// Take splits evenly over the input
+		int step = Math.max(1, splits.size() / numSplits);
+		for (int i = 0; i < splits.size(); i += step) {
+			TaskAttemptContext context = new TaskAttemptContext(conf,
+					new TaskAttemptID());
+			RecordReader<?, ?> reader = format.createRecordReader(
+					splits.get(i), context);
+			reader.initialize(splits.get(i), context);
+			int read = 0;
+			while (read < numRecords && reader.nextKeyValue()) {
+				read++;
+				Object value = reader.getCurrentValue();
+				int airline;
+				int month;
+				if (value instanceof FlightRecord) {
+					FlightRecord record = (FlightRecord) value;
+					if (record.getYear() != 2008 || record.isCancelled()
+							|| record.isDiverted())
+						continue;
+					airline = record.getAirline();
+					month = record.getMonth();
+				} else {
+					if (parser.parse((Text) value) < 56)
+						continue;
+					if (!parser.equals(FlightMapper.YEAR, FlightMapper.YEAR_2008)
+							|| !parser.equals(FlightMapper.CANCELLED, FlightMapper.ZERO)
+							|| !parser.equals(FlightMapper.DIVERTED, FlightMapper.ZERO))
+						continue;
+					airline = parser.getInt(FlightMapper.AIRLINE);
+					month = parser.getInt(FlightMapper.MONTH);
+				}
+				if (month < 1 || month > 12)
+					continue;
+				long[] months = counts.get(airline);
+				if (months == null) {
+					months = new long[13];
+					counts.put(airline, months);
+				}
+				months[month]++;
+			}
+			reader.close();
+		}
+		return counts;
+	}
+
+	/**
+	 * Bin-pack airlines over reducers
+	 *
+	 * @param counts
+	 *            - airline to counts of each month (index 1-12)
+	 * @param numReducers
+	 * @return airline to partition of each month (index 1-12)
+	 */
+	public static Map<Integer, int[]> createPlan(Map<Integer, long[]> counts,
+			int numReducers) {
+		Map<Integer, int[]> plan = new HashMap<Integer, int[]>();
+		if (numReducers <= 1)
+			return plan;
+
+		long total = 0;
+		for (long[] months : counts.values())
+			total += sum(months, 1, 12);
+		long fairShare = Math.max(1, total / numReducers);
+
+		// Cut big airlines into month ranges of about fairShare records
+		List<Piece> pieces = new ArrayList<Piece>();
+		for (Map.Entry<Integer, long[]> entry : counts.entrySet()) {
+			long[] months = entry.getValue();
+			long size = sum(months, 1, 12);
+			if (size <= fairShare) {
+				pieces.add(new Piece(entry.getKey(), 1, 12, size));
+				continue;
+			}
+			int numRanges = (int) Math.min(numReducers,
+					(size + fairShare - 1) / fairShare);
+			long target = (size + numRanges - 1) / numRanges;
+			int from = 1;
+			long current = 0;
+			for (int m = 1; m <= 12; m++) {
+				current += months[m];
+				if ((current >= target && m < 12) || m == 12) {
+					pieces.add(new Piece(entry.getKey(), from, m, current));
+					from = m + 1;
+					current = 0;
+				}
+			}
+		}
+
+		// Largest piece first, to the least loaded reducer
+		Collections.sort(pieces);
+		long[] loads = new long[numReducers];
+		for (Piece piece : pieces) {
+			int[] months = plan.get(piece.airline);
+			if (months == null) {
+				months = new int[13];
+				Arrays.fill(months, -1);
+				plan.put(piece.airline, months);
+			}
+			int best = -1;
+			for (int r = 0; r < numReducers; r++) {
+				// Prefer reducers which have no other range of this airline
+				if (contains(months, r))
+					continue;
+				if (best == -1 || loads[r] < loads[best])
+					best = r;
+			}
+			if (best == -1) {
+				best = 0;
+				for (int r = 1; r < numReducers; r++) {
+					if (loads[r] < loads[best])
+						best = r;
+				}
+			}
+			loads[best] += piece.size;
+			for (int m = piece.from; m <= piece.to; m++)
+				months[m] = best;
+		}
+		return plan;
+	}
+
+	// Helper functions
+
+	private static long sum(long[] values, int from, int to) {
+		long result = 0;
+		for (int i = from; i <= to; i++)
+			result += values[i];
+		return result;
+	}
+
+	private static boolean contains(int[] months, int reducer) {
+		for (int m = 1; m <= 12; m++) {
+			if (months[m] == reducer)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Months [from, to] of one airline
+	 */
+	private static class Piece implements Comparable<Piece> {
+		int airline;
+		int from;
+		int to;
+		long size;
+
+		Piece(int airline, int from, int to, long size) {
+			this.airline = airline;
+			this.from = from;
+			this.to = to;
+			this.size = size;
+		}
+
+		@Override
+		public int compareTo(Piece other) {
+			// Size DESC
+			return size > other.size ? -1 : (size == other.size ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Dimensions a grouping set of DelayCube can use.
+ * <p>
+ * Each dimension has a fixed number of bits, so the values of a grouping set
+ * are packed into one long key (see GroupingSet). All dimensions together
+ * use 59 bits.
+ * @author Peili Cao
+ *
+ */
+public enum CubeDimension {
+
+	AIRLINE(20), MONTH(4), ORIGIN(16), DEST(16), DAYOFWEEK(3);
+
+	private final int bits;
+
+	private CubeDimension(int bits) {
+		this.bits = bits;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @param record
+	 * @return value of this dimension of the flight
+	 */
+	public int valueOf(FlightRecord record) {
+		switch (this) {
+		case AIRLINE:
+			return record.getAirline();
+		case MONTH:
+			return record.getMonth();
+		case ORIGIN:
+			return record.getOrigin();
+		case DEST:
+			return record.getDest();
+		default:
+			return record.getDayOfWeek();
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return value as written in the report, airports by their code
+	 */
+	public String format(int value) {
+		if (this == ORIGIN || this == DEST)
+			return AirportCodes.decode(value);
+		return Integer.toString(value);
+	}
+}
@@ -0,0 +1,75 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Partial aggregate of arrival delays<br>
+ * <b>(sumDelayMins, count)</b>
+ * <p>
+ * Partials of the same (airline, month) can be merged in any order, so they
+ * are used by the in-mapper combiner, the combiner and the reducer.
+ * @author Peili Cao
+ *
+ */
+public class DelayAggregate implements Writable {
+
+	private double sum;
+	private long count;
+
+	public double getSum() {
+		return sum;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void set(double sum, long count) {
+		this.sum = sum;
+		this.count = count;
+	}
+
+	/**
+	 * Add one delay
+	 * @param delayMins
+	 */
+	public void add(double delayMins) {
+		sum += delayMins;
+		count++;
+	}
+
+	/**
+	 * Merge another partial into this one
+	 * @param other
+	 */
+	public void merge(DelayAggregate other) {
+		sum += other.getSum();
+		count += other.getCount();
+	}
+
+	public void clear() {
+		sum = 0.0;
+		count = 0;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		sum = in.readDouble();
+		count = WritableUtils.readVLong(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeDouble(sum);
+		WritableUtils.writeVLong(out, count);
+	}
+
+	@Override
+	public String toString() {
+		return sum + " " + count;
+	}
+
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import localengine.ParallelJobRunner;
+
+/**
+ * Delay cube: average arrival delay of several grouping sets in one scan.
+ * <p>
+ * Each flight of the report year (no cancelled no diverted) is added to one
+ * key per grouping set, e.g. (airline, month), (origin, month),
+ * (origin, dest, month). Keys are packed in a long by GroupingSet, values are
+ * DelayAggregate, so partials are combined in mapper and by combiner like
+ * FlightMonDelayPattern.
+ * <p>
+ * Reduce output: one folder per grouping set, written by MultipleOutputs:<br>
+ * <code>&lt;out&gt;/origin_month/part-r-00000</code>:
+ * <b>dimensions..., count, avgDelay</b>, avgDelay in whole minutes rounded up
+ * <p>
+ * <code>flight.cube.sets</code> - grouping sets, default
+ * <code>airline,month;origin,month;origin,dest,month;dayofweek</code><br>
+ * <code>flight.report.year</code> - default 2008<br>
+ * Input may be csv or columnar (<code>flight.input.format</code>).
+ * @author Peili Cao
+ *
+ */
+public class DelayCube {
+
+	public static final String SETS = "flight.cube.sets";
+	public static final String DEFAULT_SETS = "airline,month;origin,month;origin,dest,month;dayofweek";
+
+	/**
+	 * Emit partial (sum, count) of every grouping set. Takes csv lines or
+	 * FlightRecord.
+	 */
+	public static class CubeMapper extends
+			Mapper<Object, Writable, LongWritable, DelayAggregate> {
+
+		private FlightRecordParser parser;
+		private FlightRecord parsed;
+		private List<GroupingSet> sets;
+		private int year;
+		private LongWritable probe;
+		private Map<LongWritable, DelayAggregate> partials;
+		private int maxEntries;
+
+		protected void setup(Context context) {
+			Configuration conf = context.getConfiguration();
+			parser = new FlightRecordParser();
+			parsed = new FlightRecord();
+			sets = GroupingSet.parse(conf.get(SETS, DEFAULT_SETS));
+			year = conf.getInt(IncrementalDelayPattern.REPORT_YEAR, 2008);
+			probe = new LongWritable();
+			partials = new HashMap<LongWritable, DelayAggregate>();
+			maxEntries = conf.getInt(FlightMapper.MAX_ENTRIES, 10000);
+		}
+
+		public void map(Object key, Writable value, Context context)
+				throws IOException, InterruptedException {
+			FlightRecord record;
+			if (value instanceof FlightRecord) {
+				record = (FlightRecord) value;
+			} else {
+				if (!parser.parse((Text) value, parsed))
+					return;
+				record = parsed;
+			}
+			if (record.getYear() != year || record.isCancelled()
+					|| record.isDiverted() || !record.hasArrDelay())
+				return;
+
+			double delay = record.getArrDelay();
+			for (GroupingSet set : sets) {
+				probe.set(set.pack(record));
+				DelayAggregate partial = partials.get(probe);
+				if (partial == null) {
+					if (partials.size() >= maxEntries)
+						flush(context);
+					partial = new DelayAggregate();
+					partials.put(new LongWritable(probe.get()), partial);
+				}
+				partial.add(delay);
+			}
+		}
+
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			flush(context);
+		}
+
+		/**
+		 * Emit all partials and clear the map
+		 */
+		private void flush(Context context) throws IOException,
+				InterruptedException {
+			for (Map.Entry<LongWritable, DelayAggregate> entry : partials
+					.entrySet()) {
+				context.write(entry.getKey(), entry.getValue());
+			}
+			partials.clear();
+		}
+	}
+
+	/**
+	 * Merge partials of one key and write the row to the folder of its
+	 * grouping set
+	 */
+	public static class CubeReducer extends
+			Reducer<LongWritable, DelayAggregate, Text, Text> {
+
+		private List<GroupingSet> sets;
+		private String[] outputs;
+		private MultipleOutputs<Text, Text> multipleOutputs;
+		private DelayAggregate total;
+		private Text dimensions;
+		private Text result;
+
+		protected void setup(Context context) {
+			sets = GroupingSet.parse(context.getConfiguration().get(SETS,
+					DEFAULT_SETS));
+			outputs = new String[sets.size()];
+			for (GroupingSet set : sets)
+				outputs[set.getId()] = set.getName() + "/part";
+			multipleOutputs = new MultipleOutputs<Text, Text>(context);
+			total = new DelayAggregate();
+			dimensions = new Text();
+			result = new Text();
+		}
+
+		@Override
+		public void reduce(LongWritable key, Iterable<DelayAggregate> values,
+				Context context) throws IOException, InterruptedException {
+			total.clear();
+			for (DelayAggregate val : values) {
+				total.merge(val);
+			}
+			int id = GroupingSet.idOf(key.get());
+			dimensions.set(sets.get(id).format(key.get()));
+			// Rounded up like the rows of FlightMonDelayPattern
+			result.set(total.getCount() + "\t"
+					+ (int) Math.ceil(total.getSum() / total.getCount()));
+			multipleOutputs.write(dimensions, result, outputs[id]);
+		}
+
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			multipleOutputs.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args)
+				.getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: cube <in> <out>");
+			System.exit(2);
+		}
+		// Fail before the job starts if the sets are invalid
+		GroupingSet.parse(conf.get(SETS, DEFAULT_SETS));
+		int year = conf.getInt(IncrementalDelayPattern.REPORT_YEAR, 2008);
+
+		Job job = new Job(conf, "Flights Delay Cube");
+		job.setJarByClass(DelayCube.class);
+		if (ColumnarFlightInputFormat.isColumnar(conf))
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+		job.setMapperClass(CubeMapper.class);
+		job.setCombinerClass(IncrementalDelayPattern.PartialReducer.class);
+		job.setReducerClass(CubeReducer.class);
+		job.setMapOutputKeyClass(LongWritable.class);
+		job.setMapOutputValueClass(DelayAggregate.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+		job.setNumReduceTasks(10);
+		//All rows go to the folders of the grouping sets
+		LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+
+		if (FlightPartitions.addInputPaths(job, new Path(otherArgs[0]),
+				year * 100 + 1, year * 100 + 12) == 0) {
+			System.err.println("No partition of " + year + " in "
+					+ otherArgs[0]);
+			System.exit(2);
+		}
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+		System.exit(new ParallelJobRunner(job).waitForCompletion(true) ? 0 : 1);
+	}
+}
@@ -0,0 +1,59 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * DelayAggregate with a DelaySketch of the same delays, used when
+ * <code>flight.delay.percentiles=true</code>.<br>
+ * <b>(sumDelayMins, count, sketch)</b>
+ * <p>
+ * Adds and merges update both parts, so the in-mapper combiner, the combiner
+ * and the reducer work on it unchanged.
+ * @author Peili Cao
+ *
+ */
+public class DelayDistribution extends DelayAggregate {
+
+	private DelaySketch sketch = new DelaySketch();
+
+	public DelaySketch getSketch() {
+		return sketch;
+	}
+
+	@Override
+	public void add(double delayMins) {
+		super.add(delayMins);
+		sketch.add(delayMins);
+	}
+
+	@Override
+	public void merge(DelayAggregate other) {
+		super.merge(other);
+		if (other instanceof DelayDistribution)
+			sketch.merge(((DelayDistribution) other).sketch);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		sketch.clear();
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		super.readFields(in);
+		sketch.readFields(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		sketch.write(out);
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " " + sketch;
+	}
+
+}
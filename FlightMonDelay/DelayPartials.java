@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * In-mapper combine of (airline, month) partials, shared by FlightMapper and
+ * FlightRecordMapper.
+ * <p>
+ * Partials are kept in a hashmap and emitted at flush, or earlier when the
+ * map holds more than <code>flight.combine.maxEntries</code> keys.
+ * @author Peili Cao
+ *
+ */
+public class DelayPartials {
+
+	private ImmeKey imkey;
+	private IntWritable month;
+	private IntWritable airline;
+	private Map<ImmeKey, DelayAggregate> partials;
+	private int maxEntries;
+	private Class<? extends DelayAggregate> valueClass;
+
+	/**
+	 * @param maxEntries
+	 *            - number of keys kept before the map is flushed
+	 * @param valueClass
+	 *            - DelayAggregate, or DelayDistribution with percentiles
+	 */
+	public DelayPartials(int maxEntries,
+			Class<? extends DelayAggregate> valueClass) {
+		imkey = new ImmeKey();
+		month = new IntWritable();
+		airline = new IntWritable();
+		imkey.set(airline, month);
+		partials = new HashMap<ImmeKey, DelayAggregate>();
+		this.maxEntries = maxEntries;
+		this.valueClass = valueClass;
+	}
+
+	/**
+	 * Add one delay to the partial of (airline, month)
+	 */
+	public void add(int airlineId, int monthOfYear, double delayMins,
+			TaskInputOutputContext<?, ?, ImmeKey, DelayAggregate> context)
+			throws IOException, InterruptedException {
+		month.set(monthOfYear);
+		airline.set(airlineId);
+		DelayAggregate partial = partials.get(imkey);
+		if (partial == null) {
+			if (partials.size() >= maxEntries)
+				flush(context);
+			// imkey is reused, store a copy in the map
+			ImmeKey stored = new ImmeKey();
+			stored.set(new IntWritable(airlineId), new IntWritable(monthOfYear));
+			partial = ReflectionUtils.newInstance(valueClass, null);
+			partials.put(stored, partial);
+		}
+		partial.add(delayMins);
+	}
+
+	/**
+	 * Emit all partials and clear the map
+	 */
+	public void flush(
+			TaskInputOutputContext<?, ?, ImmeKey, DelayAggregate> context)
+			throws IOException, InterruptedException {
+		for (Map.Entry<ImmeKey, DelayAggregate> entry : partials.entrySet()) {
+			context.write(entry.getKey(), entry.getValue());
+		}
+		partials.clear();
+	}
+}
@@ -0,0 +1,219 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Mergeable quantile sketch of arrival delays (DDSketch style).
+ * <p>
+ * A delay x is counted in the bucket ceil(log(|x|) / log(gamma)), one set of
+ * buckets for positive and one for negative delays, and a counter for 0.
+ * Every value of a bucket is within 1% of the bucket's value, so any
+ * quantile is returned with 1% relative error. Two sketches are merged by
+ * adding their bucket counts, so the result does not depend on how flights
+ * were split between mappers.
+ * <p>
+ * Memory is bounded: at most MAX_BUCKETS buckets per sign are kept, if the
+ * range grows beyond that the smallest buckets are collapsed into one. For
+ * delays in minutes that only happens below 1 minute.
+ * @author Peili Cao
+ *
+ */
+public class DelaySketch implements Writable {
+
+	public static final double RELATIVE_ACCURACY = 0.01;
+	public static final int MAX_BUCKETS = 1024;
+
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY)
+			/ (1 - RELATIVE_ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	// Smaller magnitudes are counted as 0
+	private static final double MIN_VALUE = 1e-3;
+
+	private Buckets positive = new Buckets();
+	private Buckets negative = new Buckets();
+	private long zeroCount;
+
+	/**
+	 * Add one delay
+	 * @param delayMins
+	 */
+	public void add(double delayMins) {
+		if (delayMins >= MIN_VALUE)
+			positive.add(indexOf(delayMins), 1);
+		else if (delayMins <= -MIN_VALUE)
+			negative.add(indexOf(-delayMins), 1);
+		else
+			zeroCount++;
+	}
+
+	/**
+	 * Merge another sketch into this one
+	 * @param other
+	 */
+	public void merge(DelaySketch other) {
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+	}
+
+	public void clear() {
+		positive.clear();
+		negative.clear();
+		zeroCount = 0;
+	}
+
+	public long getCount() {
+		return positive.total + negative.total + zeroCount;
+	}
+
+	/**
+	 * @param q
+	 *            - 0 to 1, e.g. 0.9 for p90
+	 * @return estimated q-quantile, NaN if the sketch is empty
+	 */
+	public double quantile(double q) {
+		long count = getCount();
+		if (count == 0)
+			return Double.NaN;
+		long rank = (long) (q * (count - 1));
+
+		// Most negative first: negative buckets from the largest magnitude
+		long seen = 0;
+		for (int i = negative.counts.length - 1; i >= 0; i--) {
+			seen += negative.counts[i];
+			if (seen > rank)
+				return -valueOf(negative.offset + i);
+		}
+		seen += zeroCount;
+		if (seen > rank)
+			return 0.0;
+		for (int i = 0; i < positive.counts.length; i++) {
+			seen += positive.counts[i];
+			if (seen > rank)
+				return valueOf(positive.offset + i);
+		}
+		return valueOf(positive.offset + positive.counts.length - 1);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		zeroCount = WritableUtils.readVLong(in);
+		positive.readFields(in);
+		negative.readFields(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, zeroCount);
+		positive.write(out);
+		negative.write(out);
+	}
+
+	@Override
+	public String toString() {
+		return quantile(0.5) + " " + quantile(0.9) + " " + quantile(0.99);
+	}
+
+	// Helper functions
+
+	private static int indexOf(double magnitude) {
+		return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+	}
+
+	/**
+	 * @return value in the middle (relative) of bucket index
+	 */
+	private static double valueOf(int index) {
+		return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+	}
+
+	/**
+	 * Counts of a contiguous range of bucket indexes
+	 */
+	private static class Buckets {
+		// counts[i] is the count of bucket offset + i
+		long[] counts = new long[0];
+		int offset;
+		long total;
+
+		void add(int index, long count) {
+			if (counts.length == 0) {
+				counts = new long[16];
+				offset = index - 8;
+			}
+			if (index < offset || index >= offset + counts.length)
+				grow(index);
+			if (index < offset) {
+				// Collapsed into the smallest kept bucket
+				index = offset;
+			}
+			counts[index - offset] += count;
+			total += count;
+		}
+
+		void merge(Buckets other) {
+			for (int i = 0; i < other.counts.length; i++) {
+				if (other.counts[i] != 0)
+					add(other.offset + i, other.counts[i]);
+			}
+		}
+
+		void clear() {
+			Arrays.fill(counts, 0);
+			total = 0;
+		}
+
+		/**
+		 * Make room for the index, keep at most MAX_BUCKETS buckets
+		 */
+		private void grow(int index) {
+			int low = Math.min(offset, index);
+			int high = Math.max(offset + counts.length - 1, index);
+			if (high - low + 1 > MAX_BUCKETS)
+				low = high - MAX_BUCKETS + 1;
+			int length = Math.min(MAX_BUCKETS, Math.max(counts.length * 2,
+					high - low + 1));
+			// Free room on the side which grew
+			int newOffset = index < offset ? high - length + 1 : low;
+			long[] grown = new long[length];
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0)
+					continue;
+				int target = Math.max(offset + i, newOffset) - newOffset;
+				grown[target] += counts[i];
+			}
+			counts = grown;
+			offset = newOffset;
+		}
+
+		void readFields(DataInput in) throws IOException {
+			int length = WritableUtils.readVInt(in);
+			offset = WritableUtils.readVInt(in);
+			if (counts.length != length)
+				counts = new long[length];
+			total = 0;
+			for (int i = 0; i < length; i++) {
+				counts[i] = WritableUtils.readVLong(in);
+				total += counts[i];
+			}
+		}
+
+		void write(DataOutput out) throws IOException {
+			// Only the range of non empty buckets
+			int first = 0;
+			while (first < counts.length && counts[first] == 0)
+				first++;
+			int last = counts.length - 1;
+			while (last >= first && counts[last] == 0)
+				last--;
+			WritableUtils.writeVInt(out, last - first + 1);
+			WritableUtils.writeVInt(out, offset + first);
+			for (int i = first; i <= last; i++)
+				WritableUtils.writeVLong(out, counts[i]);
+		}
+	}
+}
@@ -0,0 +1,281 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * Side store of the incremental mode: partial aggregates of every
+ * <b>(airline, year, month)</b> seen so far, and the input files they were
+ * computed from.
+ * <p>
+ * <code>&lt;state&gt;/v&lt;n&gt;/delays</code> - SequenceFile of
+ * (LongWritable key, DelayAggregate), block compressed, see key()<br>
+ * <code>&lt;state&gt;/v&lt;n&gt;/processed</code> - one line per input file:
+ * path, length, modification time
+ * <p>
+ * Only a few thousand entries (airlines x months), so the whole state is
+ * loaded and rewritten by the driver. Each save writes both files into
+ * <code>_v&lt;n+1&gt;</code> and publishes them together by renaming it to
+ * <code>v&lt;n+1&gt;</code>, so a crash leaves either the old or the new
+ * version, never half of each. Load takes the highest version; older
+ * versions are deleted after a save. A state written before versions
+ * (delays and processed directly in the folder) is still loaded.
+ * @author Peili Cao
+ *
+ */
+public class DelayState {
+
+	public static final String DELAYS = "delays";
+	public static final String PROCESSED = "processed";
+	public static final String VERSION = "v";
+
+	private TreeMap<Long, DelayAggregate> delays;
+	private Map<String, String> processed;
+	// Loaded version, -1 for none or a state without versions
+	private int version;
+	private long modificationTime;
+
+	private DelayState() {
+		delays = new TreeMap<Long, DelayAggregate>();
+		processed = new HashMap<String, String>();
+		version = -1;
+		modificationTime = 0;
+	}
+
+	/**
+	 * @param airline
+	 * @param year
+	 * @param month
+	 *            - 1 to 12
+	 * @return key of the state, airline in the high 32 bits and yyyyMM in
+	 *         the low 32 bits, so keys of one airline are ordered by month
+	 */
+	public static long key(int airline, int year, int month) {
+		return ((long) airline << 32) | (year * 100 + month);
+	}
+
+	public static int airlineOf(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int yearOf(long key) {
+		return (int) key / 100;
+	}
+
+	public static int monthOf(long key) {
+		return (int) key % 100;
+	}
+
+	/**
+	 * Load the latest version of the state, empty if the folder does not
+	 * exist yet
+	 *
+	 * @param conf
+	 * @param folder
+	 * @return
+	 * @throws IOException
+	 */
+	public static DelayState load(Configuration conf, Path folder)
+			throws IOException {
+		DelayState state = new DelayState();
+		FileSystem fs = folder.getFileSystem(conf);
+		state.version = latestVersion(fs, folder);
+		Path current = state.version < 0 ? folder : new Path(folder, VERSION
+				+ state.version);
+		Path delaysPath = new Path(current, DELAYS);
+		if (fs.exists(delaysPath)) {
+			state.modificationTime = fs.getFileStatus(delaysPath)
+					.getModificationTime();
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+					delaysPath, conf);
+			LongWritable key = new LongWritable();
+			DelayAggregate value = new DelayAggregate();
+			while (reader.next(key, value)) {
+				state.merge(key.get(), value);
+			}
+			reader.close();
+		}
+		Path processedPath = new Path(current, PROCESSED);
+		if (fs.exists(processedPath)) {
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					fs.open(processedPath)));
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] parts = line.split("\t", 2);
+				state.processed.put(parts[0], parts[1]);
+			}
+			br.close();
+		}
+		return state;
+	}
+
+	/**
+	 * Write the state to the folder as the next version
+	 *
+	 * @param conf
+	 * @param folder
+	 * @throws IOException
+	 */
+	public void save(Configuration conf, Path folder) throws IOException {
+		FileSystem fs = folder.getFileSystem(conf);
+		int next = Math.max(version, latestVersion(fs, folder)) + 1;
+		Path published = new Path(folder, VERSION + next);
+		Path tmp = new Path(folder, "_" + VERSION + next);
+		if (fs.exists(tmp))
+			fs.delete(tmp, true);
+		Path delaysTmp = new Path(tmp, DELAYS);
+		SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+				delaysTmp, LongWritable.class, DelayAggregate.class,
+				SequenceFile.CompressionType.BLOCK);
+		LongWritable key = new LongWritable();
+		for (Map.Entry<Long, DelayAggregate> entry : delays.entrySet()) {
+			key.set(entry.getKey());
+			writer.append(key, entry.getValue());
+		}
+		writer.close();
+
+		Path processedTmp = new Path(tmp, PROCESSED);
+		FSDataOutputStream out = fs.create(processedTmp, true);
+		for (Map.Entry<String, String> entry : processed.entrySet()) {
+			out.write((entry.getKey() + "\t" + entry.getValue() + "\n")
+					.getBytes());
+		}
+		out.close();
+
+		// Both files become visible with this one rename
+		if (!fs.rename(tmp, published))
+			throw new IOException("Can not rename " + tmp + " to " + published);
+		version = next;
+		modificationTime = fs.getFileStatus(new Path(published, DELAYS))
+				.getModificationTime();
+
+		// Older versions, and files of a state without versions
+		for (FileStatus status : fs.listStatus(folder)) {
+			String name = status.getPath().getName();
+			int old = parseVersion(name);
+			if ((old >= 0 && old < next) || name.equals(DELAYS)
+					|| name.equals(PROCESSED))
+				fs.delete(status.getPath(), true);
+		}
+	}
+
+	/**
+	 * @return time the loaded or saved version was written, 0 for an empty
+	 *         state
+	 */
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	/**
+	 * Merge a partial into the state
+	 *
+	 * @param key
+	 *            - see key()
+	 * @param partial
+	 */
+	public void merge(long key, DelayAggregate partial) {
+		DelayAggregate total = delays.get(key);
+		if (total == null) {
+			total = new DelayAggregate();
+			delays.put(key, total);
+		}
+		total.merge(partial);
+	}
+
+	/**
+	 * @param airline
+	 * @param year
+	 * @return delays of the 12 months of the airline in the year
+	 */
+	public MonthlyDelays getMonths(int airline, int year) {
+		MonthlyDelays months = new MonthlyDelays();
+		for (Map.Entry<Long, DelayAggregate> entry : delays.subMap(
+				key(airline, year, 1), true, key(airline, year, 12), true)
+				.entrySet()) {
+			months.merge(monthOf(entry.getKey()), entry.getValue());
+		}
+		return months;
+	}
+
+	/**
+	 * @param year
+	 * @return airlines which have flights in the year, ascending
+	 */
+	public TreeMap<Integer, MonthlyDelays> getYear(int year) {
+		TreeMap<Integer, MonthlyDelays> rows = new TreeMap<Integer, MonthlyDelays>();
+		for (long key : delays.keySet()) {
+			int airline = airlineOf(key);
+			if (yearOf(key) == year && !rows.containsKey(airline))
+				rows.put(airline, getMonths(airline, year));
+		}
+		return rows;
+	}
+
+	/**
+	 * @param file
+	 * @return true if the file is already merged into the state
+	 * @throws IOException
+	 *             if the file changed after it was merged, its old records
+	 *             can not be taken out of the state
+	 */
+	public boolean isProcessed(FileStatus file) throws IOException {
+		String seen = processed.get(file.getPath().toUri().getPath());
+		if (seen == null)
+			return false;
+		if (!seen.equals(describe(file)))
+			throw new IOException(file.getPath()
+					+ " changed after it was processed, rebuild the state");
+		return true;
+	}
+
+	/**
+	 * Record the file as merged into the state
+	 *
+	 * @param file
+	 */
+	public void addProcessed(FileStatus file) {
+		processed.put(file.getPath().toUri().getPath(), describe(file));
+	}
+
+	// Helper functions
+
+	private static String describe(FileStatus file) {
+		return file.getLen() + "\t" + file.getModificationTime();
+	}
+
+	/**
+	 * @return highest published version in the folder, -1 if there is none
+	 */
+	private static int latestVersion(FileSystem fs, Path folder)
+			throws IOException {
+		int latest = -1;
+		if (!fs.exists(folder))
+			return latest;
+		for (FileStatus status : fs.listStatus(folder)) {
+			if (status.isDir())
+				latest = Math.max(latest, parseVersion(status.getPath()
+						.getName()));
+		}
+		return latest;
+	}
+
+	/**
+	 * @return n of a folder named v&lt;n&gt;, -1 for other names
+	 */
+	private static int parseVersion(String name) {
+		if (!name.matches("^" + VERSION + "[0-9]{1,9}$"))
+			return -1;
+		return Integer.parseInt(name.substring(VERSION.length()));
+	}
+}
@@ -0,0 +1,33 @@
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Merge partial aggregates of the same (airline, month) before shuffle.<br>
+ * The partial has the map output value class, so sketches of
+ * DelayDistribution are kept.
+ * @author Peili Cao
+ *
+ */
+public class FlightCombiner extends
+		Reducer<ImmeKey, DelayAggregate, ImmeKey, DelayAggregate> {
+
+	private DelayAggregate partial;
+
+	protected void setup(Context context) {
+		partial = ReflectionUtils.newInstance(context.getMapOutputValueClass()
+				.asSubclass(DelayAggregate.class), context.getConfiguration());
+	}
+
+	@Override
+	public void reduce(ImmeKey key, Iterable<DelayAggregate> values,
+			Context context) throws IOException, InterruptedException {
+		partial.clear();
+		for (DelayAggregate val : values) {
+			partial.merge(val);
+		}
+		context.write(key, partial);
+	}
+
+}
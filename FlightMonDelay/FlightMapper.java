@@ -1,51 +1,68 @@
 import java.io.IOException;
 
-import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
-import au.com.bytecode.opencsv.CSVParser;
+/**
+ * Emit partial (sum, count) of arrival delays for each (airline, month).
+ * <p>
+ * Implements in-mapper combine with DelayPartials: partials are kept in a
+ * hashmap and emitted at cleanup, or earlier when the map holds more than
+ * <code>flight.combine.maxEntries</code> keys.
+ * @author Peili Cao
+ *
+ */
+public class FlightMapper extends Mapper<Object, Text, ImmeKey, DelayAggregate> {
 
-public class FlightMapper extends Mapper<Object, Text, ImmeKey, DoubleWritable> {
+	/**
+	 * line[0]: year, line[2]: month line[7]:airline
+	 * line[37]: arrDelayMins, line[41]:cancelled, 
+	 * line[43]:diverted
+	 */
+	static final int YEAR = 0;
+	static final int MONTH = 2;
+	static final int AIRLINE = 7;
+	static final int ARR_DELAY = 37;
+	static final int CANCELLED = 41;
+	static final int DIVERTED = 43;
 
-	private ImmeKey imkey;
-	private IntWritable month;
-	private IntWritable airline;
-	private DoubleWritable arrDelayMins;
-	private CSVParser parser;
+	static final byte[] YEAR_2008 = "2008".getBytes();
+	/** Months read by the job, yyyyMM */
+	static final int FIRST_MONTH = 200801;
+	static final int LAST_MONTH = 200812;
+	static final byte[] ZERO = "0.00".getBytes();
+
+	public static final String MAX_ENTRIES = "flight.combine.maxEntries";
+
+	private CSVFieldExtractor parser;
+	private DelayPartials partials;
 
 	protected void setup(Context context) {
-		imkey = new ImmeKey();
-		month = new IntWritable();
-		airline = new IntWritable();
-		arrDelayMins = new DoubleWritable();
-		parser = new CSVParser();
+		parser = new CSVFieldExtractor(YEAR, MONTH, AIRLINE, ARR_DELAY,
+				CANCELLED, DIVERTED);
+		partials = new DelayPartials(context.getConfiguration().getInt(
+				MAX_ENTRIES, 10000), context.getMapOutputValueClass()
+				.asSubclass(DelayAggregate.class));
 	}
 
 	
 	public void map(Object key, Text value, Context context)
 			throws IOException, InterruptedException {
 
-		String[] lines = parser.parseLine(value.toString());
-		if (lines.length < 56)
+		if (parser.parse(value) < 56)
 			return;
 		
-		/**
-		 * line[0]: year, line[2]: month line[7]:airline
-		 * line[37]: arrDelayMins, line[41]:cancelled, 
-		 * line[43]:diverted
-		 */
-		
-		if (lines[0].equals("2008") && lines[41].equals("0.00")
-				&& lines[43].equals("0.00")) {
+		if (parser.equals(YEAR, YEAR_2008) && parser.equals(CANCELLED, ZERO)
+				&& parser.equals(DIVERTED, ZERO)) {
 			// Flight in 2008 and No cancelled no diverted
-			month.set(Integer.parseInt(lines[2]));
-			airline.set(Integer.parseInt(lines[7]));
-			imkey.set(airline, month);
-			arrDelayMins.set(Double.parseDouble(lines[37]));
-			context.write(imkey, arrDelayMins);
+			partials.add(parser.getInt(AIRLINE), parser.getInt(MONTH),
+					parser.getDecimal(ARR_DELAY), context);
 		}
 	}
 
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		partials.flush(context);
+	}
+
 }
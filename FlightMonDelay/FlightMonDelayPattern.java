@@ -1,41 +1,86 @@
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
+import localengine.ParallelJobRunner;
+
 /**
  * This Project is to compute the pattern of monthly delays for each airline.<br>
  * Using secondary sort
  * <p>
  * Map Output Key: <b>(airline, month)</b><br>
- * Records are grouped solely by 'airline'<br>
- * Map Output Value: <b>delayMinutes</b><br>
+ * Records are partitioned and grouped solely by 'airline'<br>
+ * Map Output Value: <b>(sumDelayMinutes, count)</b><br>
+ * Partial sums are combined in mapper and by combiner<br>
  * <p>
  * Reduce Output Key: <b>airline</b><br>
  * Reduce Output Value:<b>(month, avgDelay)</b><br>
  * E.g.: (1,11),(2,12),(3,22),...,(12,NULL)
+ * <p>
+ * With <code>flight.input.format=columnar</code>, the input is read as
+ * FlightRecord from the output of FlightDataConverter. Partitions of other
+ * years are pruned before the job starts, see FlightPartitions.
+ * <p>
+ * With <code>flight.reduce.mode=accumulator</code>, the key is only the
+ * airline and the value holds all 12 months (MonthlyDelays), so there is no
+ * secondary sort. After the in-mapper combine each reducer gets only a few
+ * values per airline, so the default hash partitioner is used and no
+ * sampling is needed.
+ * <p>
+ * With <code>flight.delay.percentiles=true</code>, partials also carry a
+ * mergeable DelaySketch and each month is rendered as
+ * (month,avgDelay,p50,p90,p99). Only the secondary sort mode supports it,
+ * the job does not start if both are set.
  * @author Peili Cao
  *
  */
 public class FlightMonDelayPattern {
 
+	public static final String REDUCE_MODE = "flight.reduce.mode";
+	public static final String PERCENTILES = "flight.delay.percentiles";
+
 	/**
 	 * Secondary Sort<br>
 	 * Order: <br>
 	 * ariline: ASC, month:ASC
+	 * <p>
+	 * Compares serialized keys in place, keys are never deserialized during
+	 * sort, spill and merge. Serialized key: airline(4 bytes), month(4 bytes)
 	 */
 	public static class Comparator extends WritableComparator {
 
 		protected Comparator() {
-			super(ImmeKey.class, true);
+			super(ImmeKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int result = compareInt(readInt(b1, s1), readInt(b2, s2));
+			if (0 == result) {
+				result = compareInt(readInt(b1, s1 + 4), readInt(b2, s2 + 4));
+			}
+			return result;
 		}
 
 		@Override
@@ -55,12 +100,18 @@ public class FlightMonDelayPattern {
 
 	/**
 	 * Group Comparator <p>
-	 * Records with same airline will go to same reduce call
+	 * Records with same airline will go to same reduce call.<br>
+	 * Only the first 4 bytes (airline) of serialized keys are compared.
 	 */
 	public static class CustomGroupComparator extends WritableComparator {
 
 		protected CustomGroupComparator() {
-			super(ImmeKey.class, true);
+			super(ImmeKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareInt(readInt(b1, s1), readInt(b2, s2));
 		}
 
 		@Override
@@ -73,6 +124,10 @@ public class FlightMonDelayPattern {
 
 	}
 
+	private static int compareInt(int a, int b) {
+		return (a < b ? -1 : (a == b ? 0 : 1));
+	}
+
 	/**
 	 * Job Client Setting and running
 	 * @param args
@@ -86,25 +141,175 @@ public class FlightMonDelayPattern {
 			System.err.println("Usage: Flight <in> <out>");
 			System.exit(2);
 		}
+		boolean accumulator = "accumulator".equals(conf.get(REDUCE_MODE,
+				"secondarysort"));
+		if (accumulator && conf.getBoolean(PERCENTILES, false)) {
+			System.err.println("Usage: " + PERCENTILES
+					+ "=true needs the secondary sort mode, not " + REDUCE_MODE
+					+ "=accumulator");
+			System.exit(2);
+		}
 		Job job = new Job(conf, "Flights Month Delay Pattern");
 		job.setJarByClass(FlightMonDelayPattern.class);
-		
-		job.setMapperClass(FlightMapper.class);
+
+		boolean columnar = ColumnarFlightInputFormat.isColumnar(conf);
+		if (columnar) {
+			//Typed records converted by FlightDataConverter
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+		}
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(Text.class);
+		job.setNumReduceTasks(10);
+
+		//Only months of 2008 are read from a partitioned input
+		if (FlightPartitions.addInputPaths(job, new Path(otherArgs[0]),
+				FlightMapper.FIRST_MONTH, FlightMapper.LAST_MONTH) == 0) {
+			System.err.println("No partition of 2008 in " + otherArgs[0]);
+			System.exit(2);
+		}
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+
+		if (accumulator) {
+			//Key is airline only, months are slots of the value
+			job.setMapperClass(columnar ? MonthlyRecordMapper.class
+					: MonthlyMapper.class);
+			job.setCombinerClass(MonthlyCombiner.class);
+			job.setReducerClass(MonthlyReducer.class);
+			job.setMapOutputKeyClass(IntWritable.class);
+			job.setMapOutputValueClass(MonthlyDelays.class);
+			System.exit(new ParallelJobRunner(job).waitForCompletion(true) ? 0 : 1);
+		}
+
+		job.setMapperClass(columnar ? FlightRecordMapper.class
+				: FlightMapper.class);
+		job.setCombinerClass(FlightCombiner.class);
 		job.setReducerClass(FlightReducer.class);
 		//Set comparator
 		job.setGroupingComparatorClass(CustomGroupComparator.class);
 		job.setSortComparatorClass(Comparator.class);
 		job.setMapOutputKeyClass(ImmeKey.class);
-		job.setMapOutputValueClass(DoubleWritable.class);
-		job.setOutputKeyClass(IntWritable.class);
-		job.setOutputValueClass(Text.class);
-		job.setNumReduceTasks(10);
+		//Sketches of delays are shuffled only when percentiles are wanted
+		job.setMapOutputValueClass(conf.getBoolean(PERCENTILES, false)
+				? DelayDistribution.class : DelayAggregate.class);
 
-		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
-		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+		//Partition by airline, balanced by sampled counts, for the reducers
+		//the runner really starts
+		ParallelJobRunner runner = new ParallelJobRunner(job);
+		Map<Integer, int[]> plan = AirlineSampler.createPlan(job,
+				runner.getNumReduceTasks());
+		job.getConfiguration().set(AirlinePartitioner.PLAN,
+				AirlinePartitioner.formatPlan(plan));
+		job.setPartitionerClass(AirlinePartitioner.class);
+
+		boolean succeed = runner.waitForCompletion(true);
+		if (succeed)
+			mergeSplitAirlines(job.getConfiguration(), otherArgs[1], plan);
+		System.exit(succeed ? 0 : 1);
 
-		System.exit(job.waitForCompletion(true) ? 0 : 1);
+	}
 
+	/**
+	 * Merge rows of airlines which are split over several reducers by month
+	 * range.<br>
+	 * Each reducer emits a full row for its range, with NULL for the other
+	 * months. The merged row takes the months which are not NULL from every
+	 * file holding the airline, and is written in the file of January's
+	 * reducer, or in the first file holding the airline if that one does not
+	 * exist. Other rows are not touched, and nothing is done if the job
+	 * wrote less than two files.
+	 *
+	 * @param conf
+	 * @param output
+	 *            - output folder of the job
+	 * @param plan
+	 *            - airline to partition of each month (index 1-12)
+	 * @throws IOException
+	 */
+	public static void mergeSplitAirlines(Configuration conf, String output,
+			Map<Integer, int[]> plan) throws IOException {
+		Map<Integer, int[]> split = new HashMap<Integer, int[]>();
+		for (Map.Entry<Integer, int[]> entry : plan.entrySet()) {
+			if (AirlinePartitioner.isSplit(entry.getValue()))
+				split.put(entry.getKey(), entry.getValue());
+		}
+		if (split.isEmpty())
+			return;
+
+		FileSystem fs = FileSystem.get(URI.create(output), conf);
+		Map<Integer, Path> files = new TreeMap<Integer, Path>();
+		for (FileStatus status : fs.listStatus(new Path(output))) {
+			String name = status.getPath().getName();
+			if (name.matches("^part-r-[0-9]{5}$"))
+				files.put(Integer.parseInt(name.substring(7)), status.getPath());
+		}
+		if (files.size() < 2)
+			return;
+
+		Map<Integer, TreeMap<Integer, String>> rows = new HashMap<Integer, TreeMap<Integer, String>>();
+		Map<Integer, String[]> merged = new HashMap<Integer, String[]>();
+		// Partitions whose file holds a split airline
+		Map<Integer, Set<Integer>> holders = new HashMap<Integer, Set<Integer>>();
+		for (Map.Entry<Integer, Path> file : files.entrySet()) {
+			int partition = file.getKey();
+			TreeMap<Integer, String> kept = new TreeMap<Integer, String>();
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					fs.open(file.getValue())));
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] pair = line.split("\t", 2);
+				int airline = Integer.parseInt(pair[0]);
+				if (!split.containsKey(airline)) {
+					kept.put(airline, line);
+					continue;
+				}
+				// ",(1,11),(2,NULL),...,(12,NULL)" -> "1,11", "2,NULL", ...
+				String[] cells = pair[1].substring(2, pair[1].length() - 1)
+						.split("\\),\\(");
+				String[] target = merged.get(airline);
+				if (target == null) {
+					target = new String[13];
+					merged.put(airline, target);
+					holders.put(airline, new TreeSet<Integer>());
+				}
+				holders.get(airline).add(partition);
+				for (int m = 1; m <= 12; m++) {
+					if (!cells[m - 1].endsWith(",NULL"))
+						target[m] = cells[m - 1];
+				}
+			}
+			br.close();
+			rows.put(partition, kept);
+		}
+
+		// Merged rows go to the file of January's reducer
+		Set<Integer> changed = new HashSet<Integer>();
+		for (Map.Entry<Integer, String[]> entry : merged.entrySet()) {
+			StringBuilder builder = new StringBuilder();
+			builder.append(entry.getKey());
+			builder.append("\t");
+			for (int m = 1; m <= 12; m++) {
+				builder.append(",(");
+				builder.append(entry.getValue()[m] == null ? m + ",NULL"
+						: entry.getValue()[m]);
+				builder.append(")");
+			}
+			Set<Integer> held = holders.get(entry.getKey());
+			int partition = split.get(entry.getKey())[1];
+			if (!files.containsKey(partition))
+				partition = held.iterator().next();
+			rows.get(partition).put(entry.getKey(), builder.toString());
+			changed.add(partition);
+			changed.addAll(held);
+		}
+
+		for (int partition : changed) {
+			FSDataOutputStream out = fs.create(files.get(partition), true);
+			for (String row : rows.get(partition).values()) {
+				out.write(row.getBytes());
+				out.write("\n".getBytes());
+			}
+			out.close();
+		}
 	}
 
 }
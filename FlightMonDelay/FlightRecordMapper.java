@@ -0,0 +1,37 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Same as FlightMapper, but reads typed FlightRecord from
+ * ColumnarFlightInputFormat, so no csv is parsed.
+ * @author Peili Cao
+ *
+ */
+public class FlightRecordMapper extends
+		Mapper<NullWritable, FlightRecord, ImmeKey, DelayAggregate> {
+
+	private DelayPartials partials;
+
+	protected void setup(Context context) {
+		partials = new DelayPartials(context.getConfiguration().getInt(
+				FlightMapper.MAX_ENTRIES, 10000), context.getMapOutputValueClass()
+				.asSubclass(DelayAggregate.class));
+	}
+
+	public void map(NullWritable key, FlightRecord value, Context context)
+			throws IOException, InterruptedException {
+		// Flight in 2008 and No cancelled no diverted
+		if (value.getYear() == 2008 && !value.isCancelled()
+				&& !value.isDiverted() && value.hasArrDelay()) {
+			partials.add(value.getAirline(), value.getMonth(),
+					value.getArrDelay(), context);
+		}
+	}
+
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		partials.flush(context);
+	}
+}
@@ -1,41 +1,55 @@
 import java.io.IOException;
 
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
+/**
+ * Render the row of one airline from its (month, partial) values, which come
+ * ordered by month.<br>
+ * With <code>flight.delay.percentiles=true</code> values are
+ * DelayDistribution and each month is rendered as
+ * <b>(month, avgDelay, p50, p90, p99)</b>.
+ * @author Peili Cao
+ *
+ */
 public class FlightReducer extends
-		Reducer<ImmeKey, DoubleWritable, IntWritable,Text> {
+		Reducer<ImmeKey, DelayAggregate, IntWritable,Text> {
 
 	private IntWritable result = new IntWritable();
 	private Text pairs = new Text();
 	StringBuilder builder = new StringBuilder("");
+	private DelaySketch sketch = new DelaySketch();
+	private boolean percentiles;
+
+	protected void setup(Context context) {
+		percentiles = context.getConfiguration().getBoolean(
+				FlightMonDelayPattern.PERCENTILES, false);
+	}
 
 	@Override
-	public void reduce(ImmeKey key, Iterable<DoubleWritable> values,
+	public void reduce(ImmeKey key, Iterable<DelayAggregate> values,
 			Context context) throws IOException, InterruptedException {
 		
-		double arrDelayMins = 0.0;
 		double sumDelayMins = 0.0;
 		int month = 1;
 		int preMon = 0;
 		int currentMon = 0;
-		int count = 0;
+		long count = 0;
 		int avgDelayMins = 0;
 		//reset builder
 		builder.setLength(0);
 		
-		for(DoubleWritable val : values){
+		for(DelayAggregate val : values){
 			
 			month  = key.getMonth().get();
-			arrDelayMins = val.get();
 			
 			if(currentMon == month){
 				//Same month with previous (key,value) pair
-				//update sumDelayMins and count
-				sumDelayMins += arrDelayMins;
-				count += 1;
+				//merge partial sumDelayMins and count
+				sumDelayMins += val.getSum();
+				count += val.getCount();
+				mergeSketch(val);
 			}else{	
 				if(count >0){
 					//Has records needed to emit
@@ -49,9 +63,11 @@ public class FlightReducer extends
 				
 				//Start to count a new month
 				currentMon = month;
-				sumDelayMins = arrDelayMins;
+				sumDelayMins = val.getSum();
 				preMon = month;
-				count =1;
+				count = val.getCount();
+				sketch.clear();
+				mergeSketch(val);
 			}
 				
 		}
@@ -77,9 +93,21 @@ public class FlightReducer extends
 	//Helper functions
 	
 	private void buildValidOutput(int month, int avg){
+		if (percentiles) {
+			// (month,avgDelay,p50,p90,p99)
+			this.buildOutput(month, avg + "," + Math.round(sketch.quantile(0.5))
+					+ "," + Math.round(sketch.quantile(0.9)) + ","
+					+ Math.round(sketch.quantile(0.99)));
+			return;
+		}
 		// (month,avgDelay)
 		this.buildOutput(month, Integer.toString(avg));
 	}
+
+	private void mergeSketch(DelayAggregate val) {
+		if (percentiles && val instanceof DelayDistribution)
+			sketch.merge(((DelayDistribution) val).getSketch());
+	}
 	
 	private void buildNullOutput(int month){
 		// (month, NULL)
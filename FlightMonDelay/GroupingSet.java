@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One grouping set of DelayCube, e.g. (origin, month).
+ * <p>
+ * Keys are packed into a long: id of the set in bits 59-62, then the values
+ * of the dimensions, the first dimension in the highest bits. So sorting the
+ * keys sorts by set, then by dimensions in order.
+ * <p>
+ * Sets are configured as <code>airline,month;origin,month;...</code>
+ * @author Peili Cao
+ *
+ */
+public class GroupingSet {
+
+	public static final int MAX_SETS = 16;
+
+	private static final int ID_SHIFT = 59;
+
+	private int id;
+	private CubeDimension[] dimensions;
+	private String name;
+
+	public GroupingSet(int id, CubeDimension... dimensions) {
+		if (id < 0 || id >= MAX_SETS)
+			throw new IllegalArgumentException("At most " + MAX_SETS
+					+ " grouping sets");
+		int bits = 0;
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < dimensions.length; i++) {
+			for (int j = 0; j < i; j++) {
+				if (dimensions[j] == dimensions[i])
+					throw new IllegalArgumentException("Duplicate dimension "
+							+ dimensions[i]);
+			}
+			bits += dimensions[i].getBits();
+			if (i > 0)
+				builder.append("_");
+			builder.append(dimensions[i].name().toLowerCase());
+		}
+		if (dimensions.length == 0 || bits > ID_SHIFT)
+			throw new IllegalArgumentException("Invalid grouping set");
+		this.id = id;
+		this.dimensions = dimensions;
+		this.name = builder.toString();
+	}
+
+	/**
+	 * Parse grouping sets stored in configuration
+	 *
+	 * @param value
+	 *            - e.g. "airline,month;origin,dest,month"
+	 * @return sets, the id of each set is its index
+	 */
+	public static List<GroupingSet> parse(String value) {
+		List<GroupingSet> sets = new ArrayList<GroupingSet>();
+		for (String item : value.split(";")) {
+			if (item.trim().length() == 0)
+				continue;
+			String[] names = item.split(",");
+			CubeDimension[] dimensions = new CubeDimension[names.length];
+			for (int i = 0; i < names.length; i++)
+				dimensions[i] = CubeDimension.valueOf(names[i].trim()
+						.toUpperCase());
+			sets.add(new GroupingSet(sets.size(), dimensions));
+		}
+		return sets;
+	}
+
+	/**
+	 * @param record
+	 * @return key of the flight in this set
+	 * @throws IllegalArgumentException
+	 *             if a value does not fit in its dimension
+	 */
+	public long pack(FlightRecord record) {
+		long packed = 0;
+		for (CubeDimension dimension : dimensions) {
+			int value = dimension.valueOf(record);
+			if (value < 0 || value >= 1 << dimension.getBits())
+				throw new IllegalArgumentException(dimension + " " + value
+						+ " out of range");
+			packed = (packed << dimension.getBits()) | value;
+		}
+		return ((long) id << ID_SHIFT) | packed;
+	}
+
+	/**
+	 * @param key
+	 * @return id of the set of a packed key
+	 */
+	public static int idOf(long key) {
+		return (int) (key >>> ID_SHIFT);
+	}
+
+	/**
+	 * @param key
+	 *            - packed by this set
+	 * @return values of the dimensions separated by tab
+	 */
+	public String format(long key) {
+		String[] values = new String[dimensions.length];
+		for (int i = dimensions.length - 1; i >= 0; i--) {
+			int bits = dimensions[i].getBits();
+			values[i] = dimensions[i].format((int) (key & ((1L << bits) - 1)));
+			key >>>= bits;
+		}
+		StringBuilder builder = new StringBuilder(values[0]);
+		for (int i = 1; i < values.length; i++) {
+			builder.append("\t");
+			builder.append(values[i]);
+		}
+		return builder.toString();
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return dimensions joined by '_', e.g. "origin_month", used as the
+	 *         output folder of the set
+	 */
+	public String getName() {
+		return name;
+	}
+}
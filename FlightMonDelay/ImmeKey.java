@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 /**
  * Customized ImmediateKey<br>
@@ -12,6 +13,12 @@ import org.apache.hadoop.io.WritableComparable;
  *
  */
 public class ImmeKey implements WritableComparable<ImmeKey> {
+			static {
+				// Raw comparator, used whenever no sort comparator is set
+				WritableComparator.define(ImmeKey.class,
+						new FlightMonDelayPattern.Comparator());
+			}
+
 			private IntWritable airline;
 			private IntWritable month;
 	
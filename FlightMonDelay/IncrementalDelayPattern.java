@@ -0,0 +1,310 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import localengine.ParallelJobRunner;
+
+/**
+ * Incremental mode of FlightMonDelayPattern.
+ * <p>
+ * New on-time data comes one month at a time, so instead of reading all
+ * history on each run:<br>
+ * 1. Input files which are not in DelayState yet are listed.<br>
+ * 2. One job reads only those files and emits partial (sumDelayMins, count)
+ * of each (airline, year, month).<br>
+ * 3. The driver merges the partials into DelayState and saves it.<br>
+ * 4. Rows of the airlines which got new flights in the report year are
+ * rendered again from the state, other rows of the report are kept.
+ * <p>
+ * If a run failed after saving the state, the report is older than the
+ * state, and the next run renders the whole report again, with or without
+ * new input. Partials left by a failed run are deleted first.
+ * <p>
+ * Usage: <code>incremental &lt;in&gt; &lt;state&gt; &lt;out&gt;</code><br>
+ * <code>flight.report.year</code> - year of the report, default 2008<br>
+ * Input may be csv or, with <code>flight.input.format=columnar</code>, the
+ * output of FlightDataConverter. The report has the same rows as
+ * FlightMonDelayPattern, in one file <code>&lt;out&gt;/part-r-00000</code>.
+ * @author Peili Cao
+ *
+ */
+public class IncrementalDelayPattern {
+
+	public static final String REPORT_YEAR = "flight.report.year";
+
+	/**
+	 * Emit partial (sum, count) of each (airline, year, month), keyed by
+	 * DelayState.key. Takes csv lines or FlightRecord.
+	 */
+	public static class PartialMapper extends
+			Mapper<Object, Writable, LongWritable, DelayAggregate> {
+
+		private CSVFieldExtractor parser;
+		private Map<Long, DelayAggregate> partials;
+		private LongWritable outKey;
+
+		protected void setup(Context context) {
+			parser = new CSVFieldExtractor(FlightMapper.YEAR,
+					FlightMapper.MONTH, FlightMapper.AIRLINE,
+					FlightMapper.ARR_DELAY, FlightMapper.CANCELLED,
+					FlightMapper.DIVERTED);
+			partials = new HashMap<Long, DelayAggregate>();
+			outKey = new LongWritable();
+		}
+
+		public void map(Object key, Writable value, Context context) {
+			long stateKey;
+			double delay;
+			if (value instanceof FlightRecord) {
+				FlightRecord record = (FlightRecord) value;
+				if (record.isCancelled() || record.isDiverted()
+						|| !record.hasArrDelay())
+					return;
+				stateKey = DelayState.key(record.getAirline(),
+						record.getYear(), record.getMonth());
+				delay = record.getArrDelay();
+			} else {
+				if (parser.parse((Text) value) < 56)
+					return;
+				// No cancelled no diverted, any year
+				if (!parser.equals(FlightMapper.CANCELLED, FlightMapper.ZERO)
+						|| !parser.equals(FlightMapper.DIVERTED,
+								FlightMapper.ZERO))
+					return;
+				stateKey = DelayState.key(parser.getInt(FlightMapper.AIRLINE),
+						parser.getInt(FlightMapper.YEAR),
+						parser.getInt(FlightMapper.MONTH));
+				delay = parser.getDecimal(FlightMapper.ARR_DELAY);
+			}
+			// A file holds a few airlines of one month, the map stays small
+			DelayAggregate partial = partials.get(stateKey);
+			if (partial == null) {
+				partial = new DelayAggregate();
+				partials.put(stateKey, partial);
+			}
+			partial.add(delay);
+		}
+
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			for (Map.Entry<Long, DelayAggregate> entry : partials.entrySet()) {
+				outKey.set(entry.getKey());
+				context.write(outKey, entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Merge partials of the same key, used as combiner too, also by DelayCube
+	 */
+	public static class PartialReducer extends
+			Reducer<LongWritable, DelayAggregate, LongWritable, DelayAggregate> {
+
+		private DelayAggregate partial = new DelayAggregate();
+
+		@Override
+		public void reduce(LongWritable key, Iterable<DelayAggregate> values,
+				Context context) throws IOException, InterruptedException {
+			partial.clear();
+			for (DelayAggregate val : values) {
+				partial.merge(val);
+			}
+			context.write(key, partial);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args)
+				.getRemainingArgs();
+		if (otherArgs.length != 3) {
+			System.err.println("Usage: incremental <in> <state> <out>");
+			System.exit(2);
+		}
+		Path input = new Path(otherArgs[0]);
+		Path stateFolder = new Path(otherArgs[1]);
+		Path output = new Path(otherArgs[2]);
+		int reportYear = conf.getInt(REPORT_YEAR, 2008);
+
+		Path partials = new Path(stateFolder, "_partials");
+		FileSystem fs = partials.getFileSystem(conf);
+		if (fs.exists(partials)) {
+			System.out.println("Deleting partials of a failed run in "
+					+ partials);
+			fs.delete(partials, true);
+		}
+
+		DelayState state = DelayState.load(conf, stateFolder);
+		boolean reportCurrent = isReportCurrent(conf, output, state);
+		List<FileStatus> newFiles = new ArrayList<FileStatus>();
+		listNewFiles(input.getFileSystem(conf), input, state, newFiles);
+		if (newFiles.isEmpty()) {
+			if (reportCurrent) {
+				System.out.println("No new input in " + input);
+			} else {
+				System.out.println("No new input in " + input
+						+ ", report is older than the state, rendering it again");
+				updateReport(conf, output, state, reportYear, null);
+			}
+			System.exit(0);
+		}
+
+		Job job = new Job(conf, "Flights Month Delay Incremental");
+		job.setJarByClass(IncrementalDelayPattern.class);
+		if (ColumnarFlightInputFormat.isColumnar(conf))
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+		job.setMapperClass(PartialMapper.class);
+		job.setCombinerClass(PartialReducer.class);
+		job.setReducerClass(PartialReducer.class);
+		job.setOutputKeyClass(LongWritable.class);
+		job.setOutputValueClass(DelayAggregate.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		job.setNumReduceTasks(1);
+		for (FileStatus file : newFiles)
+			FileInputFormat.addInputPath(job, file.getPath());
+		FileOutputFormat.setOutputPath(job, partials);
+		if (!new ParallelJobRunner(job).waitForCompletion(true))
+			System.exit(1);
+
+		// Merge new partials into the state
+		TreeSet<Integer> affected = new TreeSet<Integer>();
+		LongWritable key = new LongWritable();
+		DelayAggregate value = new DelayAggregate();
+		for (FileStatus status : fs.listStatus(partials)) {
+			if (!status.getPath().getName().matches("^part-r-[0-9]{5}$"))
+				continue;
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+					status.getPath(), conf);
+			while (reader.next(key, value)) {
+				state.merge(key.get(), value);
+				if (DelayState.yearOf(key.get()) == reportYear)
+					affected.add(DelayState.airlineOf(key.get()));
+			}
+			reader.close();
+		}
+		for (FileStatus file : newFiles)
+			state.addProcessed(file);
+		state.save(conf, stateFolder);
+		fs.delete(partials, true);
+
+		// Rows of other airlines are stale too if the report missed an
+		// earlier save
+		updateReport(conf, output, state, reportYear, reportCurrent ? affected
+				: null);
+		System.exit(0);
+	}
+
+	/**
+	 * Find input files which are not merged into the state yet
+	 *
+	 * @param fs
+	 * @param path
+	 *            - file or folder, folders are listed recursively
+	 * @param state
+	 * @param newFiles
+	 *            - new files are added here
+	 * @throws IOException
+	 */
+	private static void listNewFiles(FileSystem fs, Path path,
+			DelayState state, List<FileStatus> newFiles) throws IOException {
+		for (FileStatus status : fs.listStatus(path)) {
+			String name = status.getPath().getName();
+			if (name.startsWith("_") || name.startsWith("."))
+				continue;
+			if (status.isDir())
+				listNewFiles(fs, status.getPath(), state, newFiles);
+			else if (!state.isProcessed(status))
+				newFiles.add(status);
+		}
+	}
+
+	/**
+	 * @return true if the report exists and was written after the state
+	 */
+	private static boolean isReportCurrent(Configuration conf, Path output,
+			DelayState state) throws IOException {
+		Path report = new Path(output, "part-r-00000");
+		FileSystem fs = report.getFileSystem(conf);
+		return fs.exists(report)
+				&& fs.getFileStatus(report).getModificationTime() >= state
+						.getModificationTime();
+	}
+
+	/**
+	 * Render rows of affected airlines from the state, keep the other rows.
+	 * The whole report is rendered if it does not exist yet or affected is
+	 * null.
+	 *
+	 * @param conf
+	 * @param output
+	 *            - report folder
+	 * @param state
+	 * @param reportYear
+	 * @param affected
+	 *            - airlines with new flights in the report year, null for
+	 *            all
+	 * @throws IOException
+	 */
+	private static void updateReport(Configuration conf, Path output,
+			DelayState state, int reportYear, TreeSet<Integer> affected)
+			throws IOException {
+		FileSystem fs = output.getFileSystem(conf);
+		Path report = new Path(output, "part-r-00000");
+		TreeMap<Integer, String> rows = new TreeMap<Integer, String>();
+		StringBuilder builder = new StringBuilder();
+		if (affected != null && fs.exists(report)) {
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					fs.open(report)));
+			String line;
+			while ((line = br.readLine()) != null) {
+				rows.put(Integer.parseInt(line.split("\t", 2)[0]), line);
+			}
+			br.close();
+			for (int airline : affected) {
+				rows.put(airline, airline + "\t" + MonthlyReducer.formatRow(
+						state.getMonths(airline, reportYear), builder));
+			}
+		} else {
+			for (Map.Entry<Integer, MonthlyDelays> entry : state.getYear(
+					reportYear).entrySet()) {
+				rows.put(entry.getKey(), entry.getKey() + "\t"
+						+ MonthlyReducer.formatRow(entry.getValue(), builder));
+			}
+		}
+
+		Path tmp = new Path(output, "_part-r-00000");
+		FSDataOutputStream out = fs.create(tmp, true);
+		for (String row : rows.values()) {
+			out.write(row.getBytes());
+			out.write("\n".getBytes());
+		}
+		out.close();
+		if (fs.exists(report))
+			fs.delete(report, false);
+		if (!fs.rename(tmp, report))
+			throw new IOException("Can not rename " + tmp + " to " + report);
+	}
+}
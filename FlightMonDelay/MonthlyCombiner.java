@@ -0,0 +1,26 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Merge MonthlyDelays of the same airline before shuffle
+ * @author Peili Cao
+ *
+ */
+public class MonthlyCombiner extends
+		Reducer<IntWritable, MonthlyDelays, IntWritable, MonthlyDelays> {
+
+	private MonthlyDelays partial = new MonthlyDelays();
+
+	@Override
+	public void reduce(IntWritable key, Iterable<MonthlyDelays> values,
+			Context context) throws IOException, InterruptedException {
+		partial.clear();
+		for (MonthlyDelays val : values) {
+			partial.merge(val);
+		}
+		context.write(key, partial);
+	}
+
+}
@@ -0,0 +1,120 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Partial aggregates of arrival delays of all 12 months of one airline<br>
+ * <b>(sumDelayMins, count)</b> x 12
+ * <p>
+ * Months are a fixed domain, so they are slots of primitive arrays instead of
+ * part of the key. Only months with flights are serialized: a bit mask of the
+ * months, then (sum, count) of each of them.
+ * @author Peili Cao
+ *
+ */
+public class MonthlyDelays implements Writable {
+
+	private double[] sums = new double[13];
+	private long[] counts = new long[13];
+
+	/**
+	 * @param month
+	 *            - 1 to 12
+	 * @return sum of delays of the month
+	 */
+	public double getSum(int month) {
+		return sums[month];
+	}
+
+	/**
+	 * @param month
+	 *            - 1 to 12
+	 * @return number of flights of the month
+	 */
+	public long getCount(int month) {
+		return counts[month];
+	}
+
+	/**
+	 * Add one delay
+	 * @param month
+	 *            - 1 to 12
+	 * @param delayMins
+	 */
+	public void add(int month, double delayMins) {
+		sums[month] += delayMins;
+		counts[month]++;
+	}
+
+	/**
+	 * Merge another partial into this one
+	 * @param other
+	 */
+	public void merge(MonthlyDelays other) {
+		for (int m = 1; m <= 12; m++) {
+			sums[m] += other.sums[m];
+			counts[m] += other.counts[m];
+		}
+	}
+
+	/**
+	 * Merge a partial of one month into this one
+	 * @param month
+	 *            - 1 to 12
+	 * @param partial
+	 */
+	public void merge(int month, DelayAggregate partial) {
+		sums[month] += partial.getSum();
+		counts[month] += partial.getCount();
+	}
+
+	public void clear() {
+		Arrays.fill(sums, 0.0);
+		Arrays.fill(counts, 0);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int mask = WritableUtils.readVInt(in);
+		for (int m = 1; m <= 12; m++) {
+			if ((mask & (1 << m)) != 0) {
+				sums[m] = in.readDouble();
+				counts[m] = WritableUtils.readVLong(in);
+			} else {
+				sums[m] = 0.0;
+				counts[m] = 0;
+			}
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		int mask = 0;
+		for (int m = 1; m <= 12; m++) {
+			if (counts[m] != 0)
+				mask |= 1 << m;
+		}
+		WritableUtils.writeVInt(out, mask);
+		for (int m = 1; m <= 12; m++) {
+			if (counts[m] != 0) {
+				out.writeDouble(sums[m]);
+				WritableUtils.writeVLong(out, counts[m]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int m = 1; m <= 12; m++) {
+			if (counts[m] != 0)
+				builder.append(m + ":" + sums[m] + " " + counts[m] + " ");
+		}
+		return builder.toString().trim();
+	}
+
+}
@@ -0,0 +1,45 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Accumulator mode of FlightMapper: emit <b>(airline, MonthlyDelays)</b>,
+ * so the shuffle key is only the airline.
+ * @author Peili Cao
+ *
+ */
+public class MonthlyMapper extends
+		Mapper<Object, Text, IntWritable, MonthlyDelays> {
+
+	private CSVFieldExtractor parser;
+	private MonthlyPartials partials;
+
+	protected void setup(Context context) {
+		parser = new CSVFieldExtractor(FlightMapper.YEAR, FlightMapper.MONTH,
+				FlightMapper.AIRLINE, FlightMapper.ARR_DELAY,
+				FlightMapper.CANCELLED, FlightMapper.DIVERTED);
+		partials = new MonthlyPartials(context.getConfiguration().getInt(
+				FlightMapper.MAX_ENTRIES, 10000));
+	}
+
+	public void map(Object key, Text value, Context context)
+			throws IOException, InterruptedException {
+		if (parser.parse(value) < 56)
+			return;
+		// Flight in 2008 and No cancelled no diverted
+		if (parser.equals(FlightMapper.YEAR, FlightMapper.YEAR_2008)
+				&& parser.equals(FlightMapper.CANCELLED, FlightMapper.ZERO)
+				&& parser.equals(FlightMapper.DIVERTED, FlightMapper.ZERO)) {
+			partials.add(parser.getInt(FlightMapper.AIRLINE),
+					parser.getInt(FlightMapper.MONTH),
+					parser.getDecimal(FlightMapper.ARR_DELAY), context);
+		}
+	}
+
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		partials.flush(context);
+	}
+}
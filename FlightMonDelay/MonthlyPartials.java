@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * In-mapper combine of per airline MonthlyDelays, shared by MonthlyMapper and
+ * MonthlyRecordMapper.
+ * <p>
+ * One entry per airline, so the map stays small and is only flushed at the
+ * end of the task, or earlier when it holds more than
+ * <code>flight.combine.maxEntries</code> airlines.
+ * @author Peili Cao
+ *
+ */
+public class MonthlyPartials {
+
+	private IntWritable airline;
+	private Map<IntWritable, MonthlyDelays> partials;
+	private int maxEntries;
+
+	/**
+	 * @param maxEntries
+	 *            - number of airlines kept before the map is flushed
+	 */
+	public MonthlyPartials(int maxEntries) {
+		airline = new IntWritable();
+		partials = new HashMap<IntWritable, MonthlyDelays>();
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Add one delay to the month slot of the airline
+	 */
+	public void add(int airlineId, int month, double delayMins,
+			TaskInputOutputContext<?, ?, IntWritable, MonthlyDelays> context)
+			throws IOException, InterruptedException {
+		if (month < 1 || month > 12)
+			return;
+		airline.set(airlineId);
+		MonthlyDelays partial = partials.get(airline);
+		if (partial == null) {
+			if (partials.size() >= maxEntries)
+				flush(context);
+			// airline is reused, store a copy in the map
+			partial = new MonthlyDelays();
+			partials.put(new IntWritable(airlineId), partial);
+		}
+		partial.add(month, delayMins);
+	}
+
+	/**
+	 * Emit all partials and clear the map
+	 */
+	public void flush(
+			TaskInputOutputContext<?, ?, IntWritable, MonthlyDelays> context)
+			throws IOException, InterruptedException {
+		for (Map.Entry<IntWritable, MonthlyDelays> entry : partials.entrySet()) {
+			context.write(entry.getKey(), entry.getValue());
+		}
+		partials.clear();
+	}
+}
@@ -0,0 +1,37 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Same as MonthlyMapper, but reads typed FlightRecord from
+ * ColumnarFlightInputFormat.
+ * @author Peili Cao
+ *
+ */
+public class MonthlyRecordMapper extends
+		Mapper<NullWritable, FlightRecord, IntWritable, MonthlyDelays> {
+
+	private MonthlyPartials partials;
+
+	protected void setup(Context context) {
+		partials = new MonthlyPartials(context.getConfiguration().getInt(
+				FlightMapper.MAX_ENTRIES, 10000));
+	}
+
+	public void map(NullWritable key, FlightRecord value, Context context)
+			throws IOException, InterruptedException {
+		// Flight in 2008 and No cancelled no diverted
+		if (value.getYear() == 2008 && !value.isCancelled()
+				&& !value.isDiverted() && value.hasArrDelay()) {
+			partials.add(value.getAirline(), value.getMonth(),
+					value.getArrDelay(), context);
+		}
+	}
+
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		partials.flush(context);
+	}
+}
@@ -0,0 +1,62 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Accumulator mode of FlightReducer.
+ * <p>
+ * Values of one airline come in any order, they are merged into the 12 month
+ * slots and the row is rendered from the slots at the end, so no month
+ * order and no gap tracking are needed. Output is the same as FlightReducer:
+ * <br>
+ * E.g.: (1,11),(2,12),(3,22),...,(12,NULL)
+ * @author Peili Cao
+ *
+ */
+public class MonthlyReducer extends
+		Reducer<IntWritable, MonthlyDelays, IntWritable, Text> {
+
+	private MonthlyDelays total = new MonthlyDelays();
+	private Text pairs = new Text();
+	private StringBuilder builder = new StringBuilder();
+
+	@Override
+	public void reduce(IntWritable key, Iterable<MonthlyDelays> values,
+			Context context) throws IOException, InterruptedException {
+		total.clear();
+		for (MonthlyDelays val : values) {
+			total.merge(val);
+		}
+		pairs.set(formatRow(total, builder));
+		context.write(key, pairs);
+	}
+
+	/**
+	 * Render the row of one airline
+	 *
+	 * @param total
+	 *            - all delays of the airline
+	 * @param builder
+	 *            - reused buffer
+	 * @return ",(1,11),(2,12),...,(12,NULL)"
+	 */
+	public static String formatRow(MonthlyDelays total, StringBuilder builder) {
+		builder.setLength(0);
+		for (int m = 1; m <= 12; m++) {
+			// (month,avgDelay) or (month,NULL)
+			builder.append(",(");
+			builder.append(m);
+			builder.append(",");
+			long count = total.getCount(m);
+			if (count > 0)
+				builder.append((int) Math.ceil(total.getSum(m) / count));
+			else
+				builder.append("NULL");
+			builder.append(")");
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * ImmediateValue of the connection matrix job
+ * <p>
+ * <b>(airport, delay)</b><br>
+ * For an arrival at the intercity, airport is the origin of the flight.<br>
+ * For a departure from the intercity, airport is the destination.
+ * @author Peili Cao
+ *
+ */
+public class ConnectionLeg implements Writable {
+
+	private int airport;
+	private double delay;
+
+	public int getAirport() {
+		return airport;
+	}
+
+	public double getDelay() {
+		return delay;
+	}
+
+	public void set(int airport, double delay) {
+		this.airport = airport;
+		this.delay = delay;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		airport = WritableUtils.readVInt(in);
+		delay = in.readDouble();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, airport);
+		out.writeDouble(delay);
+	}
+
+	@Override
+	public String toString() {
+		return AirportCodes.decode(airport) + " " + delay;
+	}
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Emit every qualifying flight as an arrival at its destination and as a
+ * departure from its origin, so one scan finds two-leg connections through
+ * any intercity.
+ * <p>
+ * Arrival: key (dest, flightdate, arrTime, A), value (origin, delay)<br>
+ * Departure: key (origin, flightdate, depTime, B), value (dest, delay)<br>
+ * When pairs are configured, only arrivals from a wanted origin and
+ * departures to a wanted destination are emitted.
+ * @author Peili Cao
+ *
+ */
+public class ConnectionMapper extends Mapper<Object, Text, LegKey, ConnectionLeg> {
+
+	private static final byte[] ZERO = "0.00".getBytes();
+
+	private CSVFieldExtractor parser;
+	private ConnectionPairs pairs;
+	private LegKey imkey;
+	private ConnectionLeg leg;
+	private int fromMonth;
+	private int toMonth;
+
+	protected void setup(Context context) {
+		parser = new CSVFieldExtractor(LegParser.YEAR, LegParser.MONTH,
+				LegParser.FLIGHTDATE, LegParser.ORIGIN, LegParser.DEST,
+				LegParser.DEP_TIME, LegParser.ARR_TIME, LegParser.ARR_DELAY,
+				LegParser.CANCELLED, LegParser.DIVERTED);
+		pairs = new ConnectionPairs(context.getConfiguration().get(
+				ConnectionMatrixFinder.PAIRS));
+		String[] months = context.getConfiguration()
+				.get(ConnectionMatrixFinder.MONTHS, "200706-200805").split("-");
+		fromMonth = Integer.parseInt(months[0]);
+		toMonth = Integer.parseInt(months[1]);
+		imkey = new LegKey();
+		leg = new ConnectionLeg();
+	}
+
+	public void map(Object key, Text value, Context context)
+			throws IOException, InterruptedException {
+		if (parser.parse(value) < 56)
+			return;
+		int month = parser.getInt(LegParser.YEAR) * 100
+				+ parser.getInt(LegParser.MONTH);
+		if (month < fromMonth || month > toMonth)
+			return;
+		// No cancelled no diverted
+		if (!parser.equals(LegParser.CANCELLED, ZERO)
+				|| !parser.equals(LegParser.DIVERTED, ZERO))
+			return;
+
+		int origin = parser.getAirport(LegParser.ORIGIN);
+		int dest = parser.getAirport(LegParser.DEST);
+		int day = parser.getEpochDay(LegParser.FLIGHTDATE);
+		double delay = parser.getDecimal(LegParser.ARR_DELAY);
+
+		if (pairs.isOrigin(origin)) {
+			// First leg origin->dest, connecting at dest
+			imkey.set(dest, day, parser.getMinuteOfDay(LegParser.ARR_TIME),
+					false);
+			leg.set(origin, delay);
+			context.write(imkey, leg);
+		}
+		if (pairs.isDest(dest)) {
+			// Second leg origin->dest, connecting at origin
+			imkey.set(origin, day, parser.getMinuteOfDay(LegParser.DEP_TIME),
+					true);
+			leg.set(dest, delay);
+			context.write(imkey, leg);
+		}
+	}
+}
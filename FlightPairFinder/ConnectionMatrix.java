@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * (origin, destination) matrix of two-leg connection totals
+ * <p>
+ * Airports are mapped to dense ordinals in the order they are first seen, and
+ * each origin row holds primitive arrays of (sum of pair delays, number of
+ * pairs) by destination ordinal, so adding pairs allocates nothing once the
+ * airports are known.
+ * @author Peili Cao
+ *
+ */
+public class ConnectionMatrix {
+
+	private int[] ordinals;
+	private int[] airports;
+	private int size;
+	private double[][] sums;
+	private long[][] counts;
+
+	public ConnectionMatrix() {
+		ordinals = new int[AirportCodes.NUM_IDS];
+		Arrays.fill(ordinals, -1);
+		airports = new int[64];
+		sums = new double[64][];
+		counts = new long[64][];
+		size = 0;
+	}
+
+	/**
+	 * Add pairs of (origin, dest)
+	 *
+	 * @param origin
+	 *            - airport id
+	 * @param dest
+	 *            - airport id
+	 * @param sumDelay
+	 *            - sum of pair delays
+	 * @param count
+	 *            - number of pairs
+	 */
+	public void add(int origin, int dest, double sumDelay, long count) {
+		int row = ordinal(origin);
+		int col = ordinal(dest);
+		if (sums[row] == null || sums[row].length <= col) {
+			int length = Math.max(col + 1, airports.length);
+			sums[row] = sums[row] == null ? new double[length] : Arrays
+					.copyOf(sums[row], length);
+			counts[row] = counts[row] == null ? new long[length] : Arrays
+					.copyOf(counts[row], length);
+		}
+		sums[row][col] += sumDelay;
+		counts[row][col] += count;
+	}
+
+	/**
+	 * @return number of airports seen
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param ordinal
+	 * @return airport id of the ordinal
+	 */
+	public int airport(int ordinal) {
+		return airports[ordinal];
+	}
+
+	public double getSum(int originOrdinal, int destOrdinal) {
+		double[] row = sums[originOrdinal];
+		return row == null || row.length <= destOrdinal ? 0.0
+				: row[destOrdinal];
+	}
+
+	public long getCount(int originOrdinal, int destOrdinal) {
+		long[] row = counts[originOrdinal];
+		return row == null || row.length <= destOrdinal ? 0 : row[destOrdinal];
+	}
+
+	private int ordinal(int airport) {
+		int ordinal = ordinals[airport];
+		if (ordinal == -1) {
+			if (size == airports.length) {
+				airports = Arrays.copyOf(airports, size * 2);
+				sums = Arrays.copyOf(sums, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			ordinal = size++;
+			ordinals[airport] = ordinal;
+			airports[ordinal] = airport;
+		}
+		return ordinal;
+	}
+}
@@ -0,0 +1,127 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import localengine.ParallelJobRunner;
+
+/**
+ * Two-leg connection delay matrix
+ * <p>
+ * Generalization of FlightPairFinder: in one scan, computes the number of
+ * two-leg connections and their average delay for every (origin,
+ * destination) pair through any intercity, or only for the configured pairs.
+ * The two flights must have same flightdate, and the departure time of F2
+ * must be later than the arrival time of F1.
+ * <p>
+ * Map Output Key: <b>(intercity, flightdate, time, tag)</b> packed in LegKey<br>
+ * Map Output Value: <b>(origin or dest, delayMins)</b><br>
+ * Records are partitioned and grouped by (intercity, flightdate)<br>
+ * Reducers emit partial totals of each pair, the driver merges them into
+ * <b>origin, dest, numPairs, avgDelayMin</b>
+ * <p>
+ * <code>flight.connection.pairs</code> - e.g. "ORD-JFK,LAX-BOS", all pairs if
+ * not set<br>
+ * <code>flight.connection.months</code> - yyyyMM range of flights, default
+ * "200706-200805"
+ * @author Peili Cao
+ *
+ */
+public class ConnectionMatrixFinder {
+
+	public static final String PAIRS = "flight.connection.pairs";
+	public static final String MONTHS = "flight.connection.months";
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args)
+				.getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: connections <in> <out>");
+			System.exit(2);
+		}
+		String partials = otherArgs[1] + "_partials";
+
+		Job job = new Job(conf, "Flight Connection Matrix");
+		job.setJarByClass(ConnectionMatrixFinder.class);
+		job.setMapperClass(ConnectionMapper.class);
+		job.setReducerClass(ConnectionReducer.class);
+		job.setGroupingComparatorClass(LegKey.GroupComparator.class);
+		job.setSortComparatorClass(LegKey.Comparator.class);
+		job.setPartitionerClass(LegPartitioner.class);
+		job.setMapOutputKeyClass(LegKey.class);
+		job.setMapOutputValueClass(ConnectionLeg.class);
+		job.setNumReduceTasks(conf.getInt(FlightPairFinder.REDUCE_TASKS, 10));
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+
+		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
+		FileOutputFormat.setOutputPath(job, new Path(partials));
+
+		boolean succeed = new ParallelJobRunner(job).waitForCompletion(true);
+		if (succeed)
+			mergePartials(conf, partials, otherArgs[1]);
+		System.exit(succeed ? 0 : 1);
+	}
+
+	/**
+	 * Sum up partial totals of each reducer and write
+	 * (origin, dest, numPairs, avgDelayMin) ordered by origin and dest. The
+	 * partial folder is deleted.
+	 * 
+	 * @param conf
+	 * @param partials
+	 *            - output folder of the job
+	 * @param output
+	 * @throws IOException
+	 */
+	private static void mergePartials(Configuration conf, String partials,
+			String output) throws IOException {
+		FileSystem fs = FileSystem.get(URI.create(partials), conf);
+		Map<String, double[]> totals = new TreeMap<String, double[]>();
+		for (FileStatus status : fs.listStatus(new Path(partials))) {
+			if (!status.getPath().getName().matches("^part-r-[0-9]{5}$"))
+				continue;
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					fs.open(status.getPath())));
+			String line;
+			while ((line = br.readLine()) != null) {
+				// origin dest sumDelay count
+				String[] items = line.split("\t");
+				String route = items[0] + "\t" + items[1];
+				double[] total = totals.get(route);
+				if (total == null) {
+					total = new double[2];
+					totals.put(route, total);
+				}
+				total[0] += Double.parseDouble(items[2]);
+				total[1] += Long.parseLong(items[3]);
+			}
+			br.close();
+		}
+
+		FileSystem outFs = FileSystem.get(URI.create(output), conf);
+		FSDataOutputStream out = outFs.create(new Path(output, "part-r-00000"));
+		for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+			long count = (long) entry.getValue()[1];
+			double avgDelay = entry.getValue()[0] / count;
+			out.write((entry.getKey() + "\t" + count + "\t" + avgDelay + "\n")
+					.getBytes());
+		}
+		out.close();
+		fs.delete(new Path(partials), true);
+	}
+}
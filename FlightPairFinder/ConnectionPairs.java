@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+/**
+ * Configured set of (origin, destination) pairs of the connection matrix
+ * job, e.g. <code>ORD-JFK,LAX-BOS</code>.
+ * <p>
+ * An empty set means all pairs.
+ * @author Peili Cao
+ *
+ */
+public class ConnectionPairs {
+
+	private int[][] destsByOrigin;
+	private boolean[] dests;
+	private boolean all;
+
+	/**
+	 * @param value
+	 *            - "ORIGIN-DEST,ORIGIN-DEST,...", null or empty for all pairs
+	 */
+	public ConnectionPairs(String value) {
+		all = value == null || value.trim().length() == 0;
+		destsByOrigin = new int[AirportCodes.NUM_IDS][];
+		dests = new boolean[AirportCodes.NUM_IDS];
+		if (all)
+			return;
+		for (String pair : value.split(",")) {
+			String[] codes = pair.trim().split("-");
+			if (codes.length != 2)
+				throw new IllegalArgumentException("Invalid pair: " + pair);
+			int origin = AirportCodes.encode(codes[0].trim());
+			int dest = AirportCodes.encode(codes[1].trim());
+			int[] list = destsByOrigin[origin];
+			list = list == null ? new int[1] : Arrays.copyOf(list,
+					list.length + 1);
+			list[list.length - 1] = dest;
+			destsByOrigin[origin] = list;
+			dests[dest] = true;
+		}
+	}
+
+	/**
+	 * @return true if every pair is wanted
+	 */
+	public boolean isAll() {
+		return all;
+	}
+
+	/**
+	 * @param origin
+	 * @return true if some pair starts from this airport
+	 */
+	public boolean isOrigin(int origin) {
+		return all || destsByOrigin[origin] != null;
+	}
+
+	/**
+	 * @param dest
+	 * @return true if some pair ends at this airport
+	 */
+	public boolean isDest(int dest) {
+		return all || dests[dest];
+	}
+
+	/**
+	 * @param origin
+	 * @return destinations wanted from this origin, null if none or if all
+	 *         pairs are wanted
+	 */
+	public int[] destsOf(int origin) {
+		return destsByOrigin[origin];
+	}
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * One reduce call receives the arrivals and departures of one (intercity,
+ * flightdate), ordered by time DESC, arrival before departure when time is
+ * equal.
+ * <p>
+ * Departures seen so far are all later than the current arrival, so they are
+ * kept as running (count, sum of delays) per destination. Each arrival from
+ * origin O then adds count pairs to (O, D) for every destination D, with
+ * delay count*arrivalDelay + sum. Totals of the whole task are emitted at
+ * cleanup as (origin dest, sumDelay count).
+ * @author Peili Cao
+ *
+ */
+public class ConnectionReducer extends
+		Reducer<LegKey, ConnectionLeg, Text, Text> {
+
+	private long[] depCounts;
+	private double[] depSums;
+	private int[] touched;
+	private int numTouched;
+	private ConnectionPairs pairs;
+	private ConnectionMatrix matrix;
+
+	protected void setup(Context context) {
+		depCounts = new long[AirportCodes.NUM_IDS];
+		depSums = new double[AirportCodes.NUM_IDS];
+		touched = new int[AirportCodes.NUM_IDS];
+		pairs = new ConnectionPairs(context.getConfiguration().get(
+				ConnectionMatrixFinder.PAIRS));
+		matrix = new ConnectionMatrix();
+	}
+
+	@Override
+	public void reduce(LegKey key, Iterable<ConnectionLeg> values,
+			Context context) throws IOException, InterruptedException {
+		// Reset destinations of previous group
+		for (int i = 0; i < numTouched; i++) {
+			depCounts[touched[i]] = 0;
+			depSums[touched[i]] = 0.0;
+		}
+		numTouched = 0;
+
+		for (ConnectionLeg val : values) {
+			if (key.isSecondLeg()) {
+				int dest = val.getAirport();
+				if (depCounts[dest] == 0)
+					touched[numTouched++] = dest;
+				depCounts[dest]++;
+				depSums[dest] += val.getDelay();
+			} else if (numTouched > 0) {
+				int origin = val.getAirport();
+				double delay = val.getDelay();
+				if (pairs.isAll()) {
+					for (int i = 0; i < numTouched; i++)
+						addPairs(origin, touched[i], delay);
+				} else {
+					int[] dests = pairs.destsOf(origin);
+					for (int i = 0; dests != null && i < dests.length; i++)
+						addPairs(origin, dests[i], delay);
+				}
+			}
+		}
+	}
+
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		Text route = new Text();
+		Text total = new Text();
+		for (int o = 0; o < matrix.size(); o++) {
+			for (int d = 0; d < matrix.size(); d++) {
+				long count = matrix.getCount(o, d);
+				if (count == 0)
+					continue;
+				route.set(AirportCodes.decode(matrix.airport(o)) + "\t"
+						+ AirportCodes.decode(matrix.airport(d)));
+				total.set(matrix.getSum(o, d) + "\t" + count);
+				context.write(route, total);
+			}
+		}
+	}
+
+	/**
+	 * Pair the arrival from origin with every later departure to dest
+	 */
+	private void addPairs(int origin, int dest, double arrivalDelay) {
+		long count = depCounts[dest];
+		if (count == 0 || dest == origin)
+			return;
+		matrix.add(origin, dest, count * arrivalDelay + depSums[dest], count);
+	}
+}
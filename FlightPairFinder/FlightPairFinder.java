@@ -1,20 +1,19 @@
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.net.URI;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.WritableComparable;
-import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.CounterGroup;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 
+import localengine.ParallelJobRunner;
+
 /**
  * Join in MapReduce
  * 
@@ -24,178 +23,194 @@ import org.apache.hadoop.util.GenericOptionsParser;
  * flightdate, and the departure time of F2 must be later than the arriva time
  * of F1
  * <p>
- * There are two jobs:<br>
- * First job: 
- * Map Output Key: <b>(city, flightdate, time, tag)</b><br>
+ * There is one job:<br>
+ * Map Output Key: <b>(city, flightdate, time, tag)</b> packed in LegKey<br>
+ * Records are partitioned and grouped by (city, flightdate)<br>
  * Map Output Value: <b>delayMins</b><br>
- * Reduce Output Key: <b>pairDelayMin</b><br>
- * Reduce Output Value: <b>count</b><br>
+ * Reducers keep running totals of (pairDelayMin, count) and publish them as
+ * job counters. The driver computes the average from the counters and writes
+ * <b>numTotalPairs</b> and <b>avgDelayMin</b> to the output folder.
+ * <p>
+ * With <code>flight.join.mode=replicated</code>, the join is done on the map
+ * side by ReplicatedLegJoin instead.
+ * <p>
+ * With <code>flight.semijoin=first</code> (or <code>second</code>), a
+ * pre-pass builds a Bloom filter of the (city, flightdate) of first legs (or
+ * second legs), and mappers drop the legs of the other side which cannot
+ * pair before the shuffle, see LegSemiJoin.
+ * <p>
+ * With <code>flight.join.mode=windowed</code>, the legs need not have the same
+ * flightdate: F2 must depart between <code>flight.connect.min</code> and
+ * <code>flight.connect.max</code> minutes after F1 arrives, also across
+ * midnight. Legs are keyed by (city, absolute time, tag) in TimedLegKey,
+ * partitioned and grouped by city, and joined by WindowedPairReducer.
  * <p>
- * Second job: 
- * Map Output Key: <b>"dummy"</b><br>
- * Map Output Value: <b>(pairDelayMin,count)</b><br>
- * Reduce Output Key: <b>numTotalPairs</b><br>
- * Reduce Output Value: <b>avgDelayMin</b><br>
+ * With <code>flight.input.format=columnar</code>, the input is read as
+ * FlightRecord from the output of FlightDataConverter. Partitions outside
+ * June 2007 to May 2008 are pruned before the job starts, see
+ * FlightPartitions.
  * @author Peili Cao
  *
  */
 public class FlightPairFinder {
 
 	/**
-	 * Used for second job to map all (delays,num of pair) to same reduce call
+	 * Number of reducers of first job, 10 by default
 	 */
-	public static class DummyMapper extends
-			Mapper<Object, Text, Text, ImmeCountValue> {
-
-		private ImmeCountValue val;
-		private DoubleWritable pairDelayMin;
-		private IntWritable count;
-		private Text dummykey;
-
-		protected void setup(Context context) {
-			val = new ImmeCountValue();
-			pairDelayMin = new DoubleWritable();
-			count = new IntWritable();
-			//Make sure all records will go to same reduce call
-			dummykey = new Text("dummy");
-		}
-
-		public void map(Object key, Text value, Context context)
-				throws IOException, InterruptedException {
-			StringTokenizer itr = new StringTokenizer(value.toString());
-			while (itr.hasMoreTokens()) {
-				pairDelayMin.set(Double.parseDouble(itr.nextToken()));
-				count.set(Integer.parseInt(itr.nextToken()));
-				val.set(pairDelayMin, count);
-				context.write(dummykey, val);
-			}
-		}
-	}
+	public static final String REDUCE_TASKS = "flight.reduce.tasks";
 
 	/**
-	 * Calculate average delay
+	 * Join mode, "reduce" (default) for the sort-based reduce-side join,
+	 * "replicated" for the map-side join of ReplicatedLegJoin, "windowed" for
+	 * the connect-time windowed join of WindowedPairReducer
 	 */
-	public static class AvgDelayReducer extends
-			Reducer<Text, ImmeCountValue, IntWritable, DoubleWritable> {
-
-		private IntWritable totalNum = new IntWritable();
-		private DoubleWritable avgDelays = new DoubleWritable();
-
-		public void reduce(Text key, Iterable<ImmeCountValue> values,
-				Context context) throws IOException, InterruptedException {
-			double pairDelayMin = 0.0;
-			int count = 0;
-			for (ImmeCountValue val : values) {
-				pairDelayMin += val.getSum().get();
-				count += val.getNum().get();
-			}
-
-			totalNum.set(count);
-			avgDelays.set(pairDelayMin / (count * 1.0));
-			context.write(totalNum, avgDelays);
-		}
-	}
+	public static final String JOIN_MODE = "flight.join.mode";
 
-	/**
-	 * Secondary Sort Field Sorting <p>
-	 * Order: Flightdate ASC, time DESC, Tag ASC
-	 * 
-	 * @author Peili Cao
-	 *
-	 */
-	public static class Comparator extends WritableComparator {
-
-		protected Comparator() {
-
-			super(ImmeKey.class, true);
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] otherArgs = new GenericOptionsParser(conf, args)
+				.getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: flightfinder <in> <out>");
+			System.exit(2);
+		}
+		if (FileSystem.get(URI.create(otherArgs[1]), conf).exists(
+				new Path(otherArgs[1]))) {
+			System.err.println("Output folder " + otherArgs[1]
+					+ " already exists");
+			System.exit(2);
 		}
 
-		@Override
-		public int compare(WritableComparable one, WritableComparable two) {
-
-			ImmeKey k1 = (ImmeKey) one;
-			ImmeKey k2 = (ImmeKey) two;
-
-			int result = k1.getIntercity().compareTo(k2.getIntercity());
-			if (0 == result) {
-				result = k1.getFlightdate().compareTo(k2.getFlightdate());
-				if (0 == result) {
-					result = -1 * k1.getTime().compareTo(k2.getTime());
-					if (0 == result)
-						result = k1.getTag().compareTo(k2.getTag());
-				}
-			}
-			return result;
+		CounterGroup totals;
+		String mode = conf.get(JOIN_MODE, "reduce");
+		if ("replicated".equals(mode)) {
+			totals = ReplicatedLegJoin.run(conf, otherArgs[0], otherArgs[1]
+					+ "_firstlegs");
+		} else if ("windowed".equals(mode)) {
+			totals = runWindowedJoin(conf, otherArgs[0]);
+		} else {
+			totals = runReduceSideJoin(conf, otherArgs[0], otherArgs[1]
+					+ "_legfilter");
 		}
+		if (totals == null)
+			System.exit(1);
+
+		long count = totals.findCounter(FlightPairReducer.PAIRS).getValue();
+		double pairDelayMin = totals.findCounter(
+				FlightPairReducer.DELAY_CENTS).getValue() / 100.0;
+		writeResult(conf, otherArgs[1], count, pairDelayMin / (count * 1.0));
+		System.exit(0);
 
 	}
 
 	/**
-	 * Group Comparator Only consider City field so that Same city go to same
-	 * reduce call
+	 * Sort-based reduce-side join
 	 * 
-	 * @author Peili Cao
-	 *
+	 * @param conf
+	 * @param input
+	 * @param filter
+	 *            - temporary folder of the semi-join filter, deleted at the
+	 *            end
+	 * @return counters of FlightPairReducer.COUNTER_GROUP, null if job fails
+	 * @throws Exception
 	 */
-	public static class CustomGroupComparator extends WritableComparator {
-
-		protected CustomGroupComparator() {
-
-			super(ImmeKey.class, true);
+	private static CounterGroup runReduceSideJoin(Configuration conf,
+			String input, String filter) throws Exception {
+		Job job = new Job(conf, "Flight Pairs Find");
+		job.setJarByClass(FlightPairFinder.class);
+		if (ColumnarFlightInputFormat.isColumnar(conf)) {
+			//Typed records converted by FlightDataConverter
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+			job.setMapperClass(FlightPairRecordMapper.class);
+		} else {
+			job.setMapperClass(FlightPairMapper.class);
 		}
-
-		@Override
-		public int compare(WritableComparable one, WritableComparable two) {
-
-			ImmeKey k1 = (ImmeKey) one;
-			ImmeKey k2 = (ImmeKey) two;
-			int result = k1.getIntercity().compareTo(k2.getIntercity());
-			return result;
+		job.setReducerClass(FlightPairReducer.class);
+		job.setGroupingComparatorClass(LegKey.GroupComparator.class);
+		job.setSortComparatorClass(LegKey.Comparator.class);
+		job.setPartitionerClass(LegPartitioner.class);
+		job.setMapOutputKeyClass(LegKey.class);
+		job.setMapOutputValueClass(DoubleWritable.class);
+		job.setNumReduceTasks(conf.getInt(REDUCE_TASKS, 10));
+		//Totals are published as counters, no reduce output
+		job.setOutputFormatClass(NullOutputFormat.class);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(NullWritable.class);
+
+		FlightPartitions.addInputPaths(job, new Path(input),
+				LegParser.FIRST_MONTH, LegParser.LAST_MONTH);
+
+		//Balance (intercity, flightdate) ranges by sampled counts
+		job.getConfiguration().set(LegPartitioner.CUTPOINTS,
+				LegPartitioner.formatCutpoints(LegSampler.createCutpoints(job)));
+
+		ParallelJobRunner runner = new ParallelJobRunner(job);
+		boolean succeed;
+		if (LegSemiJoin.isEnabled(conf)) {
+			//Drop legs which cannot pair before the shuffle
+			succeed = LegSemiJoin.prepare(conf, input, filter, job)
+					&& runner.waitForCompletion(true);
+			FileSystem.get(URI.create(filter), conf).delete(new Path(filter),
+					true);
+		} else {
+			succeed = runner.waitForCompletion(true);
 		}
-
+		if (!succeed)
+			return null;
+		return runner.getCounters().getGroup(FlightPairReducer.COUNTER_GROUP);
 	}
 
-	public static void main(String[] args) throws Exception {
-		Configuration conf = new Configuration();
-		String[] otherArgs = new GenericOptionsParser(conf, args)
-				.getRemainingArgs();
-		if (otherArgs.length != 3) {
-			System.err.println("Usage: flightfinder <in> <imme> <out>");
-			System.exit(2);
-		}
-		
-		//First job
-		Job job = new Job(conf, "Flight Pairs Find");
+	/**
+	 * Time-windowed reduce-side join
+	 *
+	 * @param conf
+	 * @param input
+	 * @return counters of FlightPairReducer.COUNTER_GROUP, null if job fails
+	 * @throws Exception
+	 */
+	private static CounterGroup runWindowedJoin(Configuration conf,
+			String input) throws Exception {
+		Job job = new Job(conf, "Flight Pairs Windowed Join");
 		job.setJarByClass(FlightPairFinder.class);
-		job.setMapperClass(FlightPairMapper.class);
-		job.setReducerClass(FlightPairReducer.class);
-		job.setGroupingComparatorClass(CustomGroupComparator.class);
-		job.setSortComparatorClass(Comparator.class);
-		job.setMapOutputKeyClass(ImmeKey.class);
+		if (ColumnarFlightInputFormat.isColumnar(conf))
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+		job.setMapperClass(WindowedPairMapper.class);
+		job.setReducerClass(WindowedPairReducer.class);
+		job.setGroupingComparatorClass(TimedLegKey.GroupComparator.class);
+		job.setSortComparatorClass(TimedLegKey.Comparator.class);
+		job.setPartitionerClass(IntercityPartitioner.class);
+		job.setMapOutputKeyClass(TimedLegKey.class);
 		job.setMapOutputValueClass(DoubleWritable.class);
-		job.setNumReduceTasks(10);
-		job.setOutputKeyClass(DoubleWritable.class);
-		job.setOutputValueClass(IntWritable.class);
-
-		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
-		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
-
-		job.waitForCompletion(true);
-
-		//Second Job
-		Job job2 = new Job(conf, "Avg Delay Count");
-		job2.setJarByClass(FlightPairFinder.class);
-		job2.setMapperClass(DummyMapper.class);
-		job2.setReducerClass(AvgDelayReducer.class);
-		job2.setMapOutputKeyClass(Text.class);
-		job2.setMapOutputValueClass(ImmeCountValue.class);
-		job2.setNumReduceTasks(1);
-		job2.setOutputKeyClass(IntWritable.class);
-		job2.setOutputValueClass(DoubleWritable.class);
-		FileInputFormat.addInputPath(job2, new Path(otherArgs[1]));
-		FileOutputFormat.setOutputPath(job2, new Path(otherArgs[2]));
-		System.exit(job2.waitForCompletion(true) ? 0 : 1);
+		job.setNumReduceTasks(conf.getInt(REDUCE_TASKS, 10));
+		//Totals are published as counters, no reduce output
+		job.setOutputFormatClass(NullOutputFormat.class);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(NullWritable.class);
+
+		FlightPartitions.addInputPaths(job, new Path(input),
+				LegParser.FIRST_MONTH, LegParser.LAST_MONTH);
+
+		ParallelJobRunner runner = new ParallelJobRunner(job);
+		if (!runner.waitForCompletion(true))
+			return null;
+		return runner.getCounters().getGroup(FlightPairReducer.COUNTER_GROUP);
+	}
 
+	/**
+	 * Write (numTotalPairs, avgDelayMin) to the output folder
+	 * 
+	 * @param conf
+	 * @param folder
+	 * @param count
+	 * @param avgDelay
+	 * @throws IOException
+	 */
+	private static void writeResult(Configuration conf, String folder,
+			long count, double avgDelay) throws IOException {
+		FileSystem fs = FileSystem.get(URI.create(folder), conf);
+		FSDataOutputStream out = fs.create(new Path(folder, "part-r-00000"));
+		out.write((count + "\t" + avgDelay + "\n").getBytes());
+		out.close();
 	}
 
 }
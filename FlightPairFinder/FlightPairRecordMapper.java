@@ -0,0 +1,43 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Same as FlightPairMapper, but reads typed FlightRecord from
+ * ColumnarFlightInputFormat, so no csv is parsed.
+ * @author Peili Cao
+ *
+ */
+public class FlightPairRecordMapper extends
+		Mapper<NullWritable, FlightRecord, LegKey, DoubleWritable> {
+
+	private DoubleWritable delay;
+	private LegParser parser;
+	// Semi-join filter, null if not enabled
+	private LegBloomFilter filter;
+	private Counter dropped;
+
+	protected void setup(Context context) throws IOException {
+		delay = new DoubleWritable();
+		parser = new LegParser();
+		filter = LegSemiJoin.load(context.getConfiguration());
+		dropped = context.getCounter(LegSemiJoin.COUNTER_GROUP,
+				LegSemiJoin.DROPPED);
+	}
+
+	public void map(NullWritable key, FlightRecord value, Context context)
+			throws IOException, InterruptedException {
+		if (parser.parse(value)) {
+			if (filter != null && !filter.canMatch(parser.getKey())) {
+				// No leg of the other side on this (intercity, flightdate)
+				dropped.increment(1);
+				return;
+			}
+			delay.set(parser.getDelay());
+			context.write(parser.getKey(), delay);
+		}
+	}
+}
@@ -1,34 +1,39 @@
 import java.io.IOException;
 
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
+/**
+ * One reduce call receives the legs of one (intercity, flightdate), ordered by
+ * time DESC, first leg before second leg when time is equal.
+ * <p>
+ * Keeps running totals of (sum of pair delays, number of pairs) and publishes
+ * them as job counters at cleanup, the sum in hundredths of minutes. Nothing
+ * is written to the output.
+ * @author Peili Cao
+ *
+ */
 public class FlightPairReducer extends
-		Reducer<ImmeKey, DoubleWritable, DoubleWritable,IntWritable> {
+		Reducer<LegKey, DoubleWritable, NullWritable,NullWritable> {
 
-	private DoubleWritable result = new DoubleWritable();
-	private IntWritable num = new IntWritable();
+	public static final String COUNTER_GROUP = "FlightPair";
+	public static final String PAIRS = "Pairs";
+	public static final String DELAY_CENTS = "DelayCents";
+
+	private double totalDelay = 0.0;
+	private long totalPairs = 0;
 
 	@Override
-	public void reduce(ImmeKey key, Iterable<DoubleWritable> values,
+	public void reduce(LegKey key, Iterable<DoubleWritable> values,
 			Context context) throws IOException, InterruptedException {
 		
 		double frtDelay = 0.0;
 		int sndDelay = 0;
 		int count = 0;
 		int sumDelay = 0;
-		String flightDate = "";
-		String curFlight;
 		for(DoubleWritable val : values){
-			curFlight = key.getFlightdate().toString();
-			if(!curFlight.equals(flightDate)){
-				//Flightdate update, reset related variables
-				flightDate = curFlight;
-				sumDelay = 0;
-				count = 0;
-			}
-			if(key.getTag().toString().equals("B")){
+			if(key.isSecondLeg()){
 				//Flight is Second leg
 				//update sum and count
 				sumDelay += val.get();
@@ -40,13 +45,18 @@ public class FlightPairReducer extends
 					// sum of delay = count*firstdelay + sum of seconddelay
 					frtDelay = val.get();
 					sndDelay = sumDelay;
-					result.set(frtDelay*count+sndDelay);
-					num.set(count);
-					context.write(result,num);
+					totalDelay += frtDelay*count+sndDelay;
+					totalPairs += count;
 				}
 			}
 		}
 		
 	}
 
+	protected void cleanup(Context context) {
+		context.getCounter(COUNTER_GROUP, PAIRS).increment(totalPairs);
+		context.getCounter(COUNTER_GROUP, DELAY_CENTS).increment(
+				Math.round(totalDelay * 100));
+	}
+
 }
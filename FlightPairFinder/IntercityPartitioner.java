@@ -0,0 +1,16 @@
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioning records only consider intercity, so the whole time stream of
+ * an intercity is read by one reducer.
+ * @author Peili Cao
+ *
+ */
+public class IntercityPartitioner extends Partitioner<TimedLegKey, Writable> {
+
+	@Override
+	public int getPartition(TimedLegKey key, Writable value, int numPartitions) {
+		return (key.getIntercity() * 127 & Integer.MAX_VALUE) % numPartitions;
+	}
+}
@@ -0,0 +1,173 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Bloom filter of the (intercity, flightdate) groups of one side of the join,
+ * see LegKey.getGroup().
+ * <p>
+ * The group is already a packed long, so it is hashed directly, no key object
+ * or byte array is created per leg. Bit positions come from double hashing of
+ * a 64-bit mix of the group. Filters of the same size are merged by OR.
+ * @author Peili Cao
+ *
+ */
+public class LegBloomFilter implements Writable {
+
+	private long[] bits;
+	private int numHashes;
+	// Side of the join the groups were added from
+	private boolean secondLegs;
+
+	public LegBloomFilter() {
+		bits = new long[0];
+	}
+
+	/**
+	 * @param numBits
+	 *            - size of the filter, rounded up to a multiple of 64
+	 * @param numHashes
+	 *            - number of bits set per group
+	 * @param secondLegs
+	 *            - true if the groups are added from second legs
+	 */
+	public LegBloomFilter(int numBits, int numHashes, boolean secondLegs) {
+		if (numBits <= 0 || numHashes <= 0)
+			throw new IllegalArgumentException("Bad filter size " + numBits
+					+ " bits, " + numHashes + " hashes");
+		this.bits = new long[(numBits + 63) >>> 6];
+		this.numHashes = numHashes;
+		this.secondLegs = secondLegs;
+	}
+
+	/**
+	 * Add the group of a leg
+	 *
+	 * @param group
+	 *            - LegKey.getGroup()
+	 */
+	public void add(long group) {
+		long hash = mix(group);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long numBits = (long) bits.length << 6;
+		for (int i = 0; i < numHashes; i++) {
+			int combined = h1 + i * h2;
+			long bit = (combined & Integer.MAX_VALUE) % numBits;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @param group
+	 *            - LegKey.getGroup()
+	 * @return false if the group was surely never added
+	 */
+	public boolean mightContain(long group) {
+		long hash = mix(group);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long numBits = (long) bits.length << 6;
+		for (int i = 0; i < numHashes; i++) {
+			int combined = h1 + i * h2;
+			long bit = (combined & Integer.MAX_VALUE) % numBits;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param key
+	 *            - a parsed leg
+	 * @return false if the leg belongs to the filtered side and no leg of the
+	 *         other side has its group, so it cannot be part of a pair
+	 */
+	public boolean canMatch(LegKey key) {
+		return key.isSecondLeg() == secondLegs || mightContain(key.getGroup());
+	}
+
+	/**
+	 * @return true if the groups are added from second legs
+	 */
+	public boolean isSecondLegs() {
+		return secondLegs;
+	}
+
+	/**
+	 * Merge another filter of the same size and side into this one
+	 *
+	 * @param other
+	 */
+	public void or(LegBloomFilter other) {
+		if (other.bits.length != bits.length || other.numHashes != numHashes
+				|| other.secondLegs != secondLegs)
+			throw new IllegalArgumentException("Filters do not match");
+		for (int i = 0; i < bits.length; i++)
+			bits[i] |= other.bits[i];
+	}
+
+	/**
+	 * Copy another filter into this one, reusing the bit array if possible
+	 *
+	 * @param other
+	 */
+	public void set(LegBloomFilter other) {
+		if (bits.length != other.bits.length)
+			bits = new long[other.bits.length];
+		System.arraycopy(other.bits, 0, bits, 0, bits.length);
+		numHashes = other.numHashes;
+		secondLegs = other.secondLegs;
+	}
+
+	/**
+	 * @return number of bits set, to estimate the false positive rate
+	 */
+	public int cardinality() {
+		int count = 0;
+		for (long word : bits)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeBoolean(secondLegs);
+		out.writeInt(numHashes);
+		out.writeInt(bits.length);
+		for (long word : bits)
+			out.writeLong(word);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		secondLegs = in.readBoolean();
+		numHashes = in.readInt();
+		int length = in.readInt();
+		if (bits.length != length)
+			bits = new long[length];
+		for (int i = 0; i < length; i++)
+			bits[i] = in.readLong();
+	}
+
+	@Override
+	public String toString() {
+		return (secondLegs ? "second" : "first") + " legs, "
+				+ ((long) bits.length << 6) + " bits, " + numHashes
+				+ " hashes, " + cardinality() + " set";
+	}
+
+	/**
+	 * 64-bit finalizer of MurmurHash3, spreads the packed fields over all bits
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * In-memory index of first legs for the replicated join.
+ * <p>
+ * Legs are sorted by (intercity, flightdate) and then by arrival time, and
+ * kept in parallel primitive arrays together with the prefix sums of their
+ * delays. A probe binary searches the (intercity, flightdate) range, then the
+ * arrival times, so the number of first legs arriving before a departure and
+ * the sum of their delays are found without visiting each leg.
+ * @author Peili Cao
+ *
+ */
+public class LegIndex {
+
+	private long[] groups;
+	private int[] times;
+	private double[] prefixDelays;
+	private int size;
+
+	// Result of the last probe
+	private int count;
+	private double sumDelay;
+
+	public LegIndex() {
+		groups = new long[1024];
+		times = new int[1024];
+		prefixDelays = new double[1025];
+		size = 0;
+	}
+
+	/**
+	 * Add one first leg, must be called before build
+	 *
+	 * @param key
+	 *            - time of the key is the arrival time
+	 * @param delay
+	 */
+	public void add(LegKey key, double delay) {
+		if (size == groups.length) {
+			groups = Arrays.copyOf(groups, size * 2);
+			times = Arrays.copyOf(times, size * 2);
+			prefixDelays = Arrays.copyOf(prefixDelays, size * 2 + 1);
+		}
+		groups[size] = key.getGroup();
+		times[size] = key.getMinutes();
+		// Delay is kept here until build turns it into prefix sums
+		prefixDelays[size + 1] = delay;
+		size++;
+	}
+
+	/**
+	 * Sort the legs and compute prefix sums of delays
+	 */
+	public void build() {
+		// Sort (group, time, delay) together by an index order
+		long[] sortKeys = new long[size];
+		for (int i = 0; i < size; i++) {
+			// group uses 36 bits, time 11 bits, so (group, time) fits in 47
+			sortKeys[i] = (groups[i] << 11) | times[i];
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		final long[] keys = sortKeys;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return keys[a] < keys[b] ? -1 : (keys[a] == keys[b] ? 0 : 1);
+			}
+		});
+
+		long[] sortedGroups = new long[size];
+		int[] sortedTimes = new int[size];
+		double[] sums = new double[size + 1];
+		for (int i = 0; i < size; i++) {
+			int from = order[i];
+			sortedGroups[i] = groups[from];
+			sortedTimes[i] = times[from];
+			sums[i + 1] = sums[i] + prefixDelays[from + 1];
+		}
+		groups = sortedGroups;
+		times = sortedTimes;
+		prefixDelays = sums;
+	}
+
+	/**
+	 * Find first legs of the same (intercity, flightdate) which arrive before
+	 * the departure time. Results are read by getCount and getSumDelay.
+	 *
+	 * @param key
+	 *            - time of the key is the departure time of second leg
+	 * @return number of first legs found
+	 */
+	public int probe(LegKey key) {
+		long group = key.getGroup();
+		int start = lowerBound(group, 0, 0, size);
+		int end = lowerBound(group + 1, 0, start, size);
+		// Arrival must be strictly earlier than departure
+		int last = lowerBound(group, key.getMinutes(), start, end);
+		count = last - start;
+		sumDelay = prefixDelays[last] - prefixDelays[start];
+		return count;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double getSumDelay() {
+		return sumDelay;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return first index in [from, to) whose (group, time) is not less than
+	 *         the given one
+	 */
+	private int lowerBound(long group, int time, int from, int to) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (groups[mid] < group
+					|| (groups[mid] == group && times[mid] < time))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
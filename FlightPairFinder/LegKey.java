@@ -0,0 +1,168 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Packed ImmediateKey of first job<br>
+ * <b>(intercity, flightdate, time, tag)</b> packed in one long:
+ * <p>
+ * bits 32-47: intercity id (see AirportCodes)<br>
+ * bits 12-31: flightdate as days since 1970-01-01<br>
+ * bits 1-11: time as minutes of day, inverted so that time is DESC<br>
+ * bit 0: tag, 0 for first leg(A), 1 for second leg(B)
+ * <p>
+ * Sorting the longs gives intercity ASC, flightdate ASC, time DESC, tag ASC,
+ * which is the order the join needs. Serialized key is 8 bytes.
+ *
+ * @author Peili Cao
+ *
+ */
+public class LegKey implements WritableComparable<LegKey> {
+
+	static {
+		// Raw comparator, used whenever no sort comparator is set
+		WritableComparator.define(LegKey.class, new Comparator());
+	}
+
+	private static final int TIME_SHIFT = 1;
+	private static final int DAY_SHIFT = 12;
+	private static final int CITY_SHIFT = 32;
+	private static final long TIME_MASK = (1L << 11) - 1;
+	private static final long DAY_MASK = (1L << 20) - 1;
+	private static final long CITY_MASK = (1L << 16) - 1;
+
+	private long packed;
+
+	/**
+	 * @param intercity
+	 *            - airport id from AirportCodes
+	 * @param epochDay
+	 *            - days since 1970-01-01
+	 * @param minutes
+	 *            - minutes of day, 0-1440
+	 * @param secondLeg
+	 *            - true for second leg(B), false for first leg(A)
+	 */
+	public void set(int intercity, int epochDay, int minutes, boolean secondLeg) {
+		packed = ((intercity & CITY_MASK) << CITY_SHIFT)
+				| ((epochDay & DAY_MASK) << DAY_SHIFT)
+				| (((TIME_MASK - minutes) & TIME_MASK) << TIME_SHIFT)
+				| (secondLeg ? 1L : 0L);
+	}
+
+	public int getIntercity() {
+		return (int) ((packed >>> CITY_SHIFT) & CITY_MASK);
+	}
+
+	public int getEpochDay() {
+		return (int) ((packed >>> DAY_SHIFT) & DAY_MASK);
+	}
+
+	public int getMinutes() {
+		return (int) (TIME_MASK - ((packed >>> TIME_SHIFT) & TIME_MASK));
+	}
+
+	public boolean isSecondLeg() {
+		return (packed & 1L) == 1L;
+	}
+
+	public long get() {
+		return packed;
+	}
+
+	/**
+	 * @return (intercity, flightdate) part of the key, used for grouping and
+	 *         partitioning
+	 */
+	public long getGroup() {
+		return packed >>> DAY_SHIFT;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		packed = in.readLong();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(packed);
+	}
+
+	@Override
+	public String toString() {
+		return AirportCodes.decode(getIntercity()) + " " + getEpochDay() + " "
+				+ getMinutes() + " " + (isSecondLeg() ? "B" : "A");
+	}
+
+	@Override
+	public int compareTo(LegKey moo) {
+		return compareLong(packed, moo.get());
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (packed ^ (packed >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof LegKey) {
+			return packed == ((LegKey) o).get();
+		}
+		return false;
+	}
+
+	private static int compareLong(long a, long b) {
+		return (a < b ? -1 : (a == b ? 0 : 1));
+	}
+
+	/**
+	 * Secondary Sort<br>
+	 * Order: intercity ASC, flightdate ASC, time DESC, tag ASC
+	 * <p>
+	 * Compares the serialized 8 bytes in place.
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(LegKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareLong(readLong(b1, s1), readLong(b2, s2));
+		}
+
+		@Override
+		public int compare(WritableComparable one, WritableComparable two) {
+			return ((LegKey) one).compareTo((LegKey) two);
+		}
+	}
+
+	/**
+	 * Group Comparator<br>
+	 * Only consider (intercity, flightdate) so that legs of same city and same
+	 * day go to same reduce call
+	 */
+	public static class GroupComparator extends WritableComparator {
+
+		public GroupComparator() {
+			super(LegKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareLong(readLong(b1, s1) >>> DAY_SHIFT,
+					readLong(b2, s2) >>> DAY_SHIFT);
+		}
+
+		@Override
+		public int compare(WritableComparable one, WritableComparable two) {
+			return compareLong(((LegKey) one).getGroup(),
+					((LegKey) two).getGroup());
+		}
+	}
+}
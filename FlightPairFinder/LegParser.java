@@ -0,0 +1,204 @@
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Parse one line of on-time csv into a leg of ORD->X->JFK.
+ * <p>
+ * Used by FlightPairMapper and by the sampling pre-pass, so both see the same
+ * keys. FlightRecord of the columnar input is parsed by the same rules.<br>
+ * First leg: ORD->X, time is arrival time<br>
+ * Second leg: X->JFK, time is departure time<br>
+ * Both legs must fly between 2007.6 and 2008.5, no cancelled no diverted.
+ * @author Peili Cao
+ *
+ */
+public class LegParser {
+
+	/**
+	 * line[0]: year, line[2]: month, line[5]: flightdate
+	 * line[11]: origin, line[17]: dest, line[24]: depTime
+	 * line[35]: arrTime, line[37]: arrDelayMins
+	 * line[41]: cancelled, line[43]: diverted
+	 */
+	static final int YEAR = 0;
+	static final int MONTH = 2;
+	static final int FLIGHTDATE = 5;
+	static final int ORIGIN = 11;
+	static final int DEST = 17;
+	static final int DEP_TIME = 24;
+	static final int ARR_TIME = 35;
+	static final int ARR_DELAY = 37;
+	static final int CANCELLED = 41;
+	static final int DIVERTED = 43;
+
+	/** Months read by the job, yyyyMM */
+	static final int FIRST_MONTH = 200706;
+	static final int LAST_MONTH = 200805;
+
+	private static final byte[] YEAR_2007 = "2007".getBytes();
+	private static final byte[] YEAR_2008 = "2008".getBytes();
+	private static final byte[] ZERO = "0.00".getBytes();
+	private static final byte[] ORD = "ORD".getBytes();
+	private static final byte[] JFK = "JFK".getBytes();
+	private static final int ORD_ID = AirportCodes.encode("ORD");
+	private static final int JFK_ID = AirportCodes.encode("JFK");
+
+	private static final long MINUTES_PER_DAY = 1440;
+
+	private CSVFieldExtractor parser;
+	private LegKey key;
+	private double delay;
+	private long absoluteTime;
+
+	public LegParser() {
+		parser = new CSVFieldExtractor(YEAR, MONTH, FLIGHTDATE, ORIGIN, DEST,
+				DEP_TIME, ARR_TIME, ARR_DELAY, CANCELLED, DIVERTED);
+		key = new LegKey();
+	}
+
+	/**
+	 * Parse one line, the key and the delay are set if it is a leg
+	 *
+	 * @param value
+	 *            - one line of csv
+	 * @return true if the line is a first leg or a second leg
+	 */
+	public boolean parse(Text value) {
+		if(parser.parse(value) < 56)
+			return false;
+		int month = 0;
+		boolean time1;
+		boolean time2;
+		boolean flag = false;
+		boolean secondLeg = false;
+		int intercity = 0;
+		int time = 0;
+		boolean fromOrd;
+		boolean toJfk;
+		month = parser.getInt(MONTH);
+		
+		time1 = parser.equals(YEAR, YEAR_2007) && (month>=6) && (month<=12);
+		time2 = parser.equals(YEAR, YEAR_2008) && (month>=1) && (month<=5);
+		
+		//Flight during 2007.6 ~ 2008.5 and No cancelled no diverted
+		if((time1 || time2) && parser.equals(CANCELLED, ZERO) && parser.equals(DIVERTED, ZERO)){
+			fromOrd = parser.equals(ORIGIN, ORD);
+			toJfk = parser.equals(DEST, JFK);
+			if(fromOrd && !toJfk){
+				//First Leg
+				
+				/*
+				 * Make sure when time is equal, 
+				 * A(first leg) will come first before B(second leg)
+				 */
+				secondLeg = false;
+				//Set arrival time as time
+				time = parser.getMinuteOfDay(ARR_TIME);
+				intercity = parser.getAirport(DEST);
+				flag = true;
+			}else if(!fromOrd && toJfk){
+				//Second Leg
+				
+				/*
+				 * Make sure when time is equal, 
+				 * A(first leg) will come first before B(second leg)
+				 */
+				secondLeg = true;
+				intercity = parser.getAirport(ORIGIN);
+				//Set departure time as time
+				time = parser.getMinuteOfDay(DEP_TIME);
+				flag = true;
+			}
+			
+			if(flag){
+				int epochDay = parser.getEpochDay(FLIGHTDATE);
+				key.set(intercity,epochDay,time,secondLeg);
+				delay = parser.getDecimal(ARR_DELAY);
+				// Overnight first leg arrives the day after its flightdate
+				boolean overnight = !secondLeg && parser.length(DEP_TIME) > 0
+						&& time < parser.getMinuteOfDay(DEP_TIME);
+				absoluteTime = (epochDay + (overnight ? 1 : 0)) * MINUTES_PER_DAY
+						+ time;
+			}
+		}
+		return flag;
+	}
+
+	/**
+	 * Same as parse(Text) for a typed record
+	 *
+	 * @param record
+	 *            - one flight of the columnar input
+	 * @return true if the record is a first leg or a second leg
+	 */
+	public boolean parse(FlightRecord record) {
+		int year = record.getYear();
+		int month = record.getMonth();
+		boolean inRange = (year == 2007 && month >= 6)
+				|| (year == 2008 && month <= 5);
+		if (!inRange || record.isCancelled() || record.isDiverted()
+				|| !record.hasArrDelay())
+			return false;
+		boolean fromOrd = record.getOrigin() == ORD_ID;
+		boolean toJfk = record.getDest() == JFK_ID;
+		if (fromOrd && !toJfk) {
+			// First Leg, arrival time as time
+			if (record.getArrTime() == FlightRecord.MISSING)
+				return false;
+			key.set(record.getDest(), record.getEpochDay(),
+					record.getArrTime(), false);
+			boolean overnight = record.getDepTime() != FlightRecord.MISSING
+					&& record.getArrTime() < record.getDepTime();
+			absoluteTime = (record.getEpochDay() + (overnight ? 1 : 0))
+					* MINUTES_PER_DAY + record.getArrTime();
+		} else if (!fromOrd && toJfk) {
+			// Second Leg, departure time as time
+			if (record.getDepTime() == FlightRecord.MISSING)
+				return false;
+			key.set(record.getOrigin(), record.getEpochDay(),
+					record.getDepTime(), true);
+			absoluteTime = (long) record.getEpochDay() * MINUTES_PER_DAY
+					+ record.getDepTime();
+		} else {
+			return false;
+		}
+		delay = record.getArrDelay();
+		return true;
+	}
+
+	/**
+	 * Parse a value of either input format
+	 *
+	 * @param value
+	 *            - Text of csv or FlightRecord
+	 * @return true if the value is a first leg or a second leg
+	 */
+	public boolean parse(Writable value) {
+		if (value instanceof FlightRecord)
+			return parse((FlightRecord) value);
+		return parse((Text) value);
+	}
+
+	/**
+	 * @return key of the last parsed leg, reused between calls
+	 */
+	public LegKey getKey() {
+		return key;
+	}
+
+	/**
+	 * @return time of the last parsed leg as minutes since 1970-01-01 00:00:
+	 *         arrival of a first leg, on the next day if it arrives after
+	 *         midnight, departure of a second leg
+	 */
+	public long getAbsoluteTime() {
+		return absoluteTime;
+	}
+
+	/**
+	 * @return arrival delay of the last parsed leg
+	 */
+	public double getDelay() {
+		return delay;
+	}
+}
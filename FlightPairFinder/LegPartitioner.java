@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioning records only consider (intercity, flightdate), so legs of a
+ * busy hub spread over all reducers while legs of one day stay together.
+ * <p>
+ * Reducers own contiguous ranges of (intercity, flightdate). The cut points
+ * are created by LegSampler so that each range holds about the same number
+ * of legs, and are passed through configuration
+ * <code>flight.partition.cutpoints</code>. Without cut points, records are
+ * partitioned by hash of (intercity, flightdate).
+ * @author Peili Cao
+ *
+ */
+public class LegPartitioner extends Partitioner<LegKey, Writable>
+		implements Configurable {
+
+	public static final String CUTPOINTS = "flight.partition.cutpoints";
+
+	private Configuration conf;
+	private long[] cutpoints;
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		cutpoints = parseCutpoints(conf.get(CUTPOINTS, ""));
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public int getPartition(LegKey key, Writable value, int numPartitions) {
+		long group = key.getGroup();
+		if (cutpoints.length == 0 || cutpoints.length >= numPartitions) {
+			int hash = (int) (group ^ (group >>> 32));
+			return (hash & Integer.MAX_VALUE) % numPartitions;
+		}
+		// Number of cut points not greater than group
+		int pos = Arrays.binarySearch(cutpoints, group);
+		if (pos >= 0)
+			return pos + 1;
+		return -pos - 1;
+	}
+
+	/**
+	 * @param cutpoints
+	 *            - ascending groups, first group of reducer 1, 2, ...
+	 * @return the string stored in configuration
+	 */
+	public static String formatCutpoints(long[] cutpoints) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < cutpoints.length; i++) {
+			if (i > 0)
+				builder.append(",");
+			builder.append(cutpoints[i]);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @param value
+	 *            - the string stored in configuration
+	 * @return ascending cut points
+	 */
+	public static long[] parseCutpoints(String value) {
+		if (value == null || value.trim().length() == 0)
+			return new long[0];
+		String[] items = value.split(",");
+		long[] cutpoints = new long[items.length];
+		for (int i = 0; i < items.length; i++)
+			cutpoints[i] = Long.parseLong(items[i]);
+		return cutpoints;
+	}
+
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Sampling pre-pass of FlightPairFinder.
+ * <p>
+ * Reads the first records of some input splits, counts legs of each
+ * (intercity, flightdate), then cuts the sorted groups into ranges holding
+ * about the same number of legs, one range per reducer.<br>
+ * Splits are read with the input format of the job, csv lines and
+ * FlightRecord are both counted.
+ * <p>
+ * <code>flight.sample.splits</code> - number of splits to sample<br>
+ * <code>flight.sample.records</code> - number of records read per split
+ * @author Peili Cao
+ *
+ */
+public class LegSampler {
+
+	public static final String SAMPLE_SPLITS = "flight.sample.splits";
+	public static final String SAMPLE_RECORDS = "flight.sample.records";
+
+	/**
+	 * Sample input of the job and create the cut points of LegPartitioner
+	 *
+	 * @param job
+	 *            - input paths and number of reducers must be already set
+	 * @return ascending cut points, empty if nothing is sampled
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public static long[] createCutpoints(Job job) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		return createCutpoints(sample(job), job.getNumReduceTasks());
+	}
+
+	/**
+	 * Count legs of each (intercity, flightdate) in sampled records
+	 *
+	 * @param job
+	 * @return group to number of legs, ordered by group
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public static TreeMap<Long, Long> sample(Job job) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		Configuration conf = job.getConfiguration();
+		int numSplits = conf.getInt(SAMPLE_SPLITS, 10);
+		int numRecords = conf.getInt(SAMPLE_RECORDS, 10000);
+
+		TreeMap<Long, Long> counts = new TreeMap<Long, Long>();
+		LegParser parser = new LegParser();
+		InputFormat<?, ?> format = ReflectionUtils.newInstance(
+				job.getInputFormatClass(), conf);
+		List<InputSplit> splits = format.getSplits(job);
+
+		// Take splits evenly over the input
+		int step = Math.max(1, splits.size() / numSplits);
+		for (int i = 0; i < splits.size(); i += step) {
+			TaskAttemptContext context = new TaskAttemptContext(conf,
+					new TaskAttemptID());
+			RecordReader<?, ?> reader = format.createRecordReader(
+					splits.get(i), context);
+			reader.initialize(splits.get(i), context);
+			int read = 0;
+			while (read < numRecords && reader.nextKeyValue()) {
+				read++;
+				Object value = reader.getCurrentValue();
+				boolean leg = value instanceof FlightRecord ? parser
+						.parse((FlightRecord) value) : parser.parse((Text) value);
+				if (!leg)
+					continue;
+				long group = parser.getKey().getGroup();
+				Long count = counts.get(group);
+				counts.put(group, count == null ? 1L : count + 1);
+			}
+			reader.close();
+		}
+		return counts;
+	}
+
+	/**
+	 * Cut sorted groups into ranges of about the same size
+	 *
+	 * @param counts
+	 *            - group to number of legs, ordered by group
+	 * @param numReducers
+	 * @return ascending cut points, the first group of reducer 1, 2, ...
+	 */
+	public static long[] createCutpoints(TreeMap<Long, Long> counts,
+			int numReducers) {
+		if (numReducers <= 1 || counts.size() < numReducers)
+			return new long[0];
+
+		long total = 0;
+		for (long count : counts.values())
+			total += count;
+
+		long[] cutpoints = new long[numReducers - 1];
+		int next = 0;
+		long seen = 0;
+		for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+			// Start a new range once the previous ones hold their share
+			if (next < cutpoints.length
+					&& seen >= total * (next + 1) / numReducers) {
+				cutpoints[next++] = entry.getKey();
+			}
+			seen += entry.getValue();
+		}
+		if (next < cutpoints.length)
+			return new long[0];
+		return cutpoints;
+	}
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import localengine.ParallelJobRunner;
+
+/**
+ * Bloom filter semi-join prefilter of the reduce-side join.
+ * <p>
+ * Most legs of one side have no leg of the other side with the same
+ * (intercity, flightdate), but are still shuffled to FlightPairReducer just
+ * to be dropped there. A pre-pass builds a LegBloomFilter of the groups of
+ * one side:<br>
+ * Map: every mapper adds the groups of its legs to its own filter, and emits
+ * the filter once at cleanup.<br>
+ * Reduce: one reducer ORs the filters into one SequenceFile.<br>
+ * The file is shipped to the mappers of the join with DistributedCache, and
+ * legs of the other side whose group is surely not in the filter are dropped
+ * before the shuffle. False positives are only shuffled, a leg which can pair
+ * is never dropped, so the result is the same.
+ * <p>
+ * <code>flight.semijoin</code> - "none" (default), "first" to build from
+ * first legs and drop second legs, "second" for the reverse<br>
+ * <code>flight.semijoin.bits</code> - filter size in bits, default 2^20<br>
+ * <code>flight.semijoin.hashes</code> - bits set per group, default 4
+ * @author Peili Cao
+ *
+ */
+public class LegSemiJoin {
+
+	public static final String MODE = "flight.semijoin";
+	public static final String BITS = "flight.semijoin.bits";
+	public static final String HASHES = "flight.semijoin.hashes";
+
+	public static final String COUNTER_GROUP = "FlightPairSemiJoin";
+	public static final String DROPPED = "DroppedLegs";
+
+	/**
+	 * Build the filter of one mapper
+	 */
+	public static class FilterMapper extends
+			Mapper<Object, Writable, NullWritable, LegBloomFilter> {
+
+		private LegParser parser;
+		private LegBloomFilter filter;
+
+		protected void setup(Context context) {
+			parser = new LegParser();
+			filter = newFilter(context.getConfiguration());
+		}
+
+		public void map(Object key, Writable value, Context context) {
+			if (parser.parse(value)
+					&& parser.getKey().isSecondLeg() == filter.isSecondLegs())
+				filter.add(parser.getKey().getGroup());
+		}
+
+		protected void cleanup(Context context) throws IOException,
+				InterruptedException {
+			context.write(NullWritable.get(), filter);
+		}
+	}
+
+	/**
+	 * OR the filters of all mappers
+	 */
+	public static class FilterReducer extends
+			Reducer<NullWritable, LegBloomFilter, NullWritable, LegBloomFilter> {
+
+		@Override
+		public void reduce(NullWritable key, Iterable<LegBloomFilter> values,
+				Context context) throws IOException, InterruptedException {
+			LegBloomFilter merged = null;
+			for (LegBloomFilter val : values) {
+				if (merged == null) {
+					// Values are reused, so the first one is copied
+					merged = new LegBloomFilter();
+					merged.set(val);
+				} else {
+					merged.or(val);
+				}
+			}
+			context.write(key, merged);
+		}
+	}
+
+	/**
+	 * @param conf
+	 * @return true if <code>flight.semijoin</code> is "first" or "second"
+	 */
+	public static boolean isEnabled(Configuration conf) {
+		String mode = conf.get(MODE, "none");
+		if ("none".equals(mode))
+			return false;
+		if ("first".equals(mode) || "second".equals(mode))
+			return true;
+		throw new IllegalArgumentException("Unknown " + MODE + " " + mode);
+	}
+
+	/**
+	 * Run the pre-pass and add its filter to the DistributedCache of the join
+	 *
+	 * @param conf
+	 *            - configuration of the driver, not of the join, so the
+	 *            pre-pass does not inherit the join's classes
+	 * @param input
+	 *            - on-time csv or columnar files
+	 * @param folder
+	 *            - temporary folder of the filter, to be deleted by the
+	 *            caller after the join
+	 * @param join
+	 *            - the reduce-side join
+	 * @return false if the pre-pass fails
+	 * @throws Exception
+	 */
+	public static boolean prepare(Configuration conf, String input,
+			String folder, Job join) throws Exception {
+		Job job = new Job(conf, "Flight Pairs Semi-join Filter");
+		job.setJarByClass(LegSemiJoin.class);
+		if (ColumnarFlightInputFormat.isColumnar(conf))
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+		job.setMapperClass(FilterMapper.class);
+		job.setReducerClass(FilterReducer.class);
+		job.setNumReduceTasks(1);
+		job.setOutputKeyClass(NullWritable.class);
+		job.setOutputValueClass(LegBloomFilter.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FlightPartitions.addInputPaths(job, new Path(input),
+				LegParser.FIRST_MONTH, LegParser.LAST_MONTH);
+		FileOutputFormat.setOutputPath(job, new Path(folder));
+		if (!new ParallelJobRunner(job).waitForCompletion(true))
+			return false;
+
+		FileSystem fs = FileSystem.get(URI.create(folder), conf);
+		Path filter = fs.makeQualified(new Path(folder, "part-r-00000"));
+		DistributedCache.addCacheFile(filter.toUri(), join.getConfiguration());
+		return true;
+	}
+
+	/**
+	 * Load the filter from DistributedCache.
+	 * This function will run at each time a mapper setup.
+	 *
+	 * @param conf
+	 * @return the filter, null if the semi-join is not enabled
+	 * @throws IOException
+	 */
+	public static LegBloomFilter load(Configuration conf) throws IOException {
+		if (!isEnabled(conf))
+			return null;
+		Path[] files = DistributedCache.getLocalCacheFiles(conf);
+		if (files == null)
+			throw new IOException(MODE + " is set but no filter is cached");
+		FileSystem local = FileSystem.getLocal(conf);
+		LegBloomFilter filter = new LegBloomFilter();
+		for (Path path : files) {
+			if (!path.getName().startsWith("part-r-"))
+				continue;
+			SequenceFile.Reader reader = new SequenceFile.Reader(local, path,
+					conf);
+			boolean found = reader.next(NullWritable.get(), filter);
+			reader.close();
+			if (found)
+				return filter;
+		}
+		throw new IOException(MODE + " is set but no filter is cached");
+	}
+
+	private static LegBloomFilter newFilter(Configuration conf) {
+		return new LegBloomFilter(conf.getInt(BITS, 1 << 20), conf.getInt(
+				HASHES, 4), "second".equals(conf.get(MODE)));
+	}
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import localengine.ParallelJobRunner;
+
+/**
+ * Replicated (map-side) join mode of FlightPairFinder.
+ * <p>
+ * Both legs are small filtered subsets of the input, so instead of shuffling
+ * them to reducers:<br>
+ * First pass (map only): extract first legs (ORD->X) as (LegKey, delay) into
+ * a SequenceFile.<br>
+ * Second pass (map only): every mapper loads all first legs from
+ * DistributedCache into a LegIndex, then looks up each second leg (X->JFK)
+ * and adds up (pairDelayMin, count). Totals are published with the same
+ * counters as FlightPairReducer.<br>
+ * Mappers take csv lines or FlightRecord, depending on
+ * <code>flight.input.format</code>.
+ * @author Peili Cao
+ *
+ */
+public class ReplicatedLegJoin {
+
+	/**
+	 * Emit first legs only
+	 */
+	public static class FirstLegMapper extends
+			Mapper<Object, Writable, LegKey, DoubleWritable> {
+
+		private DoubleWritable delay;
+		private LegParser parser;
+
+		protected void setup(Context context) {
+			delay = new DoubleWritable();
+			parser = new LegParser();
+		}
+
+		public void map(Object key, Writable value, Context context)
+				throws IOException, InterruptedException {
+			if (parser.parse(value) && !parser.getKey().isSecondLeg()) {
+				delay.set(parser.getDelay());
+				context.write(parser.getKey(), delay);
+			}
+		}
+	}
+
+	/**
+	 * Join second legs with the first legs loaded in memory
+	 */
+	public static class SecondLegMapper extends
+			Mapper<Object, Writable, NullWritable, NullWritable> {
+
+		private LegParser parser;
+		private LegIndex index;
+		private double totalDelay;
+		private long totalPairs;
+
+		protected void setup(Context context) throws IOException {
+			parser = new LegParser();
+			index = loadFirstLegs(context.getConfiguration());
+			totalDelay = 0.0;
+			totalPairs = 0;
+		}
+
+		public void map(Object key, Writable value, Context context) {
+			if (!parser.parse(value) || !parser.getKey().isSecondLeg())
+				return;
+			int count = index.probe(parser.getKey());
+			if (count != 0) {
+				// sum of delay = sum of firstdelay + count*seconddelay
+				totalDelay += index.getSumDelay() + count * parser.getDelay();
+				totalPairs += count;
+			}
+		}
+
+		protected void cleanup(Context context) {
+			context.getCounter(FlightPairReducer.COUNTER_GROUP,
+					FlightPairReducer.PAIRS).increment(totalPairs);
+			context.getCounter(FlightPairReducer.COUNTER_GROUP,
+					FlightPairReducer.DELAY_CENTS).increment(
+					Math.round(totalDelay * 100));
+		}
+
+		/**
+		 * Load first legs from DistributedCache.
+		 * This function will run at each time a mapper setup.
+		 * @param conf
+		 * @return index of first legs
+		 * @throws IOException
+		 *             if no file of first legs is in DistributedCache
+		 */
+		private LegIndex loadFirstLegs(Configuration conf) throws IOException {
+			Path[] files = DistributedCache.getLocalCacheFiles(conf);
+			if (files == null || files.length == 0)
+				throw new IOException(
+						"No first legs in DistributedCache, can not build the index of first legs");
+			LegIndex index = new LegIndex();
+			FileSystem local = FileSystem.getLocal(conf);
+			LegKey leg = new LegKey();
+			DoubleWritable delay = new DoubleWritable();
+			for (Path path : files) {
+				SequenceFile.Reader reader = new SequenceFile.Reader(local,
+						path, conf);
+				while (reader.next(leg, delay)) {
+					index.add(leg, delay.get());
+				}
+				reader.close();
+			}
+			index.build();
+			return index;
+		}
+	}
+
+	/**
+	 * Run both passes
+	 *
+	 * @param conf
+	 * @param input
+	 *            - on-time csv or columnar files
+	 * @param legs
+	 *            - temporary folder of first legs, deleted at the end
+	 * @return counters of FlightPairReducer.COUNTER_GROUP, null if a pass
+	 *         fails
+	 * @throws Exception
+	 */
+	public static CounterGroup run(Configuration conf, String input, String legs)
+			throws Exception {
+		// First pass
+		Job job = new Job(conf, "Flight Pairs First Legs");
+		job.setJarByClass(ReplicatedLegJoin.class);
+		job.setMapperClass(FirstLegMapper.class);
+		job.setNumReduceTasks(0);
+		if (ColumnarFlightInputFormat.isColumnar(conf))
+			job.setInputFormatClass(ColumnarFlightInputFormat.class);
+		job.setOutputKeyClass(LegKey.class);
+		job.setOutputValueClass(DoubleWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FlightPartitions.addInputPaths(job, new Path(input),
+				LegParser.FIRST_MONTH, LegParser.LAST_MONTH);
+		FileOutputFormat.setOutputPath(job, new Path(legs));
+		if (!new ParallelJobRunner(job).waitForCompletion(true))
+			return null;
+
+		// Second pass
+		Job join = new Job(conf, "Flight Pairs Replicated Join");
+		join.setJarByClass(ReplicatedLegJoin.class);
+		join.setMapperClass(SecondLegMapper.class);
+		join.setNumReduceTasks(0);
+		if (ColumnarFlightInputFormat.isColumnar(conf))
+			join.setInputFormatClass(ColumnarFlightInputFormat.class);
+		join.setOutputFormatClass(NullOutputFormat.class);
+		join.setOutputKeyClass(NullWritable.class);
+		join.setOutputValueClass(NullWritable.class);
+		FlightPartitions.addInputPaths(join, new Path(input),
+				LegParser.FIRST_MONTH, LegParser.LAST_MONTH);
+
+		FileSystem fs = FileSystem.get(URI.create(legs), conf);
+		for (FileStatus status : fs.listStatus(new Path(legs))) {
+			if (status.getPath().getName().matches("^part-m-[0-9]{5}$"))
+				DistributedCache.addCacheFile(status.getPath().toUri(),
+						join.getConfiguration());
+		}
+
+		ParallelJobRunner runner = new ParallelJobRunner(join);
+		boolean succeed = runner.waitForCompletion(true);
+		fs.delete(new Path(legs), true);
+		if (!succeed)
+			return null;
+		return runner.getCounters().getGroup(FlightPairReducer.COUNTER_GROUP);
+	}
+}
@@ -0,0 +1,147 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Key of the windowed join<br>
+ * <b>(intercity, time, tag)</b> packed in one long:
+ * <p>
+ * bits 32-47: intercity id (see AirportCodes)<br>
+ * bits 1-31: time as minutes since 1970-01-01 00:00<br>
+ * bit 0: tag, 0 for first leg(A), 1 for second leg(B)
+ * <p>
+ * Unlike LegKey the time is absolute and ASC, so the legs of one intercity
+ * come as one stream ordered by time across midnight, arrival before
+ * departure when time is equal. Serialized key is 8 bytes.
+ * @author Peili Cao
+ *
+ */
+public class TimedLegKey implements WritableComparable<TimedLegKey> {
+
+	static {
+		// Raw comparator, used whenever no sort comparator is set
+		WritableComparator.define(TimedLegKey.class, new Comparator());
+	}
+
+	private static final int TIME_SHIFT = 1;
+	private static final int CITY_SHIFT = 32;
+	private static final long TIME_MASK = (1L << 31) - 1;
+	private static final long CITY_MASK = (1L << 16) - 1;
+
+	private long packed;
+
+	/**
+	 * @param intercity
+	 *            - airport id from AirportCodes
+	 * @param time
+	 *            - minutes since 1970-01-01 00:00
+	 * @param secondLeg
+	 *            - true for second leg(B), false for first leg(A)
+	 */
+	public void set(int intercity, long time, boolean secondLeg) {
+		packed = ((intercity & CITY_MASK) << CITY_SHIFT)
+				| ((time & TIME_MASK) << TIME_SHIFT) | (secondLeg ? 1L : 0L);
+	}
+
+	public int getIntercity() {
+		return (int) ((packed >>> CITY_SHIFT) & CITY_MASK);
+	}
+
+	public long getTime() {
+		return (packed >>> TIME_SHIFT) & TIME_MASK;
+	}
+
+	public boolean isSecondLeg() {
+		return (packed & 1L) == 1L;
+	}
+
+	public long get() {
+		return packed;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		packed = in.readLong();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(packed);
+	}
+
+	@Override
+	public String toString() {
+		return AirportCodes.decode(getIntercity()) + " " + getTime() + " "
+				+ (isSecondLeg() ? "B" : "A");
+	}
+
+	@Override
+	public int compareTo(TimedLegKey moo) {
+		return compareLong(packed, moo.get());
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (packed ^ (packed >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof TimedLegKey) {
+			return packed == ((TimedLegKey) o).get();
+		}
+		return false;
+	}
+
+	private static int compareLong(long a, long b) {
+		return (a < b ? -1 : (a == b ? 0 : 1));
+	}
+
+	/**
+	 * Order: intercity ASC, time ASC, tag ASC
+	 * <p>
+	 * Compares the serialized 8 bytes in place.
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(TimedLegKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareLong(readLong(b1, s1), readLong(b2, s2));
+		}
+
+		@Override
+		public int compare(WritableComparable one, WritableComparable two) {
+			return ((TimedLegKey) one).compareTo((TimedLegKey) two);
+		}
+	}
+
+	/**
+	 * Group Comparator<br>
+	 * Only consider intercity, all legs of one intercity are one reduce call
+	 */
+	public static class GroupComparator extends WritableComparator {
+
+		public GroupComparator() {
+			super(TimedLegKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareLong(readLong(b1, s1) >>> CITY_SHIFT,
+					readLong(b2, s2) >>> CITY_SHIFT);
+		}
+
+		@Override
+		public int compare(WritableComparable one, WritableComparable two) {
+			return compareLong(((TimedLegKey) one).getIntercity(),
+					((TimedLegKey) two).getIntercity());
+		}
+	}
+}
@@ -0,0 +1,37 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Emit the legs of the windowed join with their absolute time: arrival of a
+ * first leg (next day for an overnight flight), departure of a second leg.
+ * Takes csv lines or FlightRecord.
+ * @author Peili Cao
+ *
+ */
+public class WindowedPairMapper extends
+		Mapper<Object, Writable, TimedLegKey, DoubleWritable> {
+
+	private TimedLegKey outKey;
+	private DoubleWritable delay;
+	private LegParser parser;
+
+	protected void setup(Context context) {
+		outKey = new TimedLegKey();
+		delay = new DoubleWritable();
+		parser = new LegParser();
+	}
+
+	public void map(Object key, Writable value, Context context)
+			throws IOException, InterruptedException {
+		if (parser.parse(value)) {
+			LegKey leg = parser.getKey();
+			outKey.set(leg.getIntercity(), parser.getAbsoluteTime(),
+					leg.isSecondLeg());
+			delay.set(parser.getDelay());
+			context.write(outKey, delay);
+		}
+	}
+}
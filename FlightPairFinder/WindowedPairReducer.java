@@ -0,0 +1,136 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Windowed join: one reduce call receives all legs of one intercity ordered
+ * by absolute time, arrival before departure when time is equal.
+ * <p>
+ * A second leg departing at t pairs with every first leg which arrived in
+ * [t - maxLayover, t - minConnect], also across midnight. First legs are
+ * kept in a deque ordered by arrival:<br>
+ * - the front ones whose arrival is at least minConnect before the current
+ * departure are "ready", their count and sum of delays are kept running<br>
+ * - the front ones which arrived more than maxLayover before the current
+ * time are dropped, no later departure can pair with them
+ * <p>
+ * Both bounds only move forward, so each leg is added and dropped once and
+ * the deque holds only the legs of one window, not of a day or a year.
+ * Totals are published with the counters of FlightPairReducer.
+ * <p>
+ * <code>flight.connect.min</code> - minimum connect time in minutes,
+ * default 30<br>
+ * <code>flight.connect.max</code> - maximum layover in minutes, default 360
+ * @author Peili Cao
+ *
+ */
+public class WindowedPairReducer extends
+		Reducer<TimedLegKey, DoubleWritable, NullWritable, NullWritable> {
+
+	public static final String MIN_CONNECT = "flight.connect.min";
+	public static final String MAX_LAYOVER = "flight.connect.max";
+
+	private long minConnect;
+	private long maxLayover;
+
+	// Ring buffer of first legs, (head + i) & mask is the i-th oldest
+	private long[] arrivals;
+	private long[] delayCents;
+	private int head;
+	private int size;
+	// The oldest ready legs and the sum of their delays
+	private int ready;
+	private long readyCents;
+
+	private long totalPairs;
+	private long totalCents;
+
+	protected void setup(Context context) {
+		Configuration conf = context.getConfiguration();
+		minConnect = conf.getInt(MIN_CONNECT, 30);
+		maxLayover = conf.getInt(MAX_LAYOVER, 360);
+		if (minConnect > maxLayover)
+			throw new IllegalArgumentException(MIN_CONNECT + " " + minConnect
+					+ " is greater than " + MAX_LAYOVER + " " + maxLayover);
+		arrivals = new long[64];
+		delayCents = new long[64];
+	}
+
+	@Override
+	public void reduce(TimedLegKey key, Iterable<DoubleWritable> values,
+			Context context) throws IOException, InterruptedException {
+		head = 0;
+		size = 0;
+		ready = 0;
+		readyCents = 0;
+
+		for (DoubleWritable val : values) {
+			long time = key.getTime();
+			long cents = Math.round(val.get() * 100);
+			expire(time - maxLayover);
+			if (!key.isSecondLeg()) {
+				add(time, cents);
+				continue;
+			}
+			// First legs arrived at least minConnect ago can be taken
+			long latest = time - minConnect;
+			int mask = arrivals.length - 1;
+			while (ready < size && arrivals[(head + ready) & mask] <= latest) {
+				readyCents += delayCents[(head + ready) & mask];
+				ready++;
+			}
+			if (ready > 0) {
+				// sum of delay = sum of first delays + count * second delay
+				totalPairs += ready;
+				totalCents += readyCents + ready * cents;
+			}
+		}
+	}
+
+	protected void cleanup(Context context) {
+		context.getCounter(FlightPairReducer.COUNTER_GROUP,
+				FlightPairReducer.PAIRS).increment(totalPairs);
+		context.getCounter(FlightPairReducer.COUNTER_GROUP,
+				FlightPairReducer.DELAY_CENTS).increment(totalCents);
+	}
+
+	/**
+	 * Drop the first legs which arrived before earliest
+	 */
+	private void expire(long earliest) {
+		int mask = arrivals.length - 1;
+		while (size > 0 && arrivals[head] < earliest) {
+			if (ready > 0) {
+				readyCents -= delayCents[head];
+				ready--;
+			}
+			head = (head + 1) & mask;
+			size--;
+		}
+	}
+
+	/**
+	 * Add a first leg at the end, legs come in arrival order
+	 */
+	private void add(long arrival, long cents) {
+		if (size == arrivals.length) {
+			// Unroll the ring into arrays twice as large
+			long[] grownArrivals = new long[size * 2];
+			long[] grownDelays = new long[size * 2];
+			for (int i = 0; i < size; i++) {
+				grownArrivals[i] = arrivals[(head + i) & (size - 1)];
+				grownDelays[i] = delayCents[(head + i) & (size - 1)];
+			}
+			arrivals = grownArrivals;
+			delayCents = grownDelays;
+			head = 0;
+		}
+		int tail = (head + size) & (arrivals.length - 1);
+		arrivals[tail] = arrival;
+		delayCents[tail] = cents;
+		size++;
+	}
+}
@@ -0,0 +1,352 @@
+package localengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapred.Task;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Map output of one map task of ParallelJobRunner.
+ * <p>
+ * Pairs are serialized into one buffer with their partition. When the
+ * buffer is full and at close, the pairs are sorted by (partition, key) with
+ * the raw sort comparator, each partition is passed through the combiner if
+ * the job has one, and becomes one SortedRun. Runs of a full buffer are
+ * written to local files, the last run of the task stays in memory while the
+ * engine has memory left.
+ * @author Peili Cao
+ *
+ */
+public class MapOutputBuffer<K, V> extends RecordWriter<K, V> {
+
+	private Configuration conf;
+	private TaskAttemptID taskId;
+	private StatusReporter reporter;
+	private int numPartitions;
+	private Partitioner<K, V> partitioner;
+	private RawComparator<?> comparator;
+	private Class<? extends Reducer<?, ?, ?, ?>> combinerClass;
+	private Class<?> keyClass;
+	private Class<?> valueClass;
+	private int limit;
+	private AtomicLong memory;
+	private long memoryLimit;
+	private File spillDir;
+
+	private DataOutputBuffer data;
+	private Serializer<K> keySerializer;
+	private Serializer<V> valueSerializer;
+	private int[] partitions;
+	private int[] starts;
+	private int[] keyLengths;
+	private int[] valueLengths;
+	private int size;
+
+	private List<List<SortedRun>> runs;
+	private Counter outputRecords;
+	private Counter spilledRecords;
+
+	/**
+	 * @param engine
+	 *            - classes and settings of the job
+	 * @param conf
+	 *            - configuration of the task
+	 * @param taskId
+	 * @param reporter
+	 *            - counters of the task
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	public MapOutputBuffer(ParallelJobRunner engine, Configuration conf,
+			TaskAttemptID taskId, StatusReporter reporter) throws IOException,
+			ClassNotFoundException {
+		this.conf = conf;
+		this.taskId = taskId;
+		this.reporter = reporter;
+		numPartitions = engine.getJob().getNumReduceTasks();
+		if (numPartitions > 1)
+			partitioner = (Partitioner<K, V>) ReflectionUtils.newInstance(
+					engine.getJob().getPartitionerClass(), conf);
+		comparator = engine.getJob().getSortComparator();
+		combinerClass = engine.getJob().getCombinerClass();
+		keyClass = engine.getJob().getMapOutputKeyClass();
+		valueClass = engine.getJob().getMapOutputValueClass();
+		limit = engine.getSortBytes();
+		memory = engine.getMemory();
+		memoryLimit = engine.getMemoryLimit();
+		spillDir = engine.getSpillDir();
+
+		data = new DataOutputBuffer();
+		SerializationFactory factory = new SerializationFactory(conf);
+		keySerializer = (Serializer<K>) factory.getSerializer(keyClass);
+		keySerializer.open(data);
+		valueSerializer = (Serializer<V>) factory.getSerializer(valueClass);
+		valueSerializer.open(data);
+		partitions = new int[1024];
+		starts = new int[1024];
+		keyLengths = new int[1024];
+		valueLengths = new int[1024];
+
+		runs = new ArrayList<List<SortedRun>>(numPartitions);
+		for (int i = 0; i < numPartitions; i++)
+			runs.add(new ArrayList<SortedRun>());
+		outputRecords = reporter.getCounter(Task.Counter.MAP_OUTPUT_RECORDS);
+		spilledRecords = reporter.getCounter(Task.Counter.SPILLED_RECORDS);
+	}
+
+	@Override
+	public void write(K key, V value) throws IOException {
+		if (size == starts.length) {
+			partitions = Arrays.copyOf(partitions, size * 2);
+			starts = Arrays.copyOf(starts, size * 2);
+			keyLengths = Arrays.copyOf(keyLengths, size * 2);
+			valueLengths = Arrays.copyOf(valueLengths, size * 2);
+		}
+		int partition = partitioner == null ? 0 : partitioner.getPartition(
+				key, value, numPartitions);
+		if (partition < 0 || partition >= numPartitions)
+			throw new IOException("Illegal partition for " + key + " ("
+					+ partition + ")");
+		int start = data.getLength();
+		keySerializer.serialize(key);
+		int valueStart = data.getLength();
+		valueSerializer.serialize(value);
+		partitions[size] = partition;
+		starts[size] = start;
+		keyLengths[size] = valueStart - start;
+		valueLengths[size] = data.getLength() - valueStart;
+		size++;
+		outputRecords.increment(1);
+		if (data.getLength() >= limit) {
+			try {
+				spill(false);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Spill what is left, the runs are ready after this
+	 */
+	@Override
+	public void close(TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		if (size > 0)
+			spill(true);
+		keySerializer.close();
+		valueSerializer.close();
+		data = null;
+	}
+
+	/**
+	 * @return runs of each partition, in the order they were spilled
+	 */
+	public List<List<SortedRun>> getRuns() {
+		return runs;
+	}
+
+	/**
+	 * Sort the buffer, combine and turn each partition into a run
+	 *
+	 * @param last
+	 *            - the run may stay in memory
+	 */
+	private void spill(boolean last) throws IOException, InterruptedException {
+		final byte[] bytes = data.getData();
+		new QuickSort().sort(new IndexedSortable() {
+			@Override
+			public int compare(int i, int j) {
+				if (partitions[i] != partitions[j])
+					return partitions[i] < partitions[j] ? -1 : 1;
+				return comparator.compare(bytes, starts[i], keyLengths[i],
+						bytes, starts[j], keyLengths[j]);
+			}
+
+			@Override
+			public void swap(int i, int j) {
+				swapInt(partitions, i, j);
+				swapInt(starts, i, j);
+				swapInt(keyLengths, i, j);
+				swapInt(valueLengths, i, j);
+			}
+		}, 0, size);
+
+		int from = 0;
+		while (from < size) {
+			int to = from + 1;
+			while (to < size && partitions[to] == partitions[from])
+				to++;
+			runs.get(partitions[from]).add(
+					createRun(bytes, from, to, last));
+			from = to;
+		}
+		data.reset();
+		size = 0;
+	}
+
+	/**
+	 * @return sorted records [from, to) of the buffer as a run
+	 */
+	private SortedRun createRun(byte[] bytes, int from, int to, boolean last)
+			throws IOException, InterruptedException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		long records;
+		if (combinerClass == null) {
+			for (int i = from; i < to; i++) {
+				SortedRun.append(out, bytes, starts[i], keyLengths[i],
+						starts[i] + keyLengths[i], valueLengths[i]);
+			}
+			records = to - from;
+		} else {
+			records = combine(bytes, from, to, out);
+		}
+		spilledRecords.increment(records);
+		if (last && memory.addAndGet(out.getLength()) <= memoryLimit)
+			return SortedRun.inMemory(out, records);
+		if (last)
+			memory.addAndGet(-out.getLength());
+		return SortedRun.onDisk(out, records, spillDir);
+	}
+
+	/**
+	 * Run the combiner over sorted records [from, to) of the buffer
+	 *
+	 * @return number of records written to out
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private long combine(byte[] bytes, int from, int to, DataOutputBuffer out)
+			throws IOException, InterruptedException {
+		Reducer combiner = ReflectionUtils.newInstance(combinerClass, conf);
+		RunWriter writer = new RunWriter(out);
+		combiner.run(combiner.new Context(conf, taskId, new SortedRange(bytes,
+				from, to), null, reporter
+				.getCounter(Task.Counter.COMBINE_INPUT_RECORDS), writer, null,
+				reporter, comparator, keyClass, valueClass));
+		writer.close(null);
+		reporter.getCounter(Task.Counter.COMBINE_OUTPUT_RECORDS).increment(
+				writer.records);
+		return writer.records;
+	}
+
+	private static void swapInt(int[] array, int i, int j) {
+		int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+	/**
+	 * Sorted records [from, to) of the buffer as reduce input of the combiner
+	 */
+	private class SortedRange implements RawKeyValueIterator {
+
+		private byte[] bytes;
+		private int current;
+		private int to;
+		private DataInputBuffer key;
+		private DataInputBuffer value;
+		private Progress progress;
+
+		SortedRange(byte[] bytes, int from, int to) {
+			this.bytes = bytes;
+			this.current = from - 1;
+			this.to = to;
+			key = new DataInputBuffer();
+			value = new DataInputBuffer();
+			progress = new Progress();
+		}
+
+		@Override
+		public boolean next() {
+			if (current + 1 >= to)
+				return false;
+			current++;
+			key.reset(bytes, starts[current], keyLengths[current]);
+			value.reset(bytes, starts[current] + keyLengths[current],
+					valueLengths[current]);
+			return true;
+		}
+
+		@Override
+		public DataInputBuffer getKey() {
+			return key;
+		}
+
+		@Override
+		public DataInputBuffer getValue() {
+			return value;
+		}
+
+		@Override
+		public Progress getProgress() {
+			return progress;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Serialize the output of the combiner into a run
+	 */
+	private class RunWriter extends RecordWriter<K, V> {
+
+		private DataOutputBuffer out;
+		private DataOutputBuffer record;
+		private Serializer<K> keys;
+		private Serializer<V> values;
+		long records;
+
+		@SuppressWarnings("unchecked")
+		RunWriter(DataOutputBuffer out) throws IOException {
+			this.out = out;
+			record = new DataOutputBuffer();
+			SerializationFactory factory = new SerializationFactory(conf);
+			keys = (Serializer<K>) factory.getSerializer(keyClass);
+			keys.open(record);
+			values = (Serializer<V>) factory.getSerializer(valueClass);
+			values.open(record);
+		}
+
+		@Override
+		public void write(K key, V value) throws IOException {
+			record.reset();
+			keys.serialize(key);
+			int keyLength = record.getLength();
+			values.serialize(value);
+			SortedRun.append(out, record.getData(), 0, keyLength, keyLength,
+					record.getLength() - keyLength);
+			records++;
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException {
+			keys.close();
+			values.close();
+		}
+	}
+}
@@ -0,0 +1,486 @@
+package localengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Task;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Run a Job in this JVM on all cores, instead of the single threaded
+ * LocalJobRunner.
+ * <p>
+ * The job is configured as for the cluster: input format, mapper,
+ * partitioner, combiner, sort and group comparator, reducer and output
+ * format are taken from the Job. Map tasks (one per input split) run on a
+ * fork-join pool. Each map task sorts its output by (partition, key) with
+ * the raw sort comparator and combines it, see MapOutputBuffer. When all
+ * maps are done, the reduce tasks run on the same pool, each merging the
+ * sorted runs of its partition (RunMerger). Output goes through the output
+ * committer, so the output folder looks like the one of the cluster
+ * (part-r-00000, _SUCCESS, MultipleOutputs folders).<br>
+ * Files of the DistributedCache are localized before the tasks start.
+ * <p>
+ * Drivers call <code>new ParallelJobRunner(job).waitForCompletion(true)</code>
+ * instead of <code>job.waitForCompletion(true)</code>, and read counters from
+ * the runner. Without <code>localengine.enabled=true</code> the job is
+ * submitted to Hadoop as before.
+ * <p>
+ * <code>localengine.enabled</code> - run in this JVM, default false<br>
+ * <code>localengine.threads</code> - default number of cores<br>
+ * <code>localengine.sort.mb</code> - map output buffer of one map task,
+ * spilled to a run when full, default 32<br>
+ * <code>localengine.memory.mb</code> - map output kept in memory for the
+ * reducers, the rest is spilled to disk, default 1/4 of the heap<br>
+ * <code>localengine.spill.dir</code> - default java.io.tmpdir<br>
+ * <code>io.sort.factor</code> - most runs on disk a reduce task merges at
+ * once, default 10
+ * @author Peili Cao
+ *
+ */
+public class ParallelJobRunner {
+
+	public static final String ENABLED = "localengine.enabled";
+	public static final String THREADS = "localengine.threads";
+	public static final String SORT_MB = "localengine.sort.mb";
+	public static final String MEMORY_MB = "localengine.memory.mb";
+	public static final String SPILL_DIR = "localengine.spill.dir";
+
+	private static final Random RANDOM = new Random();
+
+	private Job job;
+	private Configuration conf;
+	private Counters counters;
+	private boolean local;
+
+	private String jtIdentifier;
+	private int jobNumber;
+	private int sortBytes;
+	private AtomicLong memory;
+	private long memoryLimit;
+	private File spillDir;
+
+	public ParallelJobRunner(Job job) {
+		this.job = job;
+		this.conf = job.getConfiguration();
+		this.local = conf.getBoolean(ENABLED, false);
+	}
+
+	/**
+	 * @return true if the job runs in this JVM
+	 */
+	public boolean isLocal() {
+		return local;
+	}
+
+	/**
+	 * Run the job and wait until it is done
+	 *
+	 * @param verbose
+	 *            - print progress and counters
+	 * @return true if the job succeeded
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public boolean waitForCompletion(boolean verbose) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		if (!local)
+			return job.waitForCompletion(verbose);
+
+		counters = new Counters();
+		jtIdentifier = "localengine" + (RANDOM.nextInt(Integer.MAX_VALUE));
+		jobNumber = 1;
+		sortBytes = conf.getInt(SORT_MB, 32) << 20;
+		memory = new AtomicLong();
+		memoryLimit = conf.getLong(MEMORY_MB,
+				Runtime.getRuntime().maxMemory() / 4 >> 20) << 20;
+		spillDir = new File(conf.get(SPILL_DIR,
+				System.getProperty("java.io.tmpdir")), jtIdentifier);
+		if (!spillDir.mkdirs())
+			throw new IOException("Cannot create " + spillDir);
+		localizeCacheFiles();
+
+		int threads = conf.getInt(THREADS, Runtime.getRuntime()
+				.availableProcessors());
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		OutputCommitter committer = null;
+		try {
+			OutputFormat<?, ?> outputFormat = ReflectionUtils.newInstance(
+					job.getOutputFormatClass(), conf);
+			outputFormat.checkOutputSpecs(job);
+			committer = outputFormat.getOutputCommitter(new TaskAttemptContext(
+					conf, new TaskAttemptID(jtIdentifier, jobNumber, true, 0, 0)));
+
+			// As at submission to Hadoop, splits are computed before the
+			// output folder is created, which may be inside the input
+			InputFormat<?, ?> inputFormat = ReflectionUtils.newInstance(
+					job.getInputFormatClass(), conf);
+			List<InputSplit> splits = new ArrayList<InputSplit>(
+					inputFormat.getSplits(job));
+			committer.setupJob(job);
+			// Largest first, so the last tasks to finish are short
+			Collections.sort(splits, new Comparator<InputSplit>() {
+				@Override
+				public int compare(InputSplit one, InputSplit two) {
+					try {
+						long a = one.getLength();
+						long b = two.getLength();
+						return a > b ? -1 : (a == b ? 0 : 1);
+					} catch (Exception e) {
+						return 0;
+					}
+				}
+			});
+			if (verbose)
+				System.out.println("Running " + job.getJobName() + ": "
+						+ splits.size() + " maps, " + job.getNumReduceTasks()
+						+ " reduces on " + threads + " threads");
+
+			List<Future<MapTask>> maps = new ArrayList<Future<MapTask>>();
+			for (int i = 0; i < splits.size(); i++)
+				maps.add(pool.submit(new MapTask(i, splits.get(i), inputFormat)));
+			List<MapTask> done = new ArrayList<MapTask>(maps.size());
+			for (Future<MapTask> map : maps)
+				done.add(map.get());
+			if (verbose)
+				System.out.println("map 100%");
+
+			int reduces = job.getNumReduceTasks();
+			List<Future<ReduceTask>> reducers = new ArrayList<Future<ReduceTask>>();
+			for (int p = 0; p < reduces; p++) {
+				List<SortedRun> runs = new ArrayList<SortedRun>();
+				for (MapTask map : done)
+					runs.addAll(map.getRuns(p));
+				reducers.add(pool.submit(new ReduceTask(p, runs)));
+			}
+			for (Future<ReduceTask> reducer : reducers)
+				reducer.get();
+			if (verbose && reduces > 0)
+				System.out.println("reduce 100%");
+
+			committer.commitJob(job);
+			if (verbose)
+				System.out.println(counters);
+			return true;
+		} catch (ExecutionException e) {
+			System.err.println("Job " + job.getJobName() + " failed: "
+					+ StringUtils.stringifyException(e.getCause()));
+			if (committer != null)
+				committer.abortJob(job, JobStatus.State.FAILED);
+			return false;
+		} finally {
+			pool.shutdownNow();
+			FileUtil.fullyDelete(spillDir);
+		}
+	}
+
+	/**
+	 * @return number of reduce tasks the job will run with. Hadoop's
+	 *         LocalJobRunner (<code>mapred.job.tracker=local</code>) runs at
+	 *         most one, whatever the job asks for.
+	 */
+	public int getNumReduceTasks() {
+		int reduces = job.getNumReduceTasks();
+		if (!local && "local".equals(conf.get("mapred.job.tracker", "local")))
+			return Math.min(reduces, 1);
+		return reduces;
+	}
+
+	/**
+	 * @return counters of the job, summed over all tasks
+	 * @throws IOException
+	 */
+	public Counters getCounters() throws IOException {
+		return local ? counters : job.getCounters();
+	}
+
+	Job getJob() {
+		return job;
+	}
+
+	int getSortBytes() {
+		return sortBytes;
+	}
+
+	AtomicLong getMemory() {
+		return memory;
+	}
+
+	long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	File getSpillDir() {
+		return spillDir;
+	}
+
+	/**
+	 * Point the local cache files to the cache files of the job, files of
+	 * other file systems are copied to the spill folder first
+	 */
+	private void localizeCacheFiles() throws IOException {
+		URI[] files = DistributedCache.getCacheFiles(conf);
+		if (files == null)
+			return;
+		String[] local = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			Path path = new Path(files[i].getScheme(),
+					files[i].getAuthority(), files[i].getPath());
+			FileSystem fs = path.getFileSystem(conf);
+			if (fs instanceof LocalFileSystem) {
+				local[i] = fs.makeQualified(path).toUri().getPath();
+			} else {
+				File copy = new File(new File(spillDir, "cache" + i),
+						path.getName());
+				fs.copyToLocalFile(path, new Path(copy.getAbsolutePath()));
+				local[i] = copy.getAbsolutePath();
+			}
+		}
+		DistributedCache.setLocalFiles(conf, StringUtils.arrayToString(local));
+	}
+
+	/**
+	 * @return configuration of one task, with the ids Hadoop sets for a task
+	 */
+	private JobConf taskConf(TaskAttemptID id, boolean isMap, int partition) {
+		JobConf taskConf = new JobConf(conf);
+		taskConf.set("mapred.task.id", id.toString());
+		taskConf.setBoolean("mapred.task.is.map", isMap);
+		taskConf.setInt("mapred.task.partition", partition);
+		return taskConf;
+	}
+
+	private void commit(OutputCommitter committer, TaskAttemptContext context)
+			throws IOException {
+		if (committer.needsTaskCommit(context))
+			committer.commitTask(context);
+	}
+
+	/**
+	 * One map task: read a split, map, and sort its output into runs or
+	 * write it to the output of a map only job
+	 */
+	private class MapTask implements Callable<MapTask> {
+
+		private int index;
+		private InputSplit split;
+		private InputFormat<?, ?> inputFormat;
+		private MapOutputBuffer<?, ?> output;
+
+		MapTask(int index, InputSplit split, InputFormat<?, ?> inputFormat) {
+			this.index = index;
+			this.split = split;
+			this.inputFormat = inputFormat;
+		}
+
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public MapTask call() throws Exception {
+			TaskAttemptID id = new TaskAttemptID(jtIdentifier, jobNumber, true,
+					index, 0);
+			JobConf taskConf = taskConf(id, true, index);
+			TaskAttemptContext taskContext = new TaskAttemptContext(taskConf,
+					id);
+			TaskReporter reporter = new TaskReporter();
+			Mapper mapper = ReflectionUtils.newInstance(job.getMapperClass(),
+					taskConf);
+			RecordReader reader = inputFormat.createRecordReader(split,
+					taskContext);
+
+			OutputCommitter committer = null;
+			RecordWriter writer;
+			if (job.getNumReduceTasks() == 0) {
+				OutputFormat outputFormat = ReflectionUtils.newInstance(
+						job.getOutputFormatClass(), taskConf);
+				committer = outputFormat.getOutputCommitter(taskContext);
+				committer.setupTask(taskContext);
+				writer = new CountingRecordWriter(
+						outputFormat.getRecordWriter(taskContext),
+						reporter.getCounter(Task.Counter.MAP_OUTPUT_RECORDS));
+			} else {
+				output = new MapOutputBuffer(ParallelJobRunner.this, taskConf,
+						id, reporter);
+				writer = output;
+			}
+			Mapper.Context context = mapper.new Context(taskConf, id, reader,
+					writer, committer, reporter, split);
+			reader.initialize(split, context);
+			mapper.run(context);
+			reader.close();
+			writer.close(context);
+			if (committer != null)
+				commit(committer, context);
+			counters.incrAllCounters(reporter.counters);
+			return this;
+		}
+
+		List<SortedRun> getRuns(int partition) {
+			return output.getRuns().get(partition);
+		}
+	}
+
+	/**
+	 * One reduce task: merge the runs of its partition, reduce and write
+	 * the output
+	 */
+	private class ReduceTask implements Callable<ReduceTask> {
+
+		private int partition;
+		private List<SortedRun> runs;
+
+		ReduceTask(int partition, List<SortedRun> runs) {
+			this.partition = partition;
+			this.runs = runs;
+		}
+
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public ReduceTask call() throws Exception {
+			TaskAttemptID id = new TaskAttemptID(jtIdentifier, jobNumber,
+					false, partition, 0);
+			JobConf taskConf = taskConf(id, false, partition);
+			TaskAttemptContext taskContext = new TaskAttemptContext(taskConf,
+					id);
+			TaskReporter reporter = new TaskReporter();
+			OutputFormat outputFormat = ReflectionUtils.newInstance(
+					job.getOutputFormatClass(), taskConf);
+			OutputCommitter committer = outputFormat
+					.getOutputCommitter(taskContext);
+			committer.setupTask(taskContext);
+			RecordWriter writer = new CountingRecordWriter(
+					outputFormat.getRecordWriter(taskContext),
+					reporter.getCounter(Task.Counter.REDUCE_OUTPUT_RECORDS));
+
+			Reducer reducer = ReflectionUtils.newInstance(
+					job.getReducerClass(), taskConf);
+			List<SortedRun> merged = runs;
+			RunMerger input = null;
+			Reducer.Context context;
+			try {
+				merged = RunMerger.limitRunsOnDisk(runs,
+						job.getSortComparator(),
+						Math.max(2, conf.getInt("io.sort.factor", 10)),
+						spillDir);
+				input = new RunMerger(merged, job.getSortComparator());
+				context = reducer.new Context(taskConf, id, input,
+						reporter.getCounter(Task.Counter.REDUCE_INPUT_GROUPS),
+						reporter.getCounter(Task.Counter.REDUCE_INPUT_RECORDS),
+						writer, committer, reporter,
+						job.getGroupingComparator(),
+						job.getMapOutputKeyClass(),
+						job.getMapOutputValueClass());
+				reducer.run(context);
+			} finally {
+				if (input != null)
+					input.close();
+				// Runs in memory are in both lists, runs of merge passes
+				// only in merged
+				for (SortedRun run : runs) {
+					memory.addAndGet(-run.getMemorySize());
+					run.delete();
+				}
+				for (SortedRun run : merged)
+					run.delete();
+			}
+			writer.close(context);
+			commit(committer, context);
+			counters.incrAllCounters(reporter.counters);
+			return this;
+		}
+	}
+
+	/**
+	 * Count the records written to the output, as the tracking record
+	 * writers of Hadoop do
+	 */
+	private static class CountingRecordWriter<K, V> extends
+			RecordWriter<K, V> {
+
+		private RecordWriter<K, V> writer;
+		private Counter records;
+
+		CountingRecordWriter(RecordWriter<K, V> writer, Counter records) {
+			this.writer = writer;
+			this.records = records;
+		}
+
+		@Override
+		public void write(K key, V value) throws IOException,
+				InterruptedException {
+			writer.write(key, value);
+			records.increment(1);
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException,
+				InterruptedException {
+			writer.close(context);
+		}
+	}
+
+	/**
+	 * Counters of one task, status is ignored
+	 */
+	private static class TaskReporter extends StatusReporter {
+
+		private Counters counters = new Counters();
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public float getProgress() {
+			return 0;
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package localengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * Merge the sorted runs of one partition into the input of a reduce task.
+ * <p>
+ * The runs are merged with a heap on their current key, compared in place
+ * with the sort comparator of the job. Equal keys come in the order of the
+ * runs, i.e. of the map tasks.
+ * <p>
+ * Every run on disk holds an open file and a 64KB buffer while it is
+ * merged. When a partition has more runs on disk than the merge factor
+ * (<code>io.sort.factor</code>), limitRunsOnDisk first merges some of them
+ * into larger files, as the intermediate merge passes of Hadoop do.
+ * @author Peili Cao
+ *
+ */
+public class RunMerger implements RawKeyValueIterator {
+
+	private List<SortedRun.Reader> readers;
+	private PriorityQueue<Head> heap;
+	private Head current;
+	private boolean started;
+
+	private DataInputBuffer key;
+	private DataInputBuffer value;
+	private Progress progress;
+
+	/**
+	 * @param runs
+	 *            - each sorted by comparator
+	 * @param comparator
+	 *            - sort comparator of the job
+	 * @throws IOException
+	 */
+	public RunMerger(List<SortedRun> runs, final RawComparator<?> comparator)
+			throws IOException {
+		readers = new ArrayList<SortedRun.Reader>(runs.size());
+		heap = new PriorityQueue<Head>(Math.max(1, runs.size()),
+				new Comparator<Head>() {
+					@Override
+					public int compare(Head one, Head two) {
+						SortedRun.Reader r1 = one.reader;
+						SortedRun.Reader r2 = two.reader;
+						int result = comparator.compare(r1.getBytes(),
+								r1.getKeyStart(), r1.getKeyLength(),
+								r2.getBytes(), r2.getKeyStart(),
+								r2.getKeyLength());
+						if (result == 0)
+							result = one.index - two.index;
+						return result;
+					}
+				});
+		for (int i = 0; i < runs.size(); i++) {
+			SortedRun.Reader reader = runs.get(i).open();
+			readers.add(reader);
+			if (reader.next())
+				heap.add(new Head(reader, i));
+		}
+		key = new DataInputBuffer();
+		value = new DataInputBuffer();
+		progress = new Progress();
+	}
+
+	/**
+	 * Merge runs on disk until at most factor of them are left. As in
+	 * Hadoop, each intermediate merge takes the smallest runs on disk, just
+	 * enough of them to need no more passes than necessary. Its output is
+	 * added after the other runs, so equal keys of merged runs no longer
+	 * come in the order of the map tasks. The merged runs are deleted.
+	 *
+	 * @param runs
+	 *            - each sorted by comparator
+	 * @param comparator
+	 *            - sort comparator of the job
+	 * @param factor
+	 *            - most runs on disk merged at once, at least 2
+	 * @param dir
+	 *            - folder of the merged files
+	 * @return runs in memory and at most factor runs on disk
+	 * @throws IOException
+	 */
+	public static List<SortedRun> limitRunsOnDisk(List<SortedRun> runs,
+			RawComparator<?> comparator, int factor, File dir)
+			throws IOException {
+		List<SortedRun> result = new ArrayList<SortedRun>(runs);
+		while (true) {
+			List<SortedRun> onDisk = new ArrayList<SortedRun>();
+			for (SortedRun run : result) {
+				if (run.isOnDisk())
+					onDisk.add(run);
+			}
+			if (onDisk.size() <= factor)
+				return result;
+			Collections.sort(onDisk, new Comparator<SortedRun>() {
+				@Override
+				public int compare(SortedRun one, SortedRun two) {
+					long a = one.getRecords();
+					long b = two.getRecords();
+					return a < b ? -1 : (a == b ? 0 : 1);
+				}
+			});
+			// Merging n runs removes n - 1 of them
+			int merged = Math.min(factor, onDisk.size() - factor + 1);
+			List<SortedRun> group = onDisk.subList(0, merged);
+			RunMerger input = new RunMerger(group, comparator);
+			SortedRun run;
+			try {
+				run = SortedRun.onDisk(input, dir);
+			} finally {
+				input.close();
+			}
+			result.removeAll(group);
+			result.add(run);
+			for (SortedRun done : group)
+				done.delete();
+		}
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (started && current != null && current.reader.next())
+			heap.add(current);
+		started = true;
+		current = heap.poll();
+		if (current == null)
+			return false;
+		SortedRun.Reader reader = current.reader;
+		key.reset(reader.getBytes(), reader.getKeyStart(),
+				reader.getKeyLength());
+		value.reset(reader.getBytes(), reader.getValueStart(),
+				reader.getValueLength());
+		return true;
+	}
+
+	@Override
+	public DataInputBuffer getKey() {
+		return key;
+	}
+
+	@Override
+	public DataInputBuffer getValue() {
+		return value;
+	}
+
+	@Override
+	public Progress getProgress() {
+		return progress;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (SortedRun.Reader reader : readers)
+			reader.close();
+	}
+
+	/**
+	 * Reader of a run with its position in the list of runs
+	 */
+	private static class Head {
+		SortedRun.Reader reader;
+		int index;
+
+		Head(SortedRun.Reader reader, int index) {
+			this.reader = reader;
+			this.index = index;
+		}
+	}
+}
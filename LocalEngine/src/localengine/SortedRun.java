@@ -0,0 +1,245 @@
+package localengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Serialized key/value pairs of one partition, sorted by key. Output of one
+ * spill of a map task, input of the merge of a reduce task.
+ * <p>
+ * Record: <b>keyLength(vint), valueLength(vint), key, value</b><br>
+ * A run is kept in memory, or in a local file when memory is short.
+ * @author Peili Cao
+ *
+ */
+public class SortedRun {
+
+	private byte[] data;
+	private int length;
+	private File file;
+	private long records;
+
+	private SortedRun(byte[] data, int length, File file, long records) {
+		this.data = data;
+		this.length = length;
+		this.file = file;
+		this.records = records;
+	}
+
+	/**
+	 * @param buffer
+	 *            - records written with append, the bytes are kept, not
+	 *            copied
+	 * @param records
+	 *            - number of records in buffer
+	 * @return run held in memory
+	 */
+	public static SortedRun inMemory(DataOutputBuffer buffer, long records) {
+		return new SortedRun(buffer.getData(), buffer.getLength(), null,
+				records);
+	}
+
+	/**
+	 * Write the records to a file
+	 *
+	 * @param buffer
+	 *            - records written with append
+	 * @param records
+	 *            - number of records in buffer
+	 * @param dir
+	 *            - folder of the file
+	 * @return run in the file
+	 * @throws IOException
+	 */
+	public static SortedRun onDisk(DataOutputBuffer buffer, long records,
+			File dir) throws IOException {
+		File file = File.createTempFile("run", ".spill", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			out.write(buffer.getData(), 0, buffer.getLength());
+		} finally {
+			out.close();
+		}
+		return new SortedRun(null, 0, file, records);
+	}
+
+	/**
+	 * Write all records of a merge to a file, for an intermediate merge
+	 * pass
+	 *
+	 * @param input
+	 *            - merged runs, closed by the caller
+	 * @param dir
+	 *            - folder of the file
+	 * @return run in the file
+	 * @throws IOException
+	 */
+	public static SortedRun onDisk(RunMerger input, File dir)
+			throws IOException {
+		File file = File.createTempFile("merge", ".spill", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		long records = 0;
+		try {
+			while (input.next()) {
+				DataInputBuffer key = input.getKey();
+				DataInputBuffer value = input.getValue();
+				int keyLength = key.getLength() - key.getPosition();
+				int valueLength = value.getLength() - value.getPosition();
+				WritableUtils.writeVInt(out, keyLength);
+				WritableUtils.writeVInt(out, valueLength);
+				out.write(key.getData(), key.getPosition(), keyLength);
+				out.write(value.getData(), value.getPosition(), valueLength);
+				records++;
+			}
+		} finally {
+			out.close();
+		}
+		return new SortedRun(null, 0, file, records);
+	}
+
+	/**
+	 * Add one record at the end of a run being built
+	 *
+	 * @param buffer
+	 * @param bytes
+	 * @param keyStart
+	 * @param keyLength
+	 * @param valueStart
+	 * @param valueLength
+	 * @throws IOException
+	 */
+	public static void append(DataOutputBuffer buffer, byte[] bytes,
+			int keyStart, int keyLength, int valueStart, int valueLength)
+			throws IOException {
+		WritableUtils.writeVInt(buffer, keyLength);
+		WritableUtils.writeVInt(buffer, valueLength);
+		buffer.write(bytes, keyStart, keyLength);
+		buffer.write(bytes, valueStart, valueLength);
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return bytes held in memory, 0 for a run in a file
+	 */
+	public int getMemorySize() {
+		return data == null ? 0 : length;
+	}
+
+	public boolean isOnDisk() {
+		return file != null;
+	}
+
+	public Reader open() throws IOException {
+		return file == null ? new Reader(data, length, records) : new Reader(
+				file, records);
+	}
+
+	/**
+	 * Release the memory or the file of the run
+	 */
+	public void delete() {
+		data = null;
+		if (file != null)
+			file.delete();
+	}
+
+	/**
+	 * Read the records of a run one by one. Key and value are slices of
+	 * getBytes, valid until the next call of next.
+	 */
+	public static class Reader {
+
+		private long remaining;
+		private DataInputStream in;
+		private int position;
+		private byte[] bytes;
+		private int keyStart;
+		private int keyLength;
+		private int valueStart;
+		private int valueLength;
+
+		private Reader(byte[] data, int length, long records) {
+			this.bytes = data;
+			this.remaining = records;
+		}
+
+		private Reader(File file, long records) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 1 << 16));
+			this.bytes = new byte[256];
+			this.remaining = records;
+		}
+
+		/**
+		 * Move to the next record
+		 *
+		 * @return false after the last record
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			if (remaining == 0)
+				return false;
+			remaining--;
+			if (in == null) {
+				keyLength = WritableComparator.readVInt(bytes, position);
+				position += WritableUtils.decodeVIntSize(bytes[position]);
+				valueLength = WritableComparator.readVInt(bytes, position);
+				position += WritableUtils.decodeVIntSize(bytes[position]);
+				keyStart = position;
+				valueStart = position + keyLength;
+				position = valueStart + valueLength;
+			} else {
+				keyLength = WritableUtils.readVInt(in);
+				valueLength = WritableUtils.readVInt(in);
+				if (bytes.length < keyLength + valueLength)
+					bytes = new byte[Math.max(bytes.length * 2, keyLength
+							+ valueLength)];
+				in.readFully(bytes, 0, keyLength + valueLength);
+				keyStart = 0;
+				valueStart = keyLength;
+			}
+			return true;
+		}
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public int getKeyStart() {
+			return keyStart;
+		}
+
+		public int getKeyLength() {
+			return keyLength;
+		}
+
+		public int getValueStart() {
+			return valueStart;
+		}
+
+		public int getValueLength() {
+			return valueLength;
+		}
+
+		public void close() throws IOException {
+			if (in != null)
+				in.close();
+		}
+	}
+}